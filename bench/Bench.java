@@ -0,0 +1,162 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+/** ベンチマークの計測と結果の出力を行う簡易ハーネス
+ *  ウォームアップ後に指定回数の計測を行い、1操作あたりの時間・スループット・メモリ確保量・GC回数を出力する
+ *  メモリ確保量は計測中に終了したスレッドの分も含めるため、JDK 21以降ではThreadMXBean.getTotalThreadAllocatedBytes()から、
+ *  それより前のJDKではGCで回収したバイト数とヒープの使用量の増減から求める
+ *  JMHとは異なり計測ごとにJVMを分けないため、先に実行したスイートのJITの最適化・ヒープの状態の影響を受ける(README参照) */
+final class Bench
+{
+    /** 計測する処理(1回の呼び出しで行った操作の数を返す) */
+    interface Body
+    {
+        long run() throws Exception;
+    }
+
+    private static final int WARMUP_ROUNDS = Integer.getInteger("bench.warmup", 3);
+    private static final int MEASURE_ROUNDS = Integer.getInteger("bench.rounds", 5);
+
+    private Bench(){}
+
+    /**
+     * ウォームアップ後に計測を行い結果を1行で出力する
+     * @param name：ベンチマーク名
+     * @param unit：1操作の単位(bytesの場合はMB/sで出力する)
+     * @param body：計測する処理
+     */
+    static void measure(String name, String unit, Body body) throws Exception
+    {
+        for(int i = 0; i < WARMUP_ROUNDS; i++) body.run();
+
+        long ops = 0;
+        long allocated = allocatedBytes();
+        long gcCount = gcCount();
+        long start = System.nanoTime();
+        for(int i = 0; i < MEASURE_ROUNDS; i++) ops += body.run();
+        long elapsed = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        gcCount = gcCount() - gcCount;
+
+        double seconds = elapsed / 1e9;
+        String throughput = unit.equals("bytes")
+                ? String.format(Locale.ROOT, "%10.1f MB/s", ops / seconds / (1024 * 1024))
+                : String.format(Locale.ROOT, "%10.0f %s/s", ops / seconds, unit);
+        System.out.printf(Locale.ROOT, "%-40s %s  %10.1f ns/op  %8.1f B/op  gc=%d%n",
+                name, throughput, (double) elapsed / Math.max(1, ops), (double) allocated / Math.max(1, ops), gcCount);
+    }
+
+    /**
+     * 計測済みのレイテンシの分布を出力する
+     * @param name：ベンチマーク名
+     * @param nanos：1回ごとのレイテンシ(ns)。並び替えられる
+     */
+    static void printLatency(String name, long[] nanos)
+    {
+        Arrays.sort(nanos);
+        System.out.printf(Locale.ROOT, "%-40s n=%d  p50=%.1fus  p99=%.1fus  p99.9=%.1fus  max=%.1fus%n",
+                name, nanos.length, percentile(nanos, 50) / 1e3, percentile(nanos, 99) / 1e3, percentile(nanos, 99.9) / 1e3, nanos[nanos.length - 1] / 1e3);
+    }
+
+    private static long percentile(long[] sorted, double percentile)
+    {
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /** JDK 21以降で使える、終了したスレッドの分を含む全スレッドの確保バイト数の合計(無い場合はnull) */
+    private static final Method TOTAL_ALLOCATED = totalAllocatedMethod();
+
+    private static Method totalAllocatedMethod()
+    {
+        try
+        {
+            return com.sun.management.ThreadMXBean.class.getMethod("getTotalThreadAllocatedBytes");
+        }
+        catch(NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+
+    /** @return : JVMの起動からこれまでに全スレッド(終了したスレッドを含む)が確保したバイト数の合計 */
+    private static long allocatedBytes()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(TOTAL_ALLOCATED != null && threads instanceof com.sun.management.ThreadMXBean)
+        {
+            try
+            {
+                long total = (long) TOTAL_ALLOCATED.invoke(threads);
+                if(total >= 0) return total;
+            }
+            catch(ReflectiveOperationException ignored) {}      // 使えない場合はGCの回収量から求める
+        }
+        return HeapAccounting.allocatedBytes();
+    }
+
+    private static long gcCount()
+    {
+        long count = 0;
+        for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    /** GCの通知から回収したバイト数を数え、現在のヒープの使用量と合わせて確保バイト数を求める(JDK 21より前用)
+     *  確保したバイト数 = これまでにGCで回収したバイト数 + 現在のヒープの使用量 (TLAB単位の誤差を含む) */
+    private static final class HeapAccounting
+    {
+        /** 通知が届くのを待つ最大時間(GCの通知は別スレッドから遅れて届く) */
+        private static final long NOTIFICATION_WAIT_NANOS = 1_000_000_000L;
+
+        private static final AtomicLong collected = new AtomicLong();
+        private static final AtomicLong notified = new AtomicLong();
+        private static final long initialGcCount;
+
+        static
+        {
+            for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            {
+                if(!(gc instanceof NotificationEmitter emitter)) continue;
+                emitter.addNotificationListener((notification, handback) ->
+                {
+                    if(!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) return;
+                    GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    long freed = used(info.getGcInfo().getMemoryUsageBeforeGc().values()) - used(info.getGcInfo().getMemoryUsageAfterGc().values());
+                    collected.addAndGet(Math.max(0, freed));
+                    notified.incrementAndGet();
+                }, null, null);
+            }
+            initialGcCount = gcCount();
+        }
+
+        private HeapAccounting(){}
+
+        private static long allocatedBytes()
+        {
+            // 計測区間のGCの通知が届くまで待つ(届く前に数えると回収された分が抜ける)
+            long deadline = System.nanoTime() + NOTIFICATION_WAIT_NANOS;
+            while(notified.get() < gcCount() - initialGcCount && System.nanoTime() < deadline) LockSupport.parkNanos(100_000);
+            return collected.get() + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+
+        private static long used(Iterable<MemoryUsage> usages)
+        {
+            long total = 0;
+            for(MemoryUsage usage : usages) total += usage.getUsed();
+            return total;
+        }
+    }
+}
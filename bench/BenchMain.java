@@ -0,0 +1,51 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** SocketClientのベンチマークの実行用クラス(ループバックのLocalServerに対して計測する)
+ *
+ *  実行例 :
+ *  javac -encoding UTF-8 -d out src/*.java bench/*.java
+ *  java -cp out com.example.simple_socket_client_lib_ver201.bench.BenchMain [send|receive|connect|fanout|tls|dispatch|file|codec|replay|unix ...]
+ *
+ *  引数を省略した場合は全て実行する。ウォームアップ回数と計測回数は-Dbench.warmup, -Dbench.roundsで変更できる
+ *  B/opはその間に全スレッドで確保されたバイト数を操作数で割ったもので、受信・送信の経路でのメモリ確保の増加を確認するために使う */
+public final class BenchMain
+{
+    /** ベンチマークの処理 */
+    private interface Suite
+    {
+        void run() throws Exception;
+    }
+
+    private BenchMain(){}
+
+    public static void main(String[] args) throws Exception
+    {
+        Map<String, Suite> suites = new LinkedHashMap<>();
+        suites.put("send", SendBenchmark::run);
+        suites.put("receive", ReceiveBenchmark::run);
+        suites.put("connect", ConnectBenchmark::run);
+        suites.put("fanout", FanOutBenchmark::run);
+        suites.put("tls", TlsBenchmark::run);
+        suites.put("dispatch", DispatchBenchmark::run);
+        suites.put("file", FileSendBenchmark::run);
+        suites.put("codec", CodecBenchmark::run);
+        suites.put("replay", ReplayBenchmark::run);
+        suites.put("unix", UnixSocketBenchmark::run);
+
+        List<String> names = args.length == 0 ? List.copyOf(suites.keySet()) : Arrays.asList(args);
+        for(String name : names)
+        {
+            Suite suite = suites.get(name);
+            if(suite == null) throw new IllegalArgumentException("unknown benchmark : " + name + " (" + suites.keySet() + ")");
+
+            System.out.println("--- " + name + " ---");
+            suite.run();
+        }
+        System.exit(0);     // 接続ごとのスレッドの終了を待たずに終わる
+    }
+}
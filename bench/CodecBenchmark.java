@@ -0,0 +1,176 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.example.simple_socket_client_lib_ver201.ClientConfig;
+import com.example.simple_socket_client_lib_ver201.FrameDecoder;
+import com.example.simple_socket_client_lib_ver201.MessageCodec;
+import com.example.simple_socket_client_lib_ver201.SocketClient;
+import com.example.simple_socket_client_lib_ver201.TypedSocketClient;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/** 文字列の送受信を、getBytes(UTF_8) → sendMessage(byte[])の経路とTypedSocketClient(MessageCodec)の経路で比較する
+ *  送信はSINKサーバーへの送信スループット、往復はECHOサーバーから戻った文字列をデコードし終えるまでのスループットを計測する */
+final class CodecBenchmark
+{
+    private static final int MESSAGES = 200_000;
+    private static final int LENGTH_FIELD_SIZE = 4;
+
+    private CodecBenchmark(){}
+
+    static void run() throws Exception
+    {
+        for(int length : new int[]{64, 1024})
+        {
+            String message = "x".repeat(length - 8) + "あいう";    // マルチバイト文字を含める
+            try(LocalServer server = new LocalServer(LocalServer.Mode.SINK))
+            {
+                sendBytes(server, message);
+                sendTyped(server, message);
+            }
+            try(LocalServer server = new LocalServer(LocalServer.Mode.ECHO))
+            {
+                echoBytes(server, message);
+                echoTyped(server, message);
+            }
+        }
+    }
+
+    private static ClientConfig config(LocalServer server)
+    {
+        return new ClientConfig.ConfigBuilder("127.0.0.1", server.port())
+                .setFrameDecoder(() -> FrameDecoder.lengthField(LENGTH_FIELD_SIZE))
+                .setConnectCheckCycle(60_000)
+                .build();
+    }
+
+    /** 文字列をbyte[]にしてデータ長を付けてから送信する(これまでのアプリ側の実装と同じ) */
+    private static byte[] toFrame(String message)
+    {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(LENGTH_FIELD_SIZE + body.length).putInt(body.length).put(body).array();
+    }
+
+    private static void sendBytes(LocalServer server, String message) throws Exception
+    {
+        SocketClient client = new SocketClient(new CountingListener(false), config(server));
+        client.connect();
+        if(!client.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+
+        long frameSize = toFrame(message).length;
+        try
+        {
+            Bench.measure("codec send " + message.length() + "ch byte[]", "msg", () ->
+            {
+                long target = server.bytesRead() + MESSAGES * frameSize;
+                for(int i = 0; i < MESSAGES; i++) client.sendMessage(toFrame(message));
+                while(server.bytesRead() < target) Thread.onSpinWait();
+                return MESSAGES;
+            });
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+
+    private static void sendTyped(LocalServer server, String message) throws Exception
+    {
+        TypedSocketClient<String> client = new TypedSocketClient<>(new CountingTypedListener(), config(server),
+                MessageCodec.lengthPrefixed(MessageCodec.utf8(), LENGTH_FIELD_SIZE));
+        client.connect();
+        if(!client.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+
+        long frameSize = toFrame(message).length;
+        try
+        {
+            Bench.measure("codec send " + message.length() + "ch MessageCodec", "msg", () ->
+            {
+                long target = server.bytesRead() + MESSAGES * frameSize;
+                for(int i = 0; i < MESSAGES; i++) client.sendMessage(message);
+                while(server.bytesRead() < target) Thread.onSpinWait();
+                return MESSAGES;
+            });
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+
+    /** 受信したbyte[]をnew String(bytes, UTF_8)で文字列に戻す */
+    private static void echoBytes(LocalServer server, String message) throws Exception
+    {
+        LongAdder received = new LongAdder();
+        SocketClient client = new SocketClient(new SocketClient.ClientEventListener()
+        {
+            @Override
+            public void onDataReceived(byte[] data)
+            {
+                if(!new String(data, StandardCharsets.UTF_8).isEmpty()) received.increment();
+            }
+
+            @Override
+            public void onErrorReceived(SocketClient.ErrorInfo e){System.err.println("  error : " + e.getSummary() + " " + e.getMessage());}
+
+            @Override
+            public void onDisConnected(){}
+        }, config(server));
+        client.connect();
+        if(!client.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+
+        try
+        {
+            Bench.measure("codec echo " + message.length() + "ch byte[]", "msg", () ->
+            {
+                long target = received.sum() + MESSAGES;
+                for(int i = 0; i < MESSAGES; i++) client.sendMessage(toFrame(message));
+                while(received.sum() < target) Thread.onSpinWait();
+                return MESSAGES;
+            });
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+
+    private static void echoTyped(LocalServer server, String message) throws Exception
+    {
+        CountingTypedListener listener = new CountingTypedListener();
+        TypedSocketClient<String> client = new TypedSocketClient<>(listener, config(server),
+                MessageCodec.lengthPrefixed(MessageCodec.utf8(), LENGTH_FIELD_SIZE));
+        client.connect();
+        if(!client.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+
+        try
+        {
+            Bench.measure("codec echo " + message.length() + "ch MessageCodec", "msg", () ->
+            {
+                long target = listener.received.sum() + MESSAGES;
+                for(int i = 0; i < MESSAGES; i++) client.sendMessage(message);
+                while(listener.received.sum() < target) Thread.onSpinWait();
+                return MESSAGES;
+            });
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+
+    /** 受信したメッセージ数を数えるだけのコールバック */
+    private static final class CountingTypedListener implements TypedSocketClient.TypedEventListener<String>
+    {
+        private final LongAdder received = new LongAdder();
+
+        @Override
+        public void onMessageReceived(String message){if(!message.isEmpty()) received.increment();}
+
+        @Override
+        public void onErrorReceived(SocketClient.ErrorInfo e){System.err.println("  error : " + e.getSummary() + " " + e.getMessage());}
+
+        @Override
+        public void onDisConnected(){}
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.example.simple_socket_client_lib_ver201.ClientConfig;
+import com.example.simple_socket_client_lib_ver201.SocketClient;
+
+/** connect()から接続完了までのレイテンシと、サーバー側から切断された後の再接続完了までのレイテンシを計測する */
+final class ConnectBenchmark
+{
+    private static final int SAMPLES = 500;
+
+    private ConnectBenchmark(){}
+
+    static void run() throws Exception
+    {
+        try(LocalServer server = new LocalServer(LocalServer.Mode.ECHO))
+        {
+            connect(server);
+            reconnect(server);
+        }
+    }
+
+    /** 毎回新しいSocketClientを生成して接続する(スレッドの生成を含む) */
+    private static void connect(LocalServer server) throws Exception
+    {
+        ClientConfig config = new ClientConfig.ConfigBuilder("127.0.0.1", server.port()).setConnectCheckCycle(60_000).build();
+        long[] samples = new long[SAMPLES];
+        for(int round = 0; round < 2; round++)      // 1周目はウォームアップ
+        {
+            for(int i = 0; i < samples.length; i++)
+            {
+                CountingListener listener = new CountingListener(false);
+                SocketClient client = new SocketClient(listener, config);
+                long start = System.nanoTime();
+                client.connect();
+                if(!listener.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+                samples[i] = System.nanoTime() - start;
+                client.disconnect();
+            }
+        }
+        Bench.printLatency("connect latency", samples);
+    }
+
+    /** サーバー側から切断し、再接続(RetryConnection)が完了するまでの時間を計測する */
+    private static void reconnect(LocalServer server) throws Exception
+    {
+        CountingListener listener = new CountingListener(false);
+        SocketClient client = new SocketClient(listener,
+                new ClientConfig.ConfigBuilder("127.0.0.1", server.port()).setRetryCount(Integer.MAX_VALUE).setConnectCheckCycle(60_000).build());
+        client.connect();
+        if(!listener.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+
+        try
+        {
+            long[] samples = new long[SAMPLES / 5];
+            for(int i = 0; i < samples.length; i++)
+            {
+                while(server.connectionCount() == 0) Thread.onSpinWait();     // サーバー側のacceptを待ってから切断する
+
+                long start = System.nanoTime();
+                server.dropConnections();
+                if(!listener.awaitConnected(5000)) throw new IllegalStateException("reconnect failed");
+                samples[i] = System.nanoTime() - start;
+            }
+            Bench.printLatency("reconnect latency", samples);
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.example.simple_socket_client_lib_ver201.SocketClient;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/** 受信バイト数と接続完了の回数を数えるだけのコールバック(ベンチマーク用)
+ *  copyToArrayがtrueの場合はbyte[]版のonDataReceivedと同じくコピーを行い、受信時のコピーのコストも計測に含める */
+final class CountingListener implements SocketClient.ByteBufferEventListener
+{
+    private final boolean copyToArray;
+    private final LongAdder received = new LongAdder();
+    private final Semaphore connected = new Semaphore(0);
+
+    CountingListener(boolean copyToArray){this.copyToArray = copyToArray;}
+
+    long received(){return received.sum();}
+
+    /** 接続完了(再接続を含む)の通知を1回分待つ */
+    boolean awaitConnected(long timeoutMillis) throws InterruptedException
+    {
+        return connected.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 受信バイト数が指定の値に達するまで待つ
+     * @return：時間内に達した場合はtrue
+     */
+    boolean awaitReceived(long bytes, long timeoutMillis) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while(received.sum() < bytes)
+        {
+            if(System.nanoTime() > deadline) return false;
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    @Override
+    public void onDataReceived(ByteBuffer data)
+    {
+        int size = data.remaining();
+        if(copyToArray)
+        {
+            byte[] bytes = new byte[size];
+            data.get(bytes);
+        }
+        received.add(size);
+    }
+
+    @Override
+    public void onErrorReceived(SocketClient.ErrorInfo e){System.err.println("  error : " + e.getSummary() + " " + e.getMessage());}
+
+    @Override
+    public void onConnected(){connected.release();}
+
+    @Override
+    public void onDisConnected(){}
+}
@@ -0,0 +1,83 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.example.simple_socket_client_lib_ver201.ClientConfig;
+import com.example.simple_socket_client_lib_ver201.DispatchWaitStrategy;
+import com.example.simple_socket_client_lib_ver201.SocketClient;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/** 時々処理が遅くなるコールバック関数で、BURSTYサーバーからの受信スループットと通知までの遅延を計測する
+ *  inlineは受信処理のスレッドでそのまま通知し、それ以外は通知用スレッド(リングバッファ)を経由して通知する */
+final class DispatchBenchmark
+{
+    private static final long WINDOW_MILLIS = 500;
+    private static final int RING_SIZE = 1024;
+    /** この回数に1回、コールバック関数の処理を遅くする */
+    private static final int SLOW_EVERY = 256;
+    private static final long SLOW_NANOS = 200_000;
+
+    private DispatchBenchmark(){}
+
+    static void run() throws Exception
+    {
+        receive(null);
+        for(DispatchWaitStrategy strategy : DispatchWaitStrategy.values()) receive(strategy);
+    }
+
+    /** @param strategy：通知用スレッドの待ち方(nullの場合は受信処理のスレッドで通知する) */
+    private static void receive(DispatchWaitStrategy strategy) throws Exception
+    {
+        try(LocalServer server = new LocalServer(LocalServer.Mode.BURSTY))
+        {
+            SlowListener listener = new SlowListener();
+            ClientConfig.ConfigBuilder builder = new ClientConfig.ConfigBuilder("127.0.0.1", server.port()).setMaxReadSize(8192).setConnectCheckCycle(60_000);
+            if(strategy != null) builder.setCallbackDispatch(RING_SIZE, strategy);
+            SocketClient client = new SocketClient(listener, builder.build());
+            client.connect();
+            if(!client.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+
+            String name = "dispatch " + (strategy == null ? "inline" : strategy.name().toLowerCase());
+            try
+            {
+                Bench.measure(name, "bytes", () ->
+                {
+                    long before = listener.received;
+                    Thread.sleep(WINDOW_MILLIS);
+                    return listener.received - before;
+                });
+                if(strategy != null)
+                {
+                    System.out.printf("%-40s p50=%dus  p99=%dus  backlog=%d%n", name + " lag",
+                            client.getMetrics().getDispatchLag().getPercentileMicros(50),
+                            client.getMetrics().getDispatchLag().getPercentileMicros(99),
+                            client.getMetrics().getDispatchBacklog());
+                }
+            }
+            finally
+            {
+                client.disconnect();
+            }
+        }
+    }
+
+    /** 受信バイト数を数え、SLOW_EVERY回に1回だけSLOW_NANOSの間処理を止めるコールバック */
+    private static final class SlowListener implements SocketClient.ByteBufferEventListener
+    {
+        /** 通知は1つのスレッドから順に行われるので、計測スレッドから読めればよい */
+        private volatile long received = 0;
+        private int count = 0;
+
+        @Override
+        public void onDataReceived(ByteBuffer data)
+        {
+            received = received + data.remaining();
+            if(++count % SLOW_EVERY == 0) LockSupport.parkNanos(SLOW_NANOS);
+        }
+
+        @Override
+        public void onErrorReceived(SocketClient.ErrorInfo e){System.err.println("  error : " + e.getSummary() + " " + e.getMessage());}
+
+        @Override
+        public void onDisConnected(){}
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.example.simple_socket_client_lib_ver201.ClientConfig;
+import com.example.simple_socket_client_lib_ver201.SocketClient;
+import com.example.simple_socket_client_lib_ver201.SocketClientEventLoop;
+import java.util.ArrayList;
+import java.util.List;
+
+/** 多数のSocketClientからECHOサーバーへ送信し、全ての応答を受信するまでのスループットを計測する
+ *  接続ごとにスレッドを使うブロッキングモードと、共有のイベントループを使うNIOモードを比較する */
+final class FanOutBenchmark
+{
+    private static final int[] CLIENT_COUNTS = {10, 100, 500};
+    private static final int MESSAGES_PER_CLIENT = 200;
+    private static final int MESSAGE_SIZE = 128;
+
+    private FanOutBenchmark(){}
+
+    static void run() throws Exception
+    {
+        try(LocalServer server = new LocalServer(LocalServer.Mode.ECHO))
+        {
+            for(int clients : CLIENT_COUNTS)
+            {
+                fanOut(server, clients, null);
+                SocketClientEventLoop loop = new SocketClientEventLoop();
+                try
+                {
+                    fanOut(server, clients, loop);
+                }
+                finally
+                {
+                    loop.shutdown();
+                }
+            }
+        }
+    }
+
+    private static void fanOut(LocalServer server, int count, SocketClientEventLoop loop) throws Exception
+    {
+        ClientConfig.ConfigBuilder builder = new ClientConfig.ConfigBuilder("127.0.0.1", server.port())
+                .setMaxReadSize(8192).setConnectCheckCycle(60_000);
+        if(loop != null) builder.setEventLoop(loop);
+        ClientConfig config = builder.build();
+
+        List<SocketClient> clients = new ArrayList<>(count);
+        List<CountingListener> listeners = new ArrayList<>(count);
+        for(int i = 0; i < count; i++)
+        {
+            CountingListener listener = new CountingListener(false);
+            SocketClient client = new SocketClient(listener, config);
+            client.connect();
+            clients.add(client);
+            listeners.add(listener);
+        }
+        for(CountingListener listener : listeners)
+        {
+            if(!listener.awaitConnected(10_000)) throw new IllegalStateException("connect failed");
+        }
+
+        byte[] payload = new byte[MESSAGE_SIZE];
+        try
+        {
+            Bench.measure("fan-out " + count + " clients " + (loop == null ? "blocking" : "nio"), "msg", () ->
+            {
+                long[] targets = new long[count];
+                for(int i = 0; i < count; i++) targets[i] = listeners.get(i).received() + (long) MESSAGES_PER_CLIENT * MESSAGE_SIZE;
+
+                for(int m = 0; m < MESSAGES_PER_CLIENT; m++)
+                {
+                    for(SocketClient client : clients) client.sendMessage(payload);
+                }
+                for(int i = 0; i < count; i++)
+                {
+                    if(!listeners.get(i).awaitReceived(targets[i], 30_000)) throw new IllegalStateException("echo timed out");
+                }
+                return (long) count * MESSAGES_PER_CLIENT;
+            });
+        }
+        finally
+        {
+            for(SocketClient client : clients) client.disconnect();
+        }
+    }
+}
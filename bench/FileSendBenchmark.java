@@ -0,0 +1,70 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.example.simple_socket_client_lib_ver201.ClientConfig;
+import com.example.simple_socket_client_lib_ver201.SocketClient;
+import com.example.simple_socket_client_lib_ver201.SocketClientEventLoop;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/** 大きなファイルの送信を、ファイル全体をbyte[]へ読み込んでsendMessageする場合とsendFileの場合で比較する
+ *  B/opはファイル1回分の送信あたりのメモリ確保量で、sendFileではファイルサイズに比例しないことを確認する */
+final class FileSendBenchmark
+{
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+
+    private FileSendBenchmark(){}
+
+    static void run() throws Exception
+    {
+        Path file = Files.createTempFile("socket-client-bench", ".bin");
+        try(LocalServer server = new LocalServer(LocalServer.Mode.SINK))
+        {
+            byte[] content = new byte[FILE_SIZE];
+            new Random(1).nextBytes(content);
+            Files.write(file, content);
+
+            send(server, file, false, null);
+            send(server, file, true, null);
+            SocketClientEventLoop loop = new SocketClientEventLoop(1);
+            try
+            {
+                send(server, file, true, loop);
+            }
+            finally
+            {
+                loop.shutdown();
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /** @param sendFile：sendFileで送信するか(falseの場合はFiles.readAllBytesしてsendMessageAsyncで送信する) */
+    private static void send(LocalServer server, Path file, boolean sendFile, SocketClientEventLoop loop) throws Exception
+    {
+        ClientConfig.ConfigBuilder builder = new ClientConfig.ConfigBuilder("127.0.0.1", server.port()).setConnectCheckCycle(60_000);
+        if(loop != null) builder.setEventLoop(loop);
+        SocketClient client = new SocketClient(new CountingListener(false), builder.build());
+        client.connect();
+        if(!client.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+
+        try
+        {
+            Bench.measure("file " + (sendFile ? "sendFile" : "readAllBytes+send") + " " + (loop == null ? "blocking" : "nio"), "file", () ->
+            {
+                long target = server.bytesRead() + FILE_SIZE;
+                if(sendFile) client.sendFile(file).get();
+                else client.sendMessageAsync(Files.readAllBytes(file)).get();
+                while(server.bytesRead() < target) Thread.onSpinWait();
+                return 1;
+            });
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+}
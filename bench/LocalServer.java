@@ -0,0 +1,178 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** ベンチマーク用にループバックで動かすテストサーバー(接続ごとに1スレッド)
+ *  ECHO : 受信したデータをそのまま返す
+ *  SINK : 受信したデータを読み捨てる
+ *  BURSTY : 受信は読み捨て、BURST_SIZEバイトのデータを間隔を空けながら送り続ける */
+public final class LocalServer implements AutoCloseable
+{
+    public enum Mode
+    {
+        ECHO,
+        SINK,
+        BURSTY
+    }
+
+    /** BURSTYモードで1回に送るバイト数 */
+    public static final int BURST_SIZE = 256 * 1024;
+    /** BURSTYモードで送信の間に空ける時間 */
+    private static final long BURST_INTERVAL_NANOS = 50_000;
+
+    private final Mode mode;
+    private final ServerSocketChannel server;
+    /** Unixドメインソケットで待ち受ける場合のソケットファイル(TCPの場合はnull) */
+    private final Path unixSocket;
+    private final List<SocketChannel> accepted = new CopyOnWriteArrayList<>();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * テストサーバーを空いているポートで起動する
+     * @param mode：サーバーの動作
+     */
+    public LocalServer(Mode mode) throws IOException
+    {
+        this(mode, null);
+    }
+
+    /**
+     * テストサーバーをUnixドメインソケットで起動する
+     * @param mode：サーバーの動作
+     * @param unixSocket：待ち受けるソケットファイル(既にある場合は削除してから作る。nullの場合は空いているポートでTCP)
+     */
+    public LocalServer(Mode mode, Path unixSocket) throws IOException
+    {
+        this.mode = mode;
+        this.unixSocket = unixSocket;
+        if(unixSocket != null)
+        {
+            Files.deleteIfExists(unixSocket);
+            this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(unixSocket), 1024);
+        }
+        else
+        {
+            this.server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress("127.0.0.1", 0), 1024);
+        }
+
+        Thread acceptor = new Thread(this::acceptLoop, "LocalServer-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** @return : 待ち受けているポート番号 */
+    public int port(){return unixSocket != null ? 0 : server.socket().getLocalPort();}
+
+    /** @return : 全接続から受信したバイト数の合計 */
+    public long bytesRead(){return bytesRead.get();}
+
+    /** @return : 全接続へ送信したバイト数の合計 */
+    public long bytesWritten(){return bytesWritten.get();}
+
+    /** 接続中のクライアント数を返す(クライアント側の接続完了はサーバー側のacceptより先に通知されることがある) */
+    public int connectionCount(){return accepted.size();}
+
+    /** 接続中の全てのクライアントとの接続をサーバー側から切断する(再接続の計測用)
+     *  送信側を先に閉じてFINを送り、クライアントからはEOFとして見えるようにする */
+    public void dropConnections()
+    {
+        for(SocketChannel channel : accepted)
+        {
+            accepted.remove(channel);       // 切断中に再接続してきた接続は残す
+            try { channel.shutdownOutput(); } catch (IOException ignored) {}
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        try { server.close(); } catch (IOException ignored) {}
+        dropConnections();
+        if(unixSocket != null) try { Files.deleteIfExists(unixSocket); } catch (IOException ignored) {}
+    }
+
+    private void acceptLoop()
+    {
+        while(!closed)
+        {
+            try
+            {
+                SocketChannel channel = server.accept();
+                if(unixSocket == null) channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                accepted.add(channel);
+
+                Thread worker = new Thread(() -> serve(channel), "LocalServer-" + mode);
+                worker.setDaemon(true);
+                worker.start();
+            }
+            catch(IOException e)
+            {
+                if(closed) return;
+            }
+        }
+    }
+
+    private void serve(SocketChannel channel)
+    {
+        try
+        {
+            if(mode == Mode.BURSTY) burst(channel);
+            else readLoop(channel, mode == Mode.ECHO);
+        }
+        catch(IOException ignored) {}    // クライアント側・サーバー側の切断
+        finally
+        {
+            accepted.remove(channel);
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void readLoop(SocketChannel channel, boolean echo) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        int n;
+        while((n = channel.read(buffer)) >= 0)
+        {
+            bytesRead.addAndGet(n);
+            buffer.flip();
+            if(echo)
+            {
+                while(buffer.hasRemaining()) bytesWritten.addAndGet(channel.write(buffer));
+            }
+            buffer.clear();
+        }
+    }
+
+    /** 一定量をまとめて送ってから少し間を空けることを繰り返す(受信側の読み込みサイズの影響を見るため) */
+    private void burst(SocketChannel channel) throws IOException
+    {
+        ByteBuffer burst = ByteBuffer.allocateDirect(BURST_SIZE);
+        while(burst.hasRemaining()) burst.put((byte) 'x');
+
+        while(!closed && channel.isOpen())
+        {
+            burst.clear();
+            while(burst.hasRemaining()) bytesWritten.addAndGet(channel.write(burst));
+            LockSupport.parkNanos(BURST_INTERVAL_NANOS);
+        }
+    }
+}
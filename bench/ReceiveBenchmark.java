@@ -0,0 +1,53 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.example.simple_socket_client_lib_ver201.ClientConfig;
+import com.example.simple_socket_client_lib_ver201.SocketClient;
+
+/** BURSTYサーバーから送られ続けるデータの受信スループットをMAX_READ_SIZEごとに計測する
+ *  (adaptiveは読み込みサイズを256B～64KBの範囲で受信量に合わせて変える設定) */
+final class ReceiveBenchmark
+{
+    private static final long WINDOW_MILLIS = 500;
+    private static final int[] READ_SIZES = {256, 1024, 8192, 65536};
+
+    private ReceiveBenchmark(){}
+
+    static void run() throws Exception
+    {
+        for(int readSize : READ_SIZES) receive(readSize, false, false);
+        receive(8192, true, false);
+        receive(1024, false, true);
+    }
+
+    /**
+     * @param readSize：MAX_READ_SIZE
+     * @param copyToArray：受信データをbyte[]へコピーするか(ClientEventListenerの場合と同じコスト)
+     * @param adaptive：読み込みサイズを受信量に合わせて変えるか
+     */
+    private static void receive(int readSize, boolean copyToArray, boolean adaptive) throws Exception
+    {
+        try(LocalServer server = new LocalServer(LocalServer.Mode.BURSTY))
+        {
+            CountingListener listener = new CountingListener(copyToArray);
+            ClientConfig.ConfigBuilder builder = new ClientConfig.ConfigBuilder("127.0.0.1", server.port()).setMaxReadSize(readSize).setConnectCheckCycle(60_000);
+            if(adaptive) builder.setAdaptiveReadSize(256, 65536);
+            SocketClient client = new SocketClient(listener, builder.build());
+            client.connect();
+            if(!client.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+
+            try
+            {
+                Bench.measure("receive read=" + (adaptive ? "adaptive" : readSize) + (copyToArray ? " byte[]" : " ByteBuffer"), "bytes", () ->
+                {
+                    long before = listener.received();
+                    Thread.sleep(WINDOW_MILLIS);
+                    return listener.received() - before;
+                });
+            }
+            finally
+            {
+                client.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.example.simple_socket_client_lib_ver201.ClientConfig;
+import com.example.simple_socket_client_lib_ver201.SocketClient;
+import com.example.simple_socket_client_lib_ver201.TrafficCapture;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** TrafficCaptureで記録した受信データをReplayServerから送り返し、MAX_READ_SIZEごとの受信にかかる時間を計測する
+ *  -Dbench.capture=ファイル で記録を指定でき、指定しない場合はBURSTYサーバーからの受信を記録して使う
+ *  記録時と同じ間隔(1x)と間隔を空けない場合(max)で計測し、あわせて記録の有無による受信スループットの差も計測する */
+final class ReplayBenchmark
+{
+    private static final long CAPTURE_MILLIS = 500;
+    private static final int[] READ_SIZES = {1024, 8192, 65536};
+
+    private ReplayBenchmark(){}
+
+    static void run() throws Exception
+    {
+        String configured = System.getProperty("bench.capture");
+        Path capture = configured != null ? Path.of(configured) : recordCapture();
+        try
+        {
+            long total = ReplayServer.inboundBytes(capture);
+            System.out.println("  capture " + capture + " : " + total + " bytes inbound");
+            if(total == 0) return;
+
+            for(int readSize : READ_SIZES) replay(capture, total, readSize, 0);
+            replay(capture, total, 8192, 1.0);
+        }
+        finally
+        {
+            if(configured == null) Files.deleteIfExists(capture);
+        }
+    }
+
+    /** BURSTYサーバーからの受信を記録する(記録の負荷も同時に計測する) */
+    private static Path recordCapture() throws Exception
+    {
+        Path file = Files.createTempFile("bench-capture", ".bin");
+        try(LocalServer server = new LocalServer(LocalServer.Mode.BURSTY))
+        {
+            receive(server, null);
+            try(TrafficCapture capture = new TrafficCapture(file))
+            {
+                receive(server, capture);
+                if(capture.getDroppedCount() > 0) System.out.println("  capture dropped " + capture.getDroppedCount() + " records");
+            }
+        }
+        return file;
+    }
+
+    private static void receive(LocalServer server, TrafficCapture capture) throws Exception
+    {
+        CountingListener listener = new CountingListener(false);
+        ClientConfig.ConfigBuilder builder = new ClientConfig.ConfigBuilder("127.0.0.1", server.port()).setMaxReadSize(8192).setConnectCheckCycle(60_000);
+        if(capture != null) builder.setTrafficCapture(capture);
+        SocketClient client = new SocketClient(listener, builder.build());
+        client.connect();
+        if(!client.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+
+        try
+        {
+            Bench.measure("receive read=8192 " + (capture == null ? "no capture" : "capture"), "bytes", () ->
+            {
+                long before = listener.received();
+                Thread.sleep(CAPTURE_MILLIS / 5);
+                return listener.received() - before;
+            });
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+
+    /**
+     * 接続ごとに記録の先頭から送り返し、記録の受信データを全て受信し終えるまでの時間を計測する
+     * @param speed：記録時の何倍の速さで送るか(0の場合は間隔を空けない)
+     */
+    private static void replay(Path capture, long total, int readSize, double speed) throws Exception
+    {
+        try(ReplayServer server = new ReplayServer(capture, speed))
+        {
+            ClientConfig config = new ClientConfig.ConfigBuilder("127.0.0.1", server.port()).setMaxReadSize(readSize).setConnectCheckCycle(60_000).build();
+            Bench.measure("replay read=" + readSize + " " + (speed == 0 ? "max" : speed + "x"), "bytes", () ->
+            {
+                CountingListener listener = new CountingListener(false);
+                SocketClient client = new SocketClient(listener, config);
+                client.connect();
+                try
+                {
+                    if(!listener.awaitReceived(total, 60_000)) throw new IllegalStateException("replay timeout");
+                }
+                finally
+                {
+                    client.disconnect();
+                }
+                return total;
+            });
+        }
+    }
+}
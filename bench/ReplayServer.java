@@ -0,0 +1,175 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.example.simple_socket_client_lib_ver201.TrafficCapture;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** TrafficCaptureで記録した受信データを、接続してきたクライアントへ記録時と同じ区切り・間隔で送り返すテストサーバー
+ *  (接続ごとに記録の先頭から送る。クライアントからの送信データは読み捨てる)
+ *  speedが1の場合は記録時と同じ間隔、2の場合は半分の間隔で送り、0の場合は間隔を空けずに送る
+ *
+ *  単体での実行例 :
+ *  java -cp out com.example.simple_socket_client_lib_ver201.bench.ReplayServer capture.bin 9000 1.0 */
+public final class ReplayServer implements AutoCloseable
+{
+    private final Path capture;
+    private final double speed;
+    private final ServerSocketChannel server;
+    private final List<SocketChannel> accepted = new CopyOnWriteArrayList<>();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * 空いているポートで起動する
+     * @param capture：TrafficCaptureで記録したファイル
+     * @param speed：記録時の何倍の速さで送るか(0の場合は間隔を空けない)
+     */
+    public ReplayServer(Path capture, double speed) throws IOException
+    {
+        this(capture, speed, 0);
+    }
+
+    /**
+     * 指定したポートで起動する
+     * @param capture：TrafficCaptureで記録したファイル
+     * @param speed：記録時の何倍の速さで送るか(0の場合は間隔を空けない)
+     * @param port：待ち受けるポート番号(0の場合は空いているポート)
+     */
+    public ReplayServer(Path capture, double speed, int port) throws IOException
+    {
+        if(speed < 0) throw new IllegalArgumentException("speed must not be negative : " + speed);
+        TrafficCapture.open(capture).close();       // 起動前に形式を確認する
+
+        this.capture = capture;
+        this.speed = speed;
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", port), 1024);
+
+        Thread acceptor = new Thread(this::acceptLoop, "ReplayServer-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** @return : 待ち受けているポート番号 */
+    public int port(){return server.socket().getLocalPort();}
+
+    /** @return : 全接続へ送信したバイト数の合計 */
+    public long bytesWritten(){return bytesWritten.get();}
+
+    /** @return : 記録の最後まで送り終えた接続の数 */
+    public long replayedCount(){return replayed.get();}
+
+    /**
+     * 記録された受信データの合計バイト数を数える(1接続でクライアントが受信するバイト数)
+     * @param capture：TrafficCaptureで記録したファイル
+     */
+    public static long inboundBytes(Path capture) throws IOException
+    {
+        long total = 0;
+        try(TrafficCapture.Reader reader = TrafficCapture.open(capture))
+        {
+            while(reader.next())
+            {
+                if(reader.direction() == TrafficCapture.Direction.INBOUND) total += reader.data().remaining();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        try { server.close(); } catch (IOException ignored) {}
+        for(SocketChannel channel : accepted)
+        {
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    private void acceptLoop()
+    {
+        while(!closed)
+        {
+            try
+            {
+                SocketChannel channel = server.accept();
+                channel.socket().setTcpNoDelay(true);      // 記録時の区切りのまま送る
+                accepted.add(channel);
+
+                Thread drain = new Thread(() -> discardInput(channel), "ReplayServer-read");
+                drain.setDaemon(true);
+                drain.start();
+                Thread worker = new Thread(() -> replay(channel), "ReplayServer-replay");
+                worker.setDaemon(true);
+                worker.start();
+            }
+            catch(IOException e)
+            {
+                if(closed) return;
+            }
+        }
+    }
+
+    /** 記録の受信データを記録時の間隔に合わせて送る */
+    private void replay(SocketChannel channel)
+    {
+        try(TrafficCapture.Reader reader = TrafficCapture.open(capture))
+        {
+            long start = System.nanoTime();
+            long firstNanos = -1;
+            while(reader.next() && !closed)
+            {
+                if(reader.direction() != TrafficCapture.Direction.INBOUND) continue;
+                if(firstNanos < 0) firstNanos = reader.nanos();
+
+                if(speed > 0)
+                {
+                    long due = start + (long) ((reader.nanos() - firstNanos) / speed);
+                    long wait;
+                    while((wait = due - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+                }
+                ByteBuffer data = reader.data();
+                while(data.hasRemaining()) bytesWritten.addAndGet(channel.write(data));
+            }
+            replayed.incrementAndGet();
+        }
+        catch(IOException ignored) {}    // クライアント側・サーバー側の切断
+    }
+
+    private void discardInput(SocketChannel channel)
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try
+        {
+            while(channel.read(buffer) >= 0) buffer.clear();
+        }
+        catch(IOException ignored) {}
+        finally
+        {
+            accepted.remove(channel);
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /** 引数 : 記録したファイル [ポート番号(省略時は9000)] [速さ(省略時は1.0)] */
+    public static void main(String[] args) throws Exception
+    {
+        if(args.length < 1) throw new IllegalArgumentException("usage : ReplayServer <capture> [port] [speed]");
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 9000;
+        double speed = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+
+        ReplayServer replay = new ReplayServer(Path.of(args[0]), speed, port);
+        System.out.println("replaying " + args[0] + " on 127.0.0.1:" + replay.port() + " speed=" + speed);
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.example.simple_socket_client_lib_ver201.ClientConfig;
+import com.example.simple_socket_client_lib_ver201.SocketClient;
+import com.example.simple_socket_client_lib_ver201.SocketClientEventLoop;
+
+/** SocketClient.sendMessageのスループットと、sendMessageAsyncの書き込み完了までのレイテンシを計測する */
+final class SendBenchmark
+{
+    private static final int MESSAGES = 200_000;
+    private static final int LATENCY_SAMPLES = 20_000;
+
+    private SendBenchmark(){}
+
+    static void run() throws Exception
+    {
+        try(LocalServer server = new LocalServer(LocalServer.Mode.SINK))
+        {
+            for(int size : new int[]{64, 1024})
+            {
+                throughput(server, size, null);
+                SocketClientEventLoop loop = new SocketClientEventLoop(1);
+                try
+                {
+                    throughput(server, size, loop);
+                }
+                finally
+                {
+                    loop.shutdown();
+                }
+            }
+            latency(server, 64);
+        }
+    }
+
+    /** 1スレッドからsendMessageを続けて呼び、サーバーが全て受信するまでの時間を計測する */
+    private static void throughput(LocalServer server, int size, SocketClientEventLoop loop) throws Exception
+    {
+        ClientConfig.ConfigBuilder builder = new ClientConfig.ConfigBuilder("127.0.0.1", server.port()).setConnectCheckCycle(60_000);
+        if(loop != null) builder.setEventLoop(loop);
+        SocketClient client = new SocketClient(new CountingListener(false), builder.build());
+        client.connect();
+        if(!client.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+
+        byte[] payload = new byte[size];
+        try
+        {
+            Bench.measure("send " + size + "B " + (loop == null ? "blocking" : "nio"), "msg", () ->
+            {
+                long target = server.bytesRead() + (long) MESSAGES * size;
+                for(int i = 0; i < MESSAGES; i++) client.sendMessage(payload);
+                while(server.bytesRead() < target) Thread.onSpinWait();
+                return MESSAGES;
+            });
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+
+    /** sendMessageAsyncを呼んでから書き込み完了までのレイテンシを1件ずつ計測する */
+    private static void latency(LocalServer server, int size) throws Exception
+    {
+        SocketClient client = new SocketClient(new CountingListener(false),
+                new ClientConfig.ConfigBuilder("127.0.0.1", server.port()).setConnectCheckCycle(60_000).build());
+        client.connect();
+        if(!client.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+
+        byte[] payload = new byte[size];
+        try
+        {
+            for(int i = 0; i < LATENCY_SAMPLES; i++) client.sendMessageAsync(payload).get();     // ウォームアップ
+
+            long[] samples = new long[LATENCY_SAMPLES];
+            for(int i = 0; i < samples.length; i++)
+            {
+                long start = System.nanoTime();
+                client.sendMessageAsync(payload).get();
+                samples[i] = System.nanoTime() - start;
+            }
+            Bench.printLatency("sendMessageAsync " + size + "B latency", samples);
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+}
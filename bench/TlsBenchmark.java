@@ -0,0 +1,95 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.example.simple_socket_client_lib_ver201.ClientConfig;
+import com.example.simple_socket_client_lib_ver201.SocketClient;
+import com.example.simple_socket_client_lib_ver201.SocketClientEventLoop;
+import javax.net.ssl.SSLContext;
+
+/** TLSのハンドシェイクのコストを計測する
+ *  接続ごとに新しいSSLContextを使う場合(毎回フルハンドシェイク)と、同じSSLContextを使い続ける場合
+ *  (セッションキャッシュによる再開)の接続レイテンシ、およびサーバー側から切断された後の再接続レイテンシを比べる */
+final class TlsBenchmark
+{
+    private static final int SAMPLES = 300;
+
+    private TlsBenchmark(){}
+
+    static void run() throws Exception
+    {
+        try(TlsEchoServer server = new TlsEchoServer())
+        {
+            connect(server, false, null);
+            connect(server, true, null);
+            SocketClientEventLoop loop = new SocketClientEventLoop(1);
+            try
+            {
+                connect(server, true, loop);
+            }
+            finally
+            {
+                loop.shutdown();
+            }
+            reconnect(server);
+        }
+    }
+
+    /** 毎回新しいSocketClientを生成して接続し、1往復のエコーを待ってから切断する
+     *  (TLS1.3ではセッションチケットが接続後に届くため、エコーの受信までをセッションの保存の待ちとする) */
+    private static void connect(TlsEchoServer server, boolean resume, SocketClientEventLoop loop) throws Exception
+    {
+        SSLContext shared = server.newClientContext();
+        long[] samples = new long[SAMPLES];
+        for(int round = 0; round < 2; round++)      // 1周目はウォームアップ
+        {
+            for(int i = 0; i < samples.length; i++)
+            {
+                ClientConfig.ConfigBuilder builder = new ClientConfig.ConfigBuilder("127.0.0.1", server.port())
+                        .setSslContext(resume ? shared : server.newClientContext()).setConnectCheckCycle(60_000);
+                if(loop != null) builder.setEventLoop(loop);
+                CountingListener listener = new CountingListener(false);
+                SocketClient client = new SocketClient(listener, builder.build());
+                long start = System.nanoTime();
+                client.connect();
+                if(!listener.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+                samples[i] = System.nanoTime() - start;
+
+                client.sendMessage(new byte[]{1});
+                if(!listener.awaitReceived(1, 3000)) throw new IllegalStateException("echo failed");
+                client.disconnect();
+            }
+        }
+        Bench.printLatency("tls connect " + (resume ? "resumed" : "full") + " " + (loop == null ? "blocking" : "nio"), samples);
+    }
+
+    /** サーバー側から切断し、再接続(RetryConnection)でセッションを再開して接続が完了するまでの時間を計測する */
+    private static void reconnect(TlsEchoServer server) throws Exception
+    {
+        CountingListener listener = new CountingListener(false);
+        SocketClient client = new SocketClient(listener, new ClientConfig.ConfigBuilder("127.0.0.1", server.port())
+                .setSslContext(server.newClientContext()).setRetryCount(Integer.MAX_VALUE).setConnectCheckCycle(60_000).build());
+        client.connect();
+        if(!listener.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+
+        try
+        {
+            long[] samples = new long[SAMPLES / 5];
+            for(int i = 0; i < samples.length; i++)
+            {
+                while(server.connectionCount() == 0) Thread.onSpinWait();     // サーバー側のacceptを待ってから切断する
+                long echoed = listener.received() + 1;
+                client.sendMessage(new byte[]{1});
+                if(!listener.awaitReceived(echoed, 3000)) throw new IllegalStateException("echo failed");
+
+                long start = System.nanoTime();
+                server.dropConnections();
+                if(!listener.awaitConnected(5000)) throw new IllegalStateException("reconnect failed");
+                samples[i] = System.nanoTime() - start;
+            }
+            Bench.printLatency("tls reconnect resumed", samples);
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+/** ベンチマーク用にループバックで動かすTLSのエコーサーバー(接続ごとに1スレッド)
+ *  起動時にJDKのkeytoolで127.0.0.1向けの自己署名証明書を生成し、クライアント用のSSLContextはその証明書を信頼する */
+final class TlsEchoServer implements AutoCloseable
+{
+    private static final char[] PASSWORD = "bench-password".toCharArray();
+
+    private final KeyStore keyStore;
+    private final SSLServerSocket server;
+    private final List<Socket> accepted = new CopyOnWriteArrayList<>();
+    private volatile boolean closed = false;
+
+    TlsEchoServer() throws IOException, GeneralSecurityException, InterruptedException
+    {
+        keyStore = generateKeyStore();
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+
+        server = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 1024, InetAddress.getByName("127.0.0.1"));
+        Thread acceptor = new Thread(this::acceptLoop, "TlsEchoServer-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** @return : 待ち受けているポート番号 */
+    int port(){return server.getLocalPort();}
+
+    /** @return : 接続中のクライアント数 */
+    int connectionCount(){return accepted.size();}
+
+    /** @return : このサーバーの証明書を信頼するクライアント用のSSLContext(生成するごとにセッションキャッシュは空になる) */
+    SSLContext newClientContext() throws GeneralSecurityException
+    {
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, trustManagers.getTrustManagers(), null);
+        return context;
+    }
+
+    /** 接続中の全てのクライアントとの接続をサーバー側から切断する(再接続の計測用) */
+    void dropConnections()
+    {
+        for(Socket socket : accepted)
+        {
+            accepted.remove(socket);
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        try { server.close(); } catch (IOException ignored) {}
+        dropConnections();
+    }
+
+    private void acceptLoop()
+    {
+        while(!closed)
+        {
+            try
+            {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                accepted.add(socket);
+
+                Thread worker = new Thread(() -> echo(socket), "TlsEchoServer-echo");
+                worker.setDaemon(true);
+                worker.start();
+            }
+            catch(IOException e)
+            {
+                if(closed) return;
+            }
+        }
+    }
+
+    private void echo(Socket socket)
+    {
+        byte[] buffer = new byte[16 * 1024];
+        try(InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream())
+        {
+            int n;
+            while((n = in.read(buffer)) >= 0)
+            {
+                out.write(buffer, 0, n);
+                out.flush();
+            }
+        }
+        catch(IOException ignored) {}    // クライアント側・サーバー側の切断
+        finally
+        {
+            accepted.remove(socket);
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /** keytoolで127.0.0.1向けの自己署名証明書を含むキーストアを生成して読み込む */
+    private static KeyStore generateKeyStore() throws IOException, GeneralSecurityException, InterruptedException
+    {
+        Path file = Files.createTempFile("tls-bench", ".p12");
+        Files.delete(file);
+        try
+        {
+            Path keytool = Path.of(System.getProperty("java.home"), "bin", "keytool");
+            Process process = new ProcessBuilder(keytool.toString(), "-genkeypair", "-alias", "bench",
+                    "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=127.0.0.1", "-ext", "SAN=ip:127.0.0.1",
+                    "-validity", "2", "-storetype", "PKCS12", "-keystore", file.toString(),
+                    "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                    .redirectErrorStream(true).start();
+            byte[] output = process.getInputStream().readAllBytes();
+            if(process.waitFor() != 0) throw new IOException("keytool failed : " + new String(output));
+
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            try(InputStream in = Files.newInputStream(file))
+            {
+                keyStore.load(in, PASSWORD);
+            }
+            return keyStore;
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.simple_socket_client_lib_ver201.bench;
+
+import com.example.simple_socket_client_lib_ver201.ClientConfig;
+import com.example.simple_socket_client_lib_ver201.FrameDecoder;
+import com.example.simple_socket_client_lib_ver201.SocketClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** 同じホスト上のサーバーとの通信を、ループバックのTCPとUnixドメインソケットで比較する
+ *  送信スループット(SINK)、request()の往復のレイテンシ(ECHO)、受信スループット(BURSTY)を計測する */
+final class UnixSocketBenchmark
+{
+    private static final int MESSAGES = 200_000;
+    private static final int PAYLOAD_SIZE = 64;
+    private static final int LATENCY_SAMPLES = 20_000;
+    private static final long WINDOW_MILLIS = 500;
+
+    private UnixSocketBenchmark(){}
+
+    static void run() throws Exception
+    {
+        Path dir = Files.createTempDirectory("bench-uds");
+        Path socket = dir.resolve("server.sock");
+        try
+        {
+            for(boolean unix : new boolean[]{false, true})
+            {
+                try(LocalServer server = new LocalServer(LocalServer.Mode.SINK, unix ? socket : null)){send(server, unix ? socket : null);}
+                try(LocalServer server = new LocalServer(LocalServer.Mode.ECHO, unix ? socket : null)){latency(server, unix ? socket : null);}
+                try(LocalServer server = new LocalServer(LocalServer.Mode.BURSTY, unix ? socket : null)){receive(server, unix ? socket : null);}
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(socket);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static String name(Path socket){return socket == null ? "tcp" : "unix";}
+
+    /** @param framed：request()の応答を区切るため、受信データを送信データと同じ長さずつ区切るか */
+    private static SocketClient connect(LocalServer server, Path socket, CountingListener listener, boolean framed) throws Exception
+    {
+        ClientConfig.ConfigBuilder builder = new ClientConfig.ConfigBuilder("127.0.0.1", server.port()).setMaxReadSize(8192).setConnectCheckCycle(60_000);
+        if(framed) builder.setFrameDecoder(() -> FrameDecoder.fixedLength(PAYLOAD_SIZE));
+        if(socket != null) builder.setUnixDomainSocket(socket);
+        else builder.setTcpNoDelay(true);
+        SocketClient client = new SocketClient(listener, builder.build());
+        client.connect();
+        if(!client.awaitConnected(3000)) throw new IllegalStateException("connect failed");
+        return client;
+    }
+
+    /** 64Bの送信データを続けて送り、サーバーが全て受信するまでの時間を計測する */
+    private static void send(LocalServer server, Path socket) throws Exception
+    {
+        SocketClient client = connect(server, socket, new CountingListener(false), false);
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        try
+        {
+            Bench.measure("send 64B " + name(socket), "msg", () ->
+            {
+                long target = server.bytesRead() + (long) MESSAGES * payload.length;
+                for(int i = 0; i < MESSAGES; i++) client.sendMessage(payload);
+                while(server.bytesRead() < target) Thread.onSpinWait();
+                return MESSAGES;
+            });
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+
+    /** 64Bのrequest()を1件ずつ送り、レスポンスを受け取るまでのレイテンシを計測する */
+    private static void latency(LocalServer server, Path socket) throws Exception
+    {
+        SocketClient client = connect(server, socket, new CountingListener(false), true);
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        try
+        {
+            for(int i = 0; i < LATENCY_SAMPLES; i++) client.request(payload).get();     // ウォームアップ
+
+            long[] samples = new long[LATENCY_SAMPLES];
+            for(int i = 0; i < samples.length; i++)
+            {
+                long start = System.nanoTime();
+                client.request(payload).get();
+                samples[i] = System.nanoTime() - start;
+            }
+            Bench.printLatency("request 64B round trip " + name(socket), samples);
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+
+    /** BURSTYサーバーから送られ続けるデータの受信スループットを計測する */
+    private static void receive(LocalServer server, Path socket) throws Exception
+    {
+        CountingListener listener = new CountingListener(false);
+        SocketClient client = connect(server, socket, listener, false);
+        try
+        {
+            Bench.measure("receive read=8192 " + name(socket), "bytes", () ->
+            {
+                long before = listener.received();
+                Thread.sleep(WINDOW_MILLIS);
+                return listener.received() - before;
+            });
+        }
+        finally
+        {
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.simple_socket_client_lib_ver201;
+
+/** 直近の読み込みバイト数から次の読み込みサイズを決めるクラス(接続ごとに1つ、受信処理のスレッドからのみ使用する)
+ *  読み込みでバッファが一杯になった場合はすぐに2倍にし、半分以下しか使わない読み込みが続いた場合は半分にする
+ *  大量データの受信では1回の読み込みとコールバックでまとめて扱え、少量のやり取りでは大きなバッファを確保しない
+ *  最小値と最大値が同じ場合は常にそのサイズで読み込む */
+final class AdaptiveReadSize
+{
+    /** 縮小するまでに続けて半分以下になった読み込みの回数 */
+    private static final int SHRINK_AFTER = 2;
+
+    private final int min;
+    private final int max;
+    private int size;
+    /** 続けて半分以下しか使わなかった読み込みの回数 */
+    private int smallReads = 0;
+
+    /**
+     * コンストラクタ
+     * @param min：読み込みサイズの最小値(Byte)
+     * @param initial：最初の読み込みサイズ(Byte)。min～maxの範囲に丸める
+     * @param max：読み込みサイズの最大値(Byte)
+     */
+    AdaptiveReadSize(int min, int initial, int max)
+    {
+        this.min = min;
+        this.max = max;
+        this.size = Math.max(min, Math.min(max, initial));
+    }
+
+    /** @return : 次の読み込みで読み込むバイト数 */
+    int next(){return size;}
+
+    /**
+     * 読み込んだバイト数を記録して次の読み込みサイズを調整する
+     * @param bytesRead：直前の読み込みで読み込んだバイト数
+     */
+    void record(int bytesRead)
+    {
+        if(bytesRead >= size)
+        {
+            size = (int) Math.min(max, (long) size * 2);
+            smallReads = 0;
+        }
+        else if(bytesRead <= size / 2 && size > min)
+        {
+            if(++smallReads >= SHRINK_AFTER)
+            {
+                size = Math.max(min, size / 2);
+                smallReads = 0;
+            }
+        }
+        else smallReads = 0;
+    }
+}
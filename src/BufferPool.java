@@ -0,0 +1,117 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** 受信などで使用するByteBufferを再利用するためのプールクラス
+ *  容量は2のべき乗ごとのサイズクラスで管理し、各サイズクラスは固定長の配列で保持する
+ *  取得・返却ともにロックもオブジェクト生成も行わないため、定常状態の受信処理でGCが発生しない */
+public class BufferPool
+{
+    /** プールする最大のサイズクラス(2^24 = 16MB)。これより大きいバッファは毎回生成する */
+    private static final int MAX_SIZE_CLASS = 24;
+
+    /** 全クライアントで共有するヒープバッファのプール */
+    private static final BufferPool HEAP = new BufferPool(false, 64);
+    /** 全クライアントで共有するダイレクトバッファのプール */
+    private static final BufferPool DIRECT = new BufferPool(true, 64);
+
+    private final boolean direct;
+    private final int maxBuffersPerSize;
+    /** サイズクラスごとのバッファ置き場(空きはnull) */
+    private final AtomicReferenceArray<ByteBuffer>[] slots;
+
+    /** @return : 全クライアントで共有するヒープバッファのプール */
+    public static BufferPool heap(){return HEAP;}
+
+    /** @return : 全クライアントで共有するダイレクトバッファのプール */
+    public static BufferPool direct(){return DIRECT;}
+
+    /**
+     * コンストラクタ
+     * @param direct：trueの場合はダイレクトバッファ、falseの場合はヒープバッファを使用する
+     * @param maxBuffersPerSize：サイズクラスごとに保持するバッファの最大数
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(boolean direct, int maxBuffersPerSize)
+    {
+        if(maxBuffersPerSize <= 0) throw new IllegalArgumentException("maxBuffersPerSize must be positive : " + maxBuffersPerSize);
+
+        this.direct = direct;
+        this.maxBuffersPerSize = maxBuffersPerSize;
+        this.slots = new AtomicReferenceArray[MAX_SIZE_CLASS + 1];
+        for(int i = 0; i <= MAX_SIZE_CLASS; i++) slots[i] = new AtomicReferenceArray<>(maxBuffersPerSize);
+    }
+
+    /** @return : ダイレクトバッファを使用するプールか */
+    public boolean isDirect(){return direct;}
+
+    /**
+     * バッファを取得する。容量は2のべき乗に切り上げられ、limitは要求したサイズに設定される
+     * @param size：必要なバイト数
+     * @return：position=0、limit=sizeのバッファ
+     */
+    public ByteBuffer acquire(int size)
+    {
+        if(size < 0) throw new IllegalArgumentException("size must not be negative : " + size);
+
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = null;
+
+        if(sizeClass <= MAX_SIZE_CLASS)
+        {
+            AtomicReferenceArray<ByteBuffer> pool = slots[sizeClass];
+            int start = startIndex();
+            for(int i = 0; i < maxBuffersPerSize && buffer == null; i++)
+            {
+                int index = (start + i) % maxBuffersPerSize;
+                if(pool.get(index) != null) buffer = pool.getAndSet(index, null);
+            }
+        }
+
+        if(buffer == null)
+        {
+            int capacity = sizeClass <= MAX_SIZE_CLASS ? 1 << sizeClass : size;
+            buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        }
+
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * acquire()で取得したバッファをプールへ返却する。返却後のバッファは使用しないこと
+     * @param buffer：返却するバッファ(nullや容量が2のべき乗でないものは破棄する)
+     */
+    public void release(ByteBuffer buffer)
+    {
+        if(buffer == null || buffer.isDirect() != direct || buffer.isReadOnly()) return;
+
+        int capacity = buffer.capacity();
+        if(capacity == 0 || Integer.bitCount(capacity) != 1) return;
+
+        int sizeClass = Integer.numberOfTrailingZeros(capacity);
+        if(sizeClass > MAX_SIZE_CLASS) return;
+
+        AtomicReferenceArray<ByteBuffer> pool = slots[sizeClass];
+        int start = startIndex();
+        for(int i = 0; i < maxBuffersPerSize; i++)
+        {
+            int index = (start + i) % maxBuffersPerSize;
+            if(pool.get(index) == null && pool.compareAndSet(index, null, buffer)) return;
+        }
+        // プールが一杯の場合はGCに任せる
+    }
+
+    /** 要求サイズを格納できる最小の2のべき乗の指数 */
+    private static int sizeClass(int size)
+    {
+        return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /** スレッドごとに探索の開始位置をずらして競合を減らす */
+    private int startIndex()
+    {
+        return (int) (Thread.currentThread().getId() % maxBuffersPerSize);
+    }
+}
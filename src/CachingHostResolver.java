@@ -0,0 +1,177 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** ホスト名の解決結果を一定時間キャッシュするリゾルバ
+ *  再接続が集中しても同じホスト名の解決は1回にまとめられ、キャッシュの期限が近づくと
+ *  接続処理を待たせずにバックグラウンドで解決し直す。解決できなかった結果も短時間キャッシュする
+ *  通常は全クライアントでshared()のインスタンスを共有する */
+public final class CachingHostResolver implements HostResolver
+{
+    /** 解決できた結果を保持する既定の時間(ms) */
+    public static final long DEFAULT_POSITIVE_TTL = 30_000;
+    /** 解決できなかった結果を保持する既定の時間(ms) */
+    public static final long DEFAULT_NEGATIVE_TTL = 5_000;
+    /** 保持時間のうち、この割合を過ぎてから使用された場合にバックグラウンドで解決し直す */
+    private static final double REFRESH_RATIO = 0.8;
+
+    private static final CachingHostResolver SHARED = new CachingHostResolver(HostResolver.system(), DEFAULT_POSITIVE_TTL, DEFAULT_NEGATIVE_TTL);
+
+    /** バックグラウンドでの解決を行うスレッド(処理が無い間は終了させる) */
+    private static final Executor REFRESH_EXECUTOR = newRefreshExecutor();
+
+    private final HostResolver delegate;
+    private final long positiveTtlNanos;
+    private final long negativeTtlNanos;
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+    /** キャッシュの1件(解決中の場合はresultが未完了) */
+    private static final class Entry
+    {
+        private final CompletableFuture<InetAddress[]> result = new CompletableFuture<>();
+        /** resultの完了前に設定する */
+        private volatile long expiresNanos;
+        private volatile long refreshNanos;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+    }
+
+    /** @return : 全てのSocketClientで共有するリゾルバ(InetAddress.getAllByName()の結果をキャッシュする) */
+    public static CachingHostResolver shared(){return SHARED;}
+
+    /**
+     * コンストラクタ
+     * @param delegate：実際に解決を行うリゾルバ
+     * @param positiveTtlMillis：解決できた結果を保持する時間(ms)
+     * @param negativeTtlMillis：解決できなかった結果を保持する時間(ms)。0の場合は保持しない
+     */
+    public CachingHostResolver(HostResolver delegate, long positiveTtlMillis, long negativeTtlMillis)
+    {
+        if(delegate == null) throw new IllegalArgumentException("delegate must not be null");
+        if(positiveTtlMillis < 0 || negativeTtlMillis < 0)
+            throw new IllegalArgumentException("ttl must not be negative : positive=" + positiveTtlMillis + ", negative=" + negativeTtlMillis);
+        this.delegate = delegate;
+        this.positiveTtlNanos = TimeUnit.MILLISECONDS.toNanos(positiveTtlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException
+    {
+        while(true)
+        {
+            long now = System.nanoTime();
+            Entry entry = cache.get(host);
+            if(entry != null)
+            {
+                // 解決中の場合は同じ結果を待つ
+                if(!entry.result.isDone()) return await(host, entry);
+                if(now - entry.expiresNanos < 0)
+                {
+                    if(!entry.result.isCompletedExceptionally() && now - entry.refreshNanos >= 0
+                            && entry.refreshing.compareAndSet(false, true)) refreshAsync(host, entry);
+                    return await(host, entry);
+                }
+            }
+
+            // 未解決・期限切れの場合はこのスレッドで解決する(他のスレッドが先に登録した場合はそちらを待つ)
+            Entry fresh = new Entry();
+            boolean owner = entry == null ? cache.putIfAbsent(host, fresh) == null : cache.replace(host, entry, fresh);
+            if(!owner) continue;
+            load(host, fresh);
+            return await(host, fresh);
+        }
+    }
+
+    /** 指定したホスト名のキャッシュを破棄する */
+    public void invalidate(String host){cache.remove(host);}
+
+    /** 全てのキャッシュを破棄する */
+    public void clear(){cache.clear();}
+
+    /** @return : キャッシュしているホスト名の数(解決中を含む) */
+    public int size(){return cache.size();}
+
+
+    /// --- 内部処理 --- ///
+
+    /** 解決してentryを完了させる */
+    private void load(String host, Entry entry)
+    {
+        try
+        {
+            InetAddress[] addresses = delegate.resolve(host);
+            if(addresses == null || addresses.length == 0) throw new UnknownHostException(host + ": no address");
+            long now = System.nanoTime();
+            entry.expiresNanos = now + positiveTtlNanos;
+            entry.refreshNanos = now + (long) (positiveTtlNanos * REFRESH_RATIO);
+            entry.result.complete(addresses.clone());
+        }
+        catch(UnknownHostException e)
+        {
+            entry.expiresNanos = System.nanoTime() + negativeTtlNanos;
+            entry.result.completeExceptionally(e);
+        }
+        catch(RuntimeException e)
+        {
+            // 想定外の例外はキャッシュしない
+            cache.remove(host, entry);
+            entry.result.completeExceptionally(e);
+        }
+    }
+
+    /** 期限が近いentryをバックグラウンドで解決し直し、解決できた場合のみ差し替える(失敗時は期限まで古い結果を使う) */
+    private void refreshAsync(String host, Entry entry)
+    {
+        try
+        {
+            REFRESH_EXECUTOR.execute(() ->
+            {
+                Entry fresh = new Entry();
+                load(host, fresh);
+                if(!fresh.result.isCompletedExceptionally()) cache.replace(host, entry, fresh);
+            });
+        }
+        catch(RejectedExecutionException e)
+        {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private static InetAddress[] await(String host, Entry entry) throws UnknownHostException
+    {
+        try
+        {
+            return entry.result.join().clone();
+        }
+        catch(CompletionException e)
+        {
+            Throwable cause = e.getCause();
+            if(cause instanceof UnknownHostException) throw new UnknownHostException(cause.getMessage());
+            if(cause instanceof RuntimeException runtime) throw runtime;
+            throw e;
+        }
+    }
+
+    private static Executor newRefreshExecutor()
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable ->
+        {
+            Thread thread = new Thread(runnable, "SocketClient-resolver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
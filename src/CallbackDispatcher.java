@@ -0,0 +1,267 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** 受信処理から受け取ったデータを、リングバッファを経由して通知用スレッドからコールバック関数へ渡すクラス
+ *  受信処理はリングバッファの事前に確保したスロットへデータをコピーするだけで戻るため、
+ *  コールバック関数の処理が遅くても読み込みが止まらない(リングバッファが一杯になった場合だけ空きを待つ)
+ *  通知用スレッドは1つなので、データは受信した順にコールバック関数へ渡される
+ *  NIOエンジン使用時は空きを待つ間I/Oスレッドが止まり、同じI/Oスレッドの他の接続の送受信も待たされる */
+final class CallbackDispatcher
+{
+    /** YIELDINGでThread.yield()に切り替えるまでのスピン回数 */
+    private static final int SPIN_TRIES = 100;
+    /** claimedに立てる、通知用スレッドが終了して書き込みを受け付けないことを表すビット */
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    /** 通知用スレッドから呼ばれる処理 */
+    interface Handler
+    {
+        /** 受信データをコールバック関数へ渡す(dataはこの関数から戻った後に再利用される) */
+        void deliver(ByteBuffer data);
+
+        /** コールバック関数で例外が発生した場合に呼ばれる */
+        void onFailure(RuntimeException e);
+    }
+
+    /** リングバッファの1要素(データのコピー先は要素ごとに保持して使い回す) */
+    private static final class Slot
+    {
+        private ByteBuffer data = ByteBuffer.allocate(0);
+        private long publishNanos;
+        /** このスロットに書き込み済みのシーケンス番号(通知用スレッドはこの値で書き込みの完了を判断する) */
+        private volatile long sequence = -1;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final DispatchWaitStrategy waitStrategy;
+    private final Handler handler;
+    private final ClientMetrics metrics;
+    private final ThreadFactory threadFactory;
+
+    /** 次に書き込むシーケンス番号(受信処理のスレッドが取得する)
+     *  通知用スレッドの終了時はCLOSEDを立て、終了の判断とシーケンス番号の取得が入れ違わないようにする */
+    private final AtomicLong claimed = new AtomicLong(CLOSED);
+    /** 通知が終わったシーケンス番号の次の値(通知用スレッドだけが更新する) */
+    private volatile long consumed = 0;
+
+    /** BLOCKINGで待つためのモニター */
+    private final Object monitor = new Object();
+    /** BLOCKINGでモニターを待っているスレッドの数(0の場合は起こす処理を省く) */
+    private volatile int waiters = 0;
+
+    /** 通知を行うか(falseにすると書き込み済みのデータを通知してから通知用スレッドが終了する) */
+    private volatile boolean running = false;
+    /** 通知用スレッド(未開始・終了済みの場合はnull。thisで同期して更新する) */
+    private Thread thread;
+
+    /**
+     * コンストラクタ
+     * @param ringSize：リングバッファの要素数(2のべき乗に切り上げる)
+     * @param waitStrategy：データ・空きの待ち方
+     * @param handler：通知用スレッドから呼ばれる処理
+     * @param metrics：通知までの遅延の記録先
+     * @param threadFactory：通知用スレッドの生成方法(nullの場合はデーモンスレッド)
+     */
+    CallbackDispatcher(int ringSize, DispatchWaitStrategy waitStrategy, Handler handler, ClientMetrics metrics, ThreadFactory threadFactory)
+    {
+        int size = ringSize <= 1 ? 1 : Integer.highestOneBit(ringSize - 1) << 1;
+        this.slots = new Slot[size];
+        for(int i = 0; i < size; i++) slots[i] = new Slot();
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+        this.handler = handler;
+        this.metrics = metrics;
+        this.threadFactory = threadFactory;
+        metrics.setDispatchBacklogSource(this::backlog);
+    }
+
+    /** 通知用スレッドを開始する(開始済みの場合は何もしない) */
+    synchronized void start()
+    {
+        running = true;
+        if(thread != null) return;      // 停止中の通知用スレッドはrunningを見て通知を続ける
+
+        claimed.set(claimed.get() & ~CLOSED);       // CLOSEDの間はシーケンス番号が取得されないので、値は変わらない
+        Thread created = threadFactory != null ? threadFactory.newThread(this::run) : new Thread(this::run, "SocketClient-dispatch");
+        if(threadFactory == null) created.setDaemon(true);
+        thread = created;
+        created.start();
+    }
+
+    /** 書き込み済みのデータを通知し終えたら通知用スレッドを終了させる(終了は待たない) */
+    void stop()
+    {
+        running = false;
+        signal();
+    }
+
+    /** @return : 書き込み済みで通知が終わっていないデータの数 */
+    long backlog(){return Math.max(0, claimedSequence() - consumed);}
+
+    /** @return : 次に書き込むシーケンス番号(CLOSEDを除いた値) */
+    private long claimedSequence(){return claimed.get() & ~CLOSED;}
+
+    /**
+     * 受信データをリングバッファへコピーする。一杯の場合は通知用スレッドが空けるまで待つ
+     * 停止中の場合は通知しないので破棄する
+     * @param data：受信データ(position～limit。この関数から戻った後に再利用してよい)
+     */
+    void publish(ByteBuffer data)
+    {
+        long sequence = claim();
+        if(sequence < 0) return;
+
+        int spins = 0;
+        boolean interrupted = false;
+        // 取得したシーケンス番号が書き込まれるまで通知用スレッドは終了しないので、停止中でも空きは出来る
+        // (取得したシーケンス番号は書き込まずに抜けられないため、割り込まれても空きを待ち、戻る時に割り込み状態を戻す)
+        while(sequence - consumed >= slots.length)
+        {
+            try
+            {
+                spins = await(spins, () -> sequence - consumed < slots.length);
+            }
+            catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if(interrupted) Thread.currentThread().interrupt();
+
+        Slot slot = slots[(int) sequence & mask];
+        int size = data.remaining();
+        if(slot.data.capacity() < size) slot.data = ByteBuffer.allocate(Math.max(size, slot.data.capacity() * 2));
+        slot.data.clear();
+        slot.data.put(data).flip();
+        slot.publishNanos = metrics.isEnabled() ? System.nanoTime() : 0;
+        slot.sequence = sequence;
+        signal();
+    }
+
+    /**
+     * 通知用スレッドが終了していない間だけシーケンス番号を取得する
+     * (終了はclaimedへCLOSEDを立てて行うため、取得と終了のどちらかが必ず先に確定する)
+     * @return：取得したシーケンス番号(停止中・終了済みの場合は-1)
+     */
+    private long claim()
+    {
+        while(true)
+        {
+            long sequence = claimed.get();
+            if(!running || (sequence & CLOSED) != 0) return -1;
+            if(claimed.compareAndSet(sequence, sequence + 1)) return sequence;
+        }
+    }
+
+
+    /// --- 通知用スレッド --- ///
+
+    private void run()
+    {
+        long next = consumed;
+        int spins = 0;
+        while(true)
+        {
+            Slot slot = slots[(int) next & mask];
+            if(slot.sequence != next)
+            {
+                if(!running && next >= claimedSequence() && exitIfIdle()) return;
+                long expected = next;
+                try
+                {
+                    spins = await(spins, () -> slot.sequence == expected || !running);
+                }
+                catch(InterruptedException ignored) {}      // 終了はstop()で行うため、書き込み済みのデータを通知し終えるまで続ける
+                continue;
+            }
+            spins = 0;
+
+            if(slot.publishNanos != 0) metrics.recordDispatched(slot.publishNanos);
+            try
+            {
+                handler.deliver(slot.data);
+            }
+            catch(RuntimeException e)
+            {
+                handler.onFailure(e);
+            }
+            next++;
+            consumed = next;
+            signal();           // 空きを待っている受信処理を起こす
+        }
+    }
+
+    /** 停止中で通知するデータが無ければclaimedへCLOSEDを立て、通知用スレッドを終了扱いにする
+     *  (CLOSEDを立てる前にシーケンス番号が取得された場合は終了せず、そのデータを通知する)
+     * @return：終了する場合はtrue */
+    private synchronized boolean exitIfIdle()
+    {
+        if(running) return false;
+        long sequence = claimed.get();
+        if(consumed < sequence || !claimed.compareAndSet(sequence, sequence | CLOSED)) return false;
+        thread = null;
+        return true;
+    }
+
+
+    /// --- 待機処理 --- ///
+
+    @FunctionalInterface
+    private interface Condition
+    {
+        boolean isMet();
+    }
+
+    /**
+     * 待ち方に従って1回分待つ
+     * @param spins：これまでに連続して待った回数
+     * @param condition：BLOCKINGで待つ前に確認する条件
+     * @return：次に渡す待った回数
+     * @throws InterruptedException：BLOCKINGで待っている間に割り込まれた場合(割り込み状態は解除される)
+     */
+    private int await(int spins, Condition condition) throws InterruptedException
+    {
+        switch(waitStrategy)
+        {
+            case BUSY_SPIN -> Thread.onSpinWait();
+            case YIELDING ->
+            {
+                if(spins < SPIN_TRIES) Thread.onSpinWait();
+                else Thread.yield();
+            }
+            default ->
+            {
+                if(spins < SPIN_TRIES)
+                {
+                    Thread.onSpinWait();
+                    break;
+                }
+                synchronized(monitor)
+                {
+                    waiters++;
+                    try
+                    {
+                        // 起こす側は状態を更新してからwaitersを確認するので、ここで条件を確認すれば通知を取りこぼさない
+                        if(!condition.isMet()) monitor.wait();
+                    }
+                    finally
+                    {
+                        waiters--;
+                    }
+                }
+            }
+        }
+        return spins + 1;
+    }
+
+    /** BLOCKINGで待っているスレッドを起こす */
+    private void signal()
+    {
+        if(waiters == 0) return;
+        synchronized(monitor){monitor.notifyAll();}
+    }
+}
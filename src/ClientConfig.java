@@ -1,5 +1,12 @@
 package com.example.simple_socket_client_lib_ver201;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+import javax.net.ssl.SSLContext;
+
 /** ソケット通信を行う際の設定値を格納・保存するクラス
  *  ビルダーパターンを使用しているためインスタンスはConfigBuilderクラスを使用して生成する*/
 public class ClientConfig
@@ -11,6 +18,37 @@ public class ClientConfig
     private final long CONNECT_CHECK_CYCLE;
     private final String CONNECT_CHECK_CHAR;
     private final int MAX_READ_SIZE;
+    private final SocketClientEventLoop EVENT_LOOP;
+    private final BufferPool BUFFER_POOL;
+    private final Supplier<FrameDecoder> FRAME_DECODER;
+    private final long WRITE_BUFFER_LOW_WATER_MARK;
+    private final long WRITE_BUFFER_HIGH_WATER_MARK;
+    private final ThreadFactory THREAD_FACTORY;
+    private final boolean VIRTUAL_THREADS;
+    private final CorrelationIdExtractor CORRELATION_ID_EXTRACTOR;
+    private final boolean METRICS_ENABLED;
+    private final HashedWheelTimer TIMER;
+    private final ReconnectPolicy RECONNECT_POLICY;
+    private final ConnectLimiter CONNECT_LIMITER;
+    private final long READ_IDLE_TIMEOUT;
+    private final List<Endpoint> ENDPOINTS;
+    private final long CONNECT_ATTEMPT_DELAY;
+    private final HostResolver RESOLVER;
+    private final SSLContext SSL_CONTEXT;
+    private final String[] TLS_PROTOCOLS;
+    private final String[] TLS_CIPHER_SUITES;
+    private final boolean TLS_HOSTNAME_VERIFICATION;
+    private final int MIN_READ_SIZE;
+    private final int ADAPTIVE_MAX_READ_SIZE;
+    private final boolean TCP_NO_DELAY;
+    private final boolean SO_KEEPALIVE;
+    private final int SO_RCVBUF;
+    private final int SO_SNDBUF;
+    private final int DISPATCH_RING_SIZE;
+    private final DispatchWaitStrategy DISPATCH_WAIT_STRATEGY;
+    private final OutboundSpool OUTBOUND_SPOOL;
+    private final TrafficCapture TRAFFIC_CAPTURE;
+    private final Path UNIX_DOMAIN_SOCKET;
 
     private ClientConfig(ConfigBuilder builder)
     {
@@ -21,6 +59,40 @@ public class ClientConfig
         this.CONNECT_CHECK_CYCLE = builder.CONNECT_CHECK_CYCLE;
         this.CONNECT_CHECK_CHAR = builder.CONNECT_CHECK_CHAR;
         this.MAX_READ_SIZE = builder.MAX_READ_BYTE_SIZE;
+        this.EVENT_LOOP = builder.EVENT_LOOP;
+        this.BUFFER_POOL = builder.BUFFER_POOL;
+        this.FRAME_DECODER = builder.FRAME_DECODER;
+        this.WRITE_BUFFER_LOW_WATER_MARK = builder.WRITE_BUFFER_LOW_WATER_MARK;
+        this.WRITE_BUFFER_HIGH_WATER_MARK = builder.WRITE_BUFFER_HIGH_WATER_MARK;
+        this.VIRTUAL_THREADS = builder.VIRTUAL_THREADS;
+        this.CORRELATION_ID_EXTRACTOR = builder.CORRELATION_ID_EXTRACTOR;
+        this.METRICS_ENABLED = builder.METRICS_ENABLED;
+        this.TIMER = builder.TIMER == null ? HashedWheelTimer.shared() : builder.TIMER;
+        this.RECONNECT_POLICY = builder.RECONNECT_POLICY == null ? ReconnectPolicy.fixed(builder.TIMEOUT) : builder.RECONNECT_POLICY;
+        this.CONNECT_LIMITER = builder.CONNECT_LIMITER;
+        this.READ_IDLE_TIMEOUT = builder.READ_IDLE_TIMEOUT;
+        List<Endpoint> endpoints = new ArrayList<>();
+        endpoints.add(new Endpoint(builder.HOST, builder.PORT));
+        for(Endpoint endpoint : builder.ENDPOINTS) if(!endpoints.contains(endpoint)) endpoints.add(endpoint);
+        this.ENDPOINTS = List.copyOf(endpoints);
+        this.CONNECT_ATTEMPT_DELAY = builder.CONNECT_ATTEMPT_DELAY;
+        this.RESOLVER = builder.RESOLVER == null ? CachingHostResolver.shared() : builder.RESOLVER;
+        this.SSL_CONTEXT = builder.SSL_CONTEXT;
+        this.TLS_PROTOCOLS = builder.TLS_PROTOCOLS;
+        this.TLS_CIPHER_SUITES = builder.TLS_CIPHER_SUITES;
+        this.TLS_HOSTNAME_VERIFICATION = builder.TLS_HOSTNAME_VERIFICATION;
+        this.MIN_READ_SIZE = builder.MIN_READ_SIZE;
+        this.ADAPTIVE_MAX_READ_SIZE = builder.ADAPTIVE_MAX_READ_SIZE;
+        this.TCP_NO_DELAY = builder.TCP_NO_DELAY;
+        this.SO_KEEPALIVE = builder.SO_KEEPALIVE;
+        this.SO_RCVBUF = builder.SO_RCVBUF;
+        this.SO_SNDBUF = builder.SO_SNDBUF;
+        this.DISPATCH_RING_SIZE = builder.DISPATCH_RING_SIZE;
+        this.DISPATCH_WAIT_STRATEGY = builder.DISPATCH_WAIT_STRATEGY;
+        this.OUTBOUND_SPOOL = builder.OUTBOUND_SPOOL;
+        this.TRAFFIC_CAPTURE = builder.TRAFFIC_CAPTURE;
+        this.UNIX_DOMAIN_SOCKET = builder.UNIX_DOMAIN_SOCKET;
+        this.THREAD_FACTORY = builder.VIRTUAL_THREADS ? ClientThreads.virtualThreadFactory() : builder.THREAD_FACTORY;
     }
 
     public String getHOST(){return this.HOST;}
@@ -30,6 +102,49 @@ public class ClientConfig
     public long getCONNECT_CHECK_CYCLE(){return this.CONNECT_CHECK_CYCLE;}
     public String getCONNECT_CHECK_CHAR(){return this.CONNECT_CHECK_CHAR;}
     public int getMAX_READ_SIZE(){return this.MAX_READ_SIZE;}
+    public SocketClientEventLoop getEVENT_LOOP(){return this.EVENT_LOOP;}
+    public BufferPool getBUFFER_POOL(){return this.BUFFER_POOL;}
+    public Supplier<FrameDecoder> getFRAME_DECODER(){return this.FRAME_DECODER;}
+    public long getWRITE_BUFFER_LOW_WATER_MARK(){return this.WRITE_BUFFER_LOW_WATER_MARK;}
+    public long getWRITE_BUFFER_HIGH_WATER_MARK(){return this.WRITE_BUFFER_HIGH_WATER_MARK;}
+    public ThreadFactory getTHREAD_FACTORY(){return this.THREAD_FACTORY;}
+    public boolean isVIRTUAL_THREADS(){return this.VIRTUAL_THREADS;}
+    public CorrelationIdExtractor getCORRELATION_ID_EXTRACTOR(){return this.CORRELATION_ID_EXTRACTOR;}
+    public boolean isMETRICS_ENABLED(){return this.METRICS_ENABLED;}
+    public HashedWheelTimer getTIMER(){return this.TIMER;}
+    public ReconnectPolicy getRECONNECT_POLICY(){return this.RECONNECT_POLICY;}
+    public ConnectLimiter getCONNECT_LIMITER(){return this.CONNECT_LIMITER;}
+    public long getREAD_IDLE_TIMEOUT(){return this.READ_IDLE_TIMEOUT;}
+    /** @return : 接続先の一覧(先頭はHOST:PORT) */
+    public List<Endpoint> getENDPOINTS(){return this.ENDPOINTS;}
+    public long getCONNECT_ATTEMPT_DELAY(){return this.CONNECT_ATTEMPT_DELAY;}
+    public HostResolver getRESOLVER(){return this.RESOLVER;}
+    /** @return : TLSで使用するSSLContext(nullの場合はTLSを使用しない) */
+    public SSLContext getSSL_CONTEXT(){return this.SSL_CONTEXT;}
+    public String[] getTLS_PROTOCOLS(){return this.TLS_PROTOCOLS == null ? null : this.TLS_PROTOCOLS.clone();}
+    public String[] getTLS_CIPHER_SUITES(){return this.TLS_CIPHER_SUITES == null ? null : this.TLS_CIPHER_SUITES.clone();}
+    public boolean isTLS_HOSTNAME_VERIFICATION(){return this.TLS_HOSTNAME_VERIFICATION;}
+    /** @return : 受信データの読み込みサイズを直近の受信量に合わせて変えるか */
+    public boolean isADAPTIVE_READ_SIZE(){return this.ADAPTIVE_MAX_READ_SIZE > 0;}
+    /** @return : 読み込みサイズの最小値(読み込みサイズを変えない場合はMAX_READ_SIZE) */
+    public int getMIN_READ_SIZE(){return isADAPTIVE_READ_SIZE() ? this.MIN_READ_SIZE : this.MAX_READ_SIZE;}
+    /** @return : 読み込みサイズの最大値(読み込みサイズを変えない場合はMAX_READ_SIZE) */
+    public int getADAPTIVE_MAX_READ_SIZE(){return isADAPTIVE_READ_SIZE() ? this.ADAPTIVE_MAX_READ_SIZE : this.MAX_READ_SIZE;}
+    public boolean isTCP_NO_DELAY(){return this.TCP_NO_DELAY;}
+    public boolean isSO_KEEPALIVE(){return this.SO_KEEPALIVE;}
+    public int getSO_RCVBUF(){return this.SO_RCVBUF;}
+    public int getSO_SNDBUF(){return this.SO_SNDBUF;}
+    /** @return : 受信データの通知を受信処理とは別の通知用スレッドで行うか */
+    public boolean isCALLBACK_DISPATCH(){return this.DISPATCH_RING_SIZE > 0;}
+    /** @return : 通知用スレッドへ渡すリングバッファの要素数(0の場合は受信処理のスレッドで通知する) */
+    public int getDISPATCH_RING_SIZE(){return this.DISPATCH_RING_SIZE;}
+    public DispatchWaitStrategy getDISPATCH_WAIT_STRATEGY(){return this.DISPATCH_WAIT_STRATEGY;}
+    /** @return : 未接続の間の送信データの退避先(nullの場合は退避しない) */
+    public OutboundSpool getOUTBOUND_SPOOL(){return this.OUTBOUND_SPOOL;}
+    /** @return : 送受信したデータの記録先(nullの場合は記録しない) */
+    public TrafficCapture getTRAFFIC_CAPTURE(){return this.TRAFFIC_CAPTURE;}
+    /** @return : 接続するUnixドメインソケットのパス(nullの場合はHOST:PORTへTCPで接続する) */
+    public Path getUNIX_DOMAIN_SOCKET(){return this.UNIX_DOMAIN_SOCKET;}
 
     /** ClientConfigクラスに値を設定してインスタンスを生成するためのクラス
      *  ビルダーパターンを使用しているため最後に必ず.build()メソッドを呼ぶこと！！ */
@@ -45,6 +160,37 @@ public class ClientConfig
         private long CONNECT_CHECK_CYCLE = 3000; // 3000ms(3秒);
         private String CONNECT_CHECK_CHAR = " "; // NULLバイト
         private int MAX_READ_BYTE_SIZE = 1024;   // サーバーからの受信データを一回でどれだけ読み取るか
+        private SocketClientEventLoop EVENT_LOOP = null; // NIOエンジン(nullの場合は接続ごとにスレッドを使用する)
+        private BufferPool BUFFER_POOL = BufferPool.heap(); // 受信バッファの取得元
+        private Supplier<FrameDecoder> FRAME_DECODER = null; // 受信データの区切り方(nullの場合は受信したまま通知する)
+        private long WRITE_BUFFER_LOW_WATER_MARK = 32 * 1024;   // 未送信データがこれを下回ると書き込み可能に戻る
+        private long WRITE_BUFFER_HIGH_WATER_MARK = 64 * 1024;  // 未送信データがこれを超えると書き込み不可になる
+        private ThreadFactory THREAD_FACTORY = null;     // 接続・送受信・接続監視のスレッドの生成方法(nullの場合は既定)
+        private boolean VIRTUAL_THREADS = false;         // 接続・送受信・接続監視を仮想スレッドで行うか
+        private CorrelationIdExtractor CORRELATION_ID_EXTRACTOR = null;  // request()のレスポンスの対応付け(nullの場合は送信順)
+        private boolean METRICS_ENABLED = true;          // 送受信量・遅延などの計測とJMXへの公開を行うか
+        private HashedWheelTimer TIMER = null;           // 接続監視・再接続の周期処理用のタイマー(nullの場合は全クライアントで共有)
+        private ReconnectPolicy RECONNECT_POLICY = null; // 再接続の待ち時間(nullの場合はTIMEOUTの間隔で試行する)
+        private ConnectLimiter CONNECT_LIMITER = null;   // 同時接続数の制限(nullの場合は制限しない)
+        private long READ_IDLE_TIMEOUT = 0;              // 受信が無いまま経過したら再接続する時間(0の場合は監視しない)
+        private final List<Endpoint> ENDPOINTS = new ArrayList<>();  // HOST:PORT以外の予備の接続先
+        private long CONNECT_ATTEMPT_DELAY = 250;        // 250ms 接続先の候補が複数ある場合に次の候補への接続を開始するまでの間隔
+        private HostResolver RESOLVER = null;            // ホスト名の解決方法(nullの場合は全クライアントで共有のキャッシュ)
+        private SSLContext SSL_CONTEXT = null;           // TLSで使用するSSLContext(nullの場合は平文のTCP)
+        private String[] TLS_PROTOCOLS = null;           // 使用するTLSのバージョン(nullの場合はSSLContextの既定)
+        private String[] TLS_CIPHER_SUITES = null;       // 使用する暗号スイート(nullの場合はSSLContextの既定)
+        private boolean TLS_HOSTNAME_VERIFICATION = true;   // サーバー証明書のホスト名を検証するか
+        private int MIN_READ_SIZE = 0;                   // 読み込みサイズを変える場合の最小値
+        private int ADAPTIVE_MAX_READ_SIZE = 0;          // 読み込みサイズを変える場合の最大値(0の場合はMAX_READ_SIZEで固定)
+        private boolean TCP_NO_DELAY = false;            // Nagleアルゴリズムを無効にするか
+        private boolean SO_KEEPALIVE = false;            // TCPのキープアライブを有効にするか
+        private int SO_RCVBUF = 0;                       // ソケットの受信バッファサイズ(0の場合はOSの既定)
+        private int SO_SNDBUF = 0;                       // ソケットの送信バッファサイズ(0の場合はOSの既定)
+        private int DISPATCH_RING_SIZE = 0;              // 通知用スレッドへ渡すリングバッファの要素数(0の場合は受信処理のスレッドで通知する)
+        private DispatchWaitStrategy DISPATCH_WAIT_STRATEGY = DispatchWaitStrategy.BLOCKING;   // 通知用スレッドの待ち方
+        private OutboundSpool OUTBOUND_SPOOL = null;     // 未接続の間の送信データの退避先(nullの場合は退避せずに送信エラーにする)
+        private TrafficCapture TRAFFIC_CAPTURE = null;   // 送受信したデータの記録先(nullの場合は記録しない)
+        private Path UNIX_DOMAIN_SOCKET = null;          // 接続するUnixドメインソケットのパス(nullの場合はTCPで接続する)
 
         /**
          * ConfigBuilderのコンストラクタ
@@ -59,6 +205,8 @@ public class ClientConfig
 
         /**
          * サーバーとの通信を行う際のタイムアウト時間を設定する。
+         * 接続処理・TLSのハンドシェイク・接続完了前の送信の接続待ち・request()のレスポンス待ちの既定値・再接続の間隔の既定値に使用する
+         * (受信の待ち時間には使用しない。受信が途絶えた接続を検出する場合はsetReadIdleTimeout()を設定すること)
          * @param TIMEOUT：タイムアウト時間(ms) 初期値：3000ms
          */
         public ConfigBuilder setTimeout(int TIMEOUT){this.TIMEOUT = TIMEOUT; return this;}
@@ -70,7 +218,8 @@ public class ClientConfig
         public ConfigBuilder setRetryCount(int RETRY_COUNT){this.RETRY_COUNT = RETRY_COUNT; return this;}
 
         /**
-         * サーバーとの接続監視を行う際の周期を設定する。ここで設定された周期ごとにサーバーへデータが送られる。
+         * サーバーとの接続監視を行う際の周期を設定する。この時間サーバーへの送信が無かった場合にサーバーへデータが送られる。
+         * (送信中の接続では接続監視のデータは送られない)
          * @param CONNECT_CHECK_CYCLE：サーバーとの接続監視周期(ms) 初期値：3000ms
          */
         public ConfigBuilder setConnectCheckCycle(long CONNECT_CHECK_CYCLE){this.CONNECT_CHECK_CYCLE = CONNECT_CHECK_CYCLE; return this;}
@@ -87,6 +236,246 @@ public class ClientConfig
          */
         public ConfigBuilder setMaxReadSize(int MAX_READ_SIZE){this.MAX_READ_BYTE_SIZE = MAX_READ_SIZE; return this;}
 
+        /**
+         * サーバーからのデータ受信時に読み込むバイト数を、直近の受信量に合わせてMIN～MAXの範囲で変えるように設定する。
+         * 読み込みでバッファが一杯になると次から2倍にし、半分以下しか使わない読み込みが続くと半分にする
+         * 最初の読み込みサイズはMAX_READ_SIZE(setMaxReadSize)をMIN～MAXの範囲に丸めた値になる
+         * @param MIN：読み込みサイズの最小値(Byte)
+         * @param MAX：読み込みサイズの最大値(Byte) 初期値：未設定(常にMAX_READ_SIZEで読み込む)
+         */
+        public ConfigBuilder setAdaptiveReadSize(int MIN, int MAX)
+        {
+            if(MIN <= 0 || MAX < MIN) throw new IllegalArgumentException("0 < MIN <= MAX is required : MIN=" + MIN + ", MAX=" + MAX);
+            this.MIN_READ_SIZE = MIN;
+            this.ADAPTIVE_MAX_READ_SIZE = MAX;
+            return this;
+        }
+
+        /**
+         * 送受信を共有のイベントループ(NIO)で行うように設定する。
+         * 同じインスタンスを複数のSocketClientに設定すると、少数のI/Oスレッドで全ての接続を処理する
+         * @param EVENT_LOOP：使用するイベントループ 初期値：null(接続ごとにスレッドを使用する)
+         */
+        public ConfigBuilder setEventLoop(SocketClientEventLoop EVENT_LOOP){this.EVENT_LOOP = EVENT_LOOP; return this;}
+
+        /**
+         * 受信データを読み込むバッファの取得元を設定する。
+         * ダイレクトバッファを使用する場合はBufferPool.direct()などを設定する
+         * @param BUFFER_POOL：受信バッファのプール 初期値：BufferPool.heap()(全クライアント共有のヒープバッファ)
+         */
+        public ConfigBuilder setBufferPool(BufferPool BUFFER_POOL){this.BUFFER_POOL = BUFFER_POOL; return this;}
+
+        /**
+         * 受信データをフレーム(アプリ側の1メッセージ)単位に区切ってから通知するように設定する。
+         * FrameDecoderは解析途中の状態を持つため、接続ごとに新しいインスタンスを返すこと
+         * 例 : setFrameDecoder(() -> FrameDecoder.lengthField(4))
+         * @param FRAME_DECODER：FrameDecoderを生成する処理 初期値：null(受信したデータをそのまま通知する)
+         */
+        public ConfigBuilder setFrameDecoder(Supplier<FrameDecoder> FRAME_DECODER){this.FRAME_DECODER = FRAME_DECODER; return this;}
+
+        /**
+         * 未送信データ量の上限・下限を設定する。未送信データが上限を超えるとisWritable()がfalseになり、
+         * 下限を下回るとtrueに戻る(変化時にはonWritabilityChangedが呼ばれる)
+         * @param LOW：書き込み可能に戻る未送信データ量(Byte) 初期値：32KB
+         * @param HIGH：書き込み不可になる未送信データ量(Byte) 初期値：64KB
+         */
+        public ConfigBuilder setWriteBufferWaterMark(long LOW, long HIGH)
+        {
+            if(LOW < 0 || HIGH < LOW) throw new IllegalArgumentException("0 <= LOW <= HIGH is required : LOW=" + LOW + ", HIGH=" + HIGH);
+            this.WRITE_BUFFER_LOW_WATER_MARK = LOW;
+            this.WRITE_BUFFER_HIGH_WATER_MARK = HIGH;
+            return this;
+        }
+
+        /**
+         * 接続・送受信・接続監視・再接続の処理を行うスレッドの生成方法を設定する
+         * @param THREAD_FACTORY：スレッドの生成方法 初期値：null(既定のプラットフォームスレッド)
+         */
+        public ConfigBuilder setThreadFactory(ThreadFactory THREAD_FACTORY){this.THREAD_FACTORY = THREAD_FACTORY; return this;}
+
+        /**
+         * 接続・送受信・接続監視・再接続の処理を仮想スレッドで行うように設定する(Java21以降)。
+         * ブロッキングの送受信処理のまま、1つのJVMで数万の接続を扱うことが出来る
+         * trueの場合はsetThreadFactory()の設定より優先される
+         * @param VIRTUAL_THREADS：仮想スレッドを使用するか 初期値：false
+         * @throws UnsupportedOperationException：実行環境が仮想スレッドに対応していない場合
+         */
+        public ConfigBuilder setVirtualThreads(boolean VIRTUAL_THREADS)
+        {
+            if(VIRTUAL_THREADS && !ClientThreads.isVirtualThreadSupported())
+                throw new UnsupportedOperationException("Virtual threads require Java 21 or later : " + System.getProperty("java.version"));
+            this.VIRTUAL_THREADS = VIRTUAL_THREADS;
+            return this;
+        }
+
+        /**
+         * SocketClient.request()で送信したリクエストとレスポンスをIDで対応付けるように設定する。
+         * 設定しない場合はサーバーがリクエストの順番通りに応答するものとして対応付ける
+         * (その場合、レスポンス待ちのリクエストがある間の受信データは全てレスポンスとして扱われる。
+         *  受信データをレスポンスごとに区切るため、setFrameDecoder()の設定が必要)
+         * @param CORRELATION_ID_EXTRACTOR：リクエスト・レスポンスからIDを取り出す処理 初期値：null(送信順に対応付ける)
+         */
+        public ConfigBuilder setCorrelationIdExtractor(CorrelationIdExtractor CORRELATION_ID_EXTRACTOR){this.CORRELATION_ID_EXTRACTOR = CORRELATION_ID_EXTRACTOR; return this;}
+
+        /**
+         * 送受信量・送信遅延・再接続回数などの計測を行うかを設定する。計測値はSocketClient.getMetrics()とJMXで参照できる
+         * 無効にした場合は計測処理が何もせずに戻るため、送受信の性能への影響はほぼ無くなる
+         * @param METRICS_ENABLED：計測を行うか 初期値：true
+         */
+        public ConfigBuilder setMetricsEnabled(boolean METRICS_ENABLED){this.METRICS_ENABLED = METRICS_ENABLED; return this;}
+
+        /**
+         * 接続監視・再接続の周期処理に使用するタイマーを設定する。
+         * 設定しない場合は全てのSocketClientで共有のタイマー(HashedWheelTimer.shared())を使用する
+         * (tickの間隔を変える場合に、生成したタイマーを複数のClientConfigに設定して共有する)
+         * @param TIMER：周期処理用のタイマー 初期値：null(共有のタイマー)
+         */
+        public ConfigBuilder setTimer(HashedWheelTimer TIMER){this.TIMER = TIMER; return this;}
+
+        /**
+         * 再接続の試行ごとの待ち時間の決め方を設定する。
+         * 多数のクライアントが同じサーバーへ接続する場合は、サーバーの再起動時に一斉に再接続しないよう
+         * ReconnectPolicy.fullJitter()などのジッター付きのポリシーを設定すること
+         * @param RECONNECT_POLICY：再接続ポリシー 初期値：null(1回目はすぐに、以降はTIMEOUTの間隔で試行する)
+         */
+        public ConfigBuilder setReconnectPolicy(ReconnectPolicy RECONNECT_POLICY){this.RECONNECT_POLICY = RECONNECT_POLICY; return this;}
+
+        /**
+         * 同時に行う接続処理の数を制限する。同じインスタンスを複数のClientConfigに設定して共有する
+         * 制限により接続を開始できないままTIMEOUTを過ぎた場合は接続失敗として再接続の対象になる
+         * @param CONNECT_LIMITER：同時接続数の制限 初期値：null(制限しない)
+         */
+        public ConfigBuilder setConnectLimiter(ConnectLimiter CONNECT_LIMITER){this.CONNECT_LIMITER = CONNECT_LIMITER; return this;}
+
+        /**
+         * サーバーからの受信が無いまま経過したら接続先が応答しなくなったものとみなす時間を設定する。
+         * 経過した場合はonReadIdleを呼び出してから再接続する(サーバーが接続監視のデータに応答する場合などに使用する)
+         * @param READ_IDLE_TIMEOUT：受信の無通信時間の上限(ms) 初期値：0(監視しない)
+         */
+        public ConfigBuilder setReadIdleTimeout(long READ_IDLE_TIMEOUT){this.READ_IDLE_TIMEOUT = READ_IDLE_TIMEOUT; return this;}
+
+        /**
+         * HOST:PORT以外の接続先を追加する。接続時は接続にかかった時間が短く、最近失敗していない接続先から順に
+         * CONNECT_ATTEMPT_DELAYずつ開始時刻をずらして並行に接続し、最初に接続できたものを使用する
+         * (ホスト名が複数のアドレスに解決される場合も、それぞれのアドレスを候補として同様に接続する)。
+         * まだ接続したことがない接続先は、接続時間を計測した接続先の後ろにHOST:PORT・追加した順に並べる
+         * @param HOST：接続先サーバーのホスト名(IPアドレス)
+         * @param PORT：接続先サーバーのポート番号
+         */
+        public ConfigBuilder addEndpoint(String HOST, int PORT){this.ENDPOINTS.add(new Endpoint(HOST, PORT)); return this;}
+
+        /**
+         * 接続先の候補が複数ある場合に、応答を待たずに次の候補への接続を開始するまでの間隔を設定する。
+         * @param CONNECT_ATTEMPT_DELAY：次の候補への接続を開始するまでの間隔(ms) 初期値：250ms
+         */
+        public ConfigBuilder setConnectAttemptDelay(long CONNECT_ATTEMPT_DELAY){this.CONNECT_ATTEMPT_DELAY = CONNECT_ATTEMPT_DELAY; return this;}
+
+        /**
+         * 接続・再接続時に接続先のホスト名を解決する方法を設定する。
+         * 設定しない場合は全てのSocketClientで共有のキャッシュ(CachingHostResolver.shared())を使用する
+         * キャッシュの保持時間を変える場合はCachingHostResolverのインスタンスを生成して設定する
+         * @param RESOLVER：ホスト名の解決方法 初期値：null(共有のキャッシュ)
+         */
+        public ConfigBuilder setResolver(HostResolver RESOLVER){this.RESOLVER = RESOLVER; return this;}
+
+        /**
+         * TLSで通信する場合に使用するSSLContextを設定する(既定の証明書ストアを使う場合はSSLContext.getDefault())。
+         * ハンドシェイクは接続処理の中でTIMEOUTの時間内に行い、送受信データはSSLEngineで暗号化・復号する
+         * 再接続時はSSLContextのクライアント側のセッションキャッシュから同じ接続先のセッションを再利用するため、
+         * 同じSSLContextを設定したクライアント間でもセッションが共有され、ハンドシェイクが短縮される
+         * @param SSL_CONTEXT：TLSで使用するSSLContext 初期値：null(TLSを使用しない)
+         */
+        public ConfigBuilder setSslContext(SSLContext SSL_CONTEXT){this.SSL_CONTEXT = SSL_CONTEXT; return this;}
+
+        /**
+         * TLS使用時に有効にするプロトコルのバージョンを設定する(例："TLSv1.3", "TLSv1.2")
+         * @param TLS_PROTOCOLS：有効にするプロトコル 初期値：null(SSLContextの既定)
+         */
+        public ConfigBuilder setTlsProtocols(String... TLS_PROTOCOLS){this.TLS_PROTOCOLS = TLS_PROTOCOLS == null ? null : TLS_PROTOCOLS.clone(); return this;}
+
+        /**
+         * TLS使用時に有効にする暗号スイートを設定する(例："TLS_AES_128_GCM_SHA256")
+         * @param TLS_CIPHER_SUITES：有効にする暗号スイート 初期値：null(SSLContextの既定)
+         */
+        public ConfigBuilder setTlsCipherSuites(String... TLS_CIPHER_SUITES){this.TLS_CIPHER_SUITES = TLS_CIPHER_SUITES == null ? null : TLS_CIPHER_SUITES.clone(); return this;}
+
+        /**
+         * TLS使用時にサーバー証明書が接続先のホスト名(IPアドレス)に対して発行されたものかを検証するかを設定する。
+         * 検証を無効にするのは試験環境などに限ること
+         * @param TLS_HOSTNAME_VERIFICATION：trueの場合は検証する 初期値：true
+         */
+        public ConfigBuilder setTlsHostnameVerification(boolean TLS_HOSTNAME_VERIFICATION){this.TLS_HOSTNAME_VERIFICATION = TLS_HOSTNAME_VERIFICATION; return this;}
+
+        /**
+         * Nagleアルゴリズムを無効にして、小さな送信データも待たずに送るかを設定する(TCP_NODELAY)
+         * @param TCP_NO_DELAY：trueの場合は無効にする 初期値：false
+         */
+        public ConfigBuilder setTcpNoDelay(boolean TCP_NO_DELAY){this.TCP_NO_DELAY = TCP_NO_DELAY; return this;}
+
+        /**
+         * TCPのキープアライブを有効にするかを設定する(SO_KEEPALIVE)。送信間隔はOSの設定に従う
+         * @param SO_KEEPALIVE：trueの場合は有効にする 初期値：false
+         */
+        public ConfigBuilder setKeepAlive(boolean SO_KEEPALIVE){this.SO_KEEPALIVE = SO_KEEPALIVE; return this;}
+
+        /**
+         * ソケットの受信バッファサイズを設定する(SO_RCVBUF)。ウィンドウサイズに反映されるよう接続前に設定される
+         * @param SO_RCVBUF：受信バッファサイズ(Byte) 初期値：0(OSの既定)
+         */
+        public ConfigBuilder setReceiveBufferSize(int SO_RCVBUF){this.SO_RCVBUF = SO_RCVBUF; return this;}
+
+        /**
+         * ソケットの送信バッファサイズを設定する(SO_SNDBUF)
+         * @param SO_SNDBUF：送信バッファサイズ(Byte) 初期値：0(OSの既定)
+         */
+        public ConfigBuilder setSendBufferSize(int SO_SNDBUF){this.SO_SNDBUF = SO_SNDBUF; return this;}
+
+        /**
+         * 受信データのコールバック関数(onDataReceived)の呼び出しを、受信処理とは別の通知用スレッドで行うように設定する。
+         * 受信処理は事前に確保したリングバッファへデータをコピーするだけになり、コールバック関数の処理が遅くても読み込みを続ける
+         * データは受信した順に通知され、リングバッファが一杯になった場合は受信処理が空きを待つ
+         * (EVENT_LOOPを設定している場合は空きを待つ間I/Oスレッドが止まり、同じI/Oスレッドの他の接続の送受信も止まるため、
+         *  コールバック関数の処理が追い付かない場合に備えてRING_SIZEを十分に大きくするか、接続ごとのスレッドで受信すること)
+         * (onConnectedなどデータ以外のコールバック関数は今まで通り各処理のスレッドから呼ばれる)
+         * @param RING_SIZE：リングバッファの要素数(2のべき乗に切り上げる) 初期値：0(受信処理のスレッドで通知する)
+         * @param WAIT_STRATEGY：通知用スレッド・受信処理の待ち方 初期値：BLOCKING
+         */
+        public ConfigBuilder setCallbackDispatch(int RING_SIZE, DispatchWaitStrategy WAIT_STRATEGY)
+        {
+            if(RING_SIZE <= 0 || RING_SIZE > (1 << 30)) throw new IllegalArgumentException("RING_SIZE out of range : " + RING_SIZE);
+            if(WAIT_STRATEGY == null) throw new IllegalArgumentException("WAIT_STRATEGY must not be null");
+            this.DISPATCH_RING_SIZE = RING_SIZE;
+            this.DISPATCH_WAIT_STRATEGY = WAIT_STRATEGY;
+            return this;
+        }
+
+        /**
+         * 未接続(接続処理中・再接続中・切断後)の間に送信されたデータを退避する先を設定する。
+         * 設定した場合、未接続の間のsendMessageは接続を待たずに退避先へ追記され(送信エラーは通知されない)、
+         * 接続完了後に退避した順にまとめて送信される。退避先が空になるまでは接続中でも新しい送信データを退避先へ追記し、送信順を保つ
+         * (sendMessageAsyncは退避先から書き込み終えた時点で完了する。request()は退避せずに接続を待って送信するため退避したデータを追い越すことがあり、
+         *  sendFile・send(channel)は退避したデータを追い越さないよう、未接続の間と退避したデータが残っている間は例外で完了する)
+         * @param OUTBOUND_SPOOL：送信データの退避先(1つのSocketClientでのみ使用すること) 初期値：null(退避しない)
+         */
+        public ConfigBuilder setOutboundSpool(OutboundSpool OUTBOUND_SPOOL){this.OUTBOUND_SPOOL = OUTBOUND_SPOOL; return this;}
+
+        /**
+         * 送受信したデータを時刻付きで記録する先を設定する(読み込みサイズや受信処理の調整を実際の通信で試すため)。
+         * 受信データは1回の読み込みごと、送信データは送信キューへ積んだ単位で記録される
+         * 記録を終える場合はSocketClientを切断してからTrafficCapture.close()を呼ぶこと
+         * @param TRAFFIC_CAPTURE：送受信したデータの記録先 初期値：null(記録しない)
+         */
+        public ConfigBuilder setTrafficCapture(TrafficCapture TRAFFIC_CAPTURE){this.TRAFFIC_CAPTURE = TRAFFIC_CAPTURE; return this;}
+
+        /**
+         * 同じホスト上のサーバーへ、TCPの代わりにUnixドメインソケットで接続するように設定する(Java 16以降)。
+         * ループバックのTCPを経由しないため、同じホスト上のゲートウェイなどとの通信の遅延とCPU負荷が下がる
+         * 受信・送信・接続監視・再接続・TLSの動作はTCPの場合と同じ。HOST・PORTはエラー情報などでの接続先の名前としてだけ使い、
+         * addEndpoint()で追加した接続先とTCP_NO_DELAY・SO_KEEPALIVEは使用しない
+         * @param UNIX_DOMAIN_SOCKET：サーバーが待ち受けているソケットファイルのパス 初期値：null(TCPで接続する)
+         */
+        public ConfigBuilder setUnixDomainSocket(Path UNIX_DOMAIN_SOCKET){this.UNIX_DOMAIN_SOCKET = UNIX_DOMAIN_SOCKET; return this;}
+
         /**
          * 設定値をもとにClientConfigクラスのインスタンスを生成する
          * @return：ClientConfigクラスのインスタンス
@@ -0,0 +1,238 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** SocketClientの送受信量・接続・エラーなどの計測値を集計するクラス
+ *  カウンタは全てLongAdderなので送受信を行う複数のスレッドから同時に加算しても競合しない
+ *  ClientConfig.ConfigBuilder.setMetricsEnabled(false)の場合は記録処理が何もせずに戻る */
+public class ClientMetrics implements ClientMetricsMXBean
+{
+    /** JMXへ登録する際のObjectNameの連番 */
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+    /** 送信時間の計測開始時刻の代わりに渡し、接続監視のデータなどライブラリ内部の送信データであることを表す値
+     *  (送信したバイト数には含めるが、メッセージ数・送信時間には含めない) */
+    static final long INTERNAL = Long.MIN_VALUE;
+
+    private final boolean enabled;
+
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder messagesSent = new LongAdder();
+    private final LongAdder messagesQueued = new LongAdder();
+    private final LongAdder messagesDropped = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder connectCount = new LongAdder();
+    private final LongAdder reconnectAttempts = new LongAdder();
+    private final LongAdder heartbeatFailures = new LongAdder();
+    private final Map<SocketClient.Phase, LongAdder> errors = new EnumMap<>(SocketClient.Phase.class);
+
+    private final LatencyHistogram connectTime = new LatencyHistogram();
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final LatencyHistogram dispatchLag = new LatencyHistogram();
+
+    /** 送信キューの未送信バイト数の取得元 */
+    private volatile LongSupplier queuedBytes = () -> 0;
+    /** 通知用スレッドのリングバッファで通知待ちのデータ数の取得元 */
+    private volatile LongSupplier dispatchBacklog = () -> 0;
+    /** JMXへ登録した名前(未登録の場合はnull) */
+    private ObjectName objectName;
+
+    ClientMetrics(boolean enabled)
+    {
+        this.enabled = enabled;
+        for(SocketClient.Phase phase : SocketClient.Phase.values()) errors.put(phase, new LongAdder());
+    }
+
+    /** @return : 計測が有効か */
+    public boolean isEnabled(){return enabled;}
+
+
+    /// --- 記録用の関数(SocketClientから呼ばれる) --- ///
+
+    /** @return : 送信時間の計測開始時刻(計測が無効の場合は0) */
+    long sendStartNanos(){return enabled ? System.nanoTime() : 0;}
+
+    /** 送信関数で受け付けたメッセージを記録する
+     * @param startNanos：sendStartNanos()の値(INTERNALの場合は記録しない) */
+    void recordQueued(long startNanos)
+    {
+        if(enabled && startNanos != INTERNAL) messagesQueued.increment();
+    }
+
+    /** 送信データの書き込みが完了したことを記録する
+     * @param startNanos：sendStartNanos()の値(INTERNALの場合はバイト数だけを記録する) */
+    void recordSent(long bytes, long startNanos)
+    {
+        if(!enabled) return;
+        bytesSent.add(bytes);
+        recordMessageSent(startNanos);
+    }
+
+    /** メッセージの書き込みが完了したことを記録する(バイト数は記録しない。退避先からまとめて送信した場合などに使う)
+     * @param startNanos：sendStartNanos()の値(INTERNALの場合は記録しない) */
+    void recordMessageSent(long startNanos)
+    {
+        if(!enabled || startNanos == INTERNAL) return;
+        messagesSent.increment();
+        if(startNanos != 0) sendLatency.record(System.nanoTime() - startNanos);
+    }
+
+    /** 受け付けたメッセージを送信せずに破棄したことを記録する
+     * @param startNanos：sendStartNanos()の値(INTERNALの場合は記録しない) */
+    void recordDropped(long startNanos)
+    {
+        if(enabled && startNanos != INTERNAL) messagesDropped.increment();
+    }
+
+    void recordReceived(int bytes)
+    {
+        if(enabled) bytesReceived.add(bytes);
+    }
+
+    void recordMessageReceived()
+    {
+        if(enabled) messagesReceived.increment();
+    }
+
+    void recordConnected(long startNanos)
+    {
+        if(!enabled) return;
+        connectCount.increment();
+        connectTime.record(System.nanoTime() - startNanos);
+    }
+
+    void recordReconnectAttempt()
+    {
+        if(enabled) reconnectAttempts.increment();
+    }
+
+    void recordHeartbeatFailure()
+    {
+        if(enabled) heartbeatFailures.increment();
+    }
+
+    void recordError(SocketClient.Phase phase)
+    {
+        if(enabled && phase != null) errors.get(phase).increment();
+    }
+
+    /** 受信データがリングバッファへ書き込まれてから通知用スレッドがコールバック関数へ渡すまでの時間を記録する */
+    void recordDispatched(long publishNanos)
+    {
+        if(enabled) dispatchLag.record(System.nanoTime() - publishNanos);
+    }
+
+    void setQueuedBytesSource(LongSupplier source){this.queuedBytes = source;}
+
+    void setDispatchBacklogSource(LongSupplier source){this.dispatchBacklog = source;}
+
+
+    /// --- 計測値の取得 --- ///
+
+    @Override
+    public long getBytesSent(){return bytesSent.sum();}
+    @Override
+    public long getMessagesSent(){return messagesSent.sum();}
+    @Override
+    public long getMessagesDropped(){return messagesDropped.sum();}
+    @Override
+    public long getBytesReceived(){return bytesReceived.sum();}
+    @Override
+    public long getMessagesReceived(){return messagesReceived.sum();}
+    @Override
+    public long getConnectCount(){return connectCount.sum();}
+    @Override
+    public long getReconnectAttempts(){return reconnectAttempts.sum();}
+    @Override
+    public long getHeartbeatFailures(){return heartbeatFailures.sum();}
+
+    @Override
+    public Map<String, Long> getErrorCounts()
+    {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for(Map.Entry<SocketClient.Phase, LongAdder> entry : errors.entrySet()) counts.put(entry.getKey().name(), entry.getValue().sum());
+        return counts;
+    }
+
+    /**
+     * @param phase：処理フェーズ
+     * @return：そのフェーズで発生したエラーの回数
+     */
+    public long getErrorCount(SocketClient.Phase phase){return errors.get(phase).sum();}
+
+    @Override
+    public long getQueuedBytes(){return queuedBytes.getAsLong();}
+    @Override
+    public long getQueuedMessages(){return Math.max(0, messagesQueued.sum() - messagesSent.sum() - messagesDropped.sum());}
+    @Override
+    public long getDispatchBacklog(){return dispatchBacklog.getAsLong();}
+
+    /** @return : 接続にかかった時間の分布 */
+    public LatencyHistogram getConnectTime(){return connectTime;}
+    /** @return : 送信にかかった時間(送信関数の呼び出しから書き込み完了まで。接続待ち・退避先での待ち時間を含む)の分布 */
+    public LatencyHistogram getSendLatency(){return sendLatency;}
+    /** @return : 受信データを通知用スレッドへ渡してからコールバック関数が呼ばれるまでの時間の分布(通知用スレッドを使う場合だけ記録される) */
+    public LatencyHistogram getDispatchLag(){return dispatchLag;}
+
+    @Override
+    public double getConnectTimeMeanMicros(){return connectTime.getMeanMicros();}
+    @Override
+    public double getSendLatencyMeanMicros(){return sendLatency.getMeanMicros();}
+    @Override
+    public long getSendLatencyP99Micros(){return sendLatency.getPercentileMicros(99);}
+    @Override
+    public long getSendLatencyP999Micros(){return sendLatency.getPercentileMicros(99.9);}
+    @Override
+    public double getDispatchLagMeanMicros(){return dispatchLag.getMeanMicros();}
+    @Override
+    public long getDispatchLagP99Micros(){return dispatchLag.getPercentileMicros(99);}
+
+    @Override
+    public void reset()
+    {
+        for(LongAdder adder : new LongAdder[]{bytesSent, messagesSent, messagesQueued, messagesDropped, bytesReceived, messagesReceived,
+                connectCount, reconnectAttempts, heartbeatFailures}) adder.reset();
+        for(LongAdder adder : errors.values()) adder.reset();
+        connectTime.reset();
+        sendLatency.reset();
+        dispatchLag.reset();
+    }
+
+
+    /// --- JMXへの登録 --- ///
+
+    /** JMX(プラットフォームMBeanServer)へ登録する。計測が無効の場合や登録済みの場合は何もしない */
+    synchronized void register(String host, int port)
+    {
+        if(!enabled || objectName != null) return;
+        try
+        {
+            ObjectName name = new ObjectName("com.example.simple_socket_client_lib_ver201:type=SocketClient"
+                    + ",host=" + ObjectName.quote(String.valueOf(host)) + ",port=" + port + ",id=" + SEQUENCE.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        }
+        catch(Exception ignored) {}     // JMXが使用できない環境でも通信には影響させない
+    }
+
+    /** JMXへの登録を解除する */
+    synchronized void unregister()
+    {
+        if(objectName == null) return;
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(server.isRegistered(objectName)) server.unregisterMBean(objectName);
+        }
+        catch(Exception ignored) {}
+        objectName = null;
+    }
+}
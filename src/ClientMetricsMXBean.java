@@ -0,0 +1,47 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.util.Map;
+
+/** SocketClientの計測値をJMXで公開するためのインターフェース
+ *  ObjectNameは "com.example.simple_socket_client_lib_ver201:type=SocketClient,host=HOST,port=PORT,id=連番" */
+public interface ClientMetricsMXBean
+{
+    /** @return : 送信したバイト数(接続監視のデータを含む) */
+    long getBytesSent();
+    /** @return : 書き込みが完了したメッセージ数(sendMessageなどで送信したデータの数。接続監視のデータは含まない) */
+    long getMessagesSent();
+    /** @return : 切断・退避先の空き不足などで送信せずに破棄したメッセージ数 */
+    long getMessagesDropped();
+    /** @return : 受信したバイト数 */
+    long getBytesReceived();
+    /** @return : 受信したメッセージ数(FrameDecoder設定時はフレーム数、それ以外は受信回数) */
+    long getMessagesReceived();
+    /** @return : 接続に成功した回数(再接続を含む) */
+    long getConnectCount();
+    /** @return : 再接続を試行した回数 */
+    long getReconnectAttempts();
+    /** @return : 接続監視のデータ送信に失敗した回数 */
+    long getHeartbeatFailures();
+    /** @return : 処理フェーズごとのエラー発生回数 */
+    Map<String, Long> getErrorCounts();
+    /** @return : 送信キューに積まれていて未送信のバイト数 */
+    long getQueuedBytes();
+    /** @return : 受け付けて未送信のメッセージ数(接続待ち・退避先にあるものを含む) */
+    long getQueuedMessages();
+    /** @return : 通知用スレッドのリングバッファで通知を待っている受信データの数 */
+    long getDispatchBacklog();
+    /** @return : 接続にかかった時間の平均(us) */
+    double getConnectTimeMeanMicros();
+    /** @return : 送信にかかった時間(送信関数の呼び出しから書き込み完了まで)の平均(us) */
+    double getSendLatencyMeanMicros();
+    /** @return : 送信にかかった時間の99パーセンタイル(us) */
+    long getSendLatencyP99Micros();
+    /** @return : 送信にかかった時間の99.9パーセンタイル(us) */
+    long getSendLatencyP999Micros();
+    /** @return : 受信データを通知用スレッドへ渡してからコールバック関数が呼ばれるまでの時間の平均(us) */
+    double getDispatchLagMeanMicros();
+    /** @return : 受信データを通知用スレッドへ渡してからコールバック関数が呼ばれるまでの時間の99パーセンタイル(us) */
+    long getDispatchLagP99Micros();
+    /** 計測値を全て0に戻す */
+    void reset();
+}
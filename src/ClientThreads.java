@@ -0,0 +1,67 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** SocketClientが使用するスレッドの生成方法をまとめたクラス
+ *  ClientConfigでThreadFactoryが設定されていればそれを使い、仮想スレッドの場合は処理ごとにスレッドを生成する */
+final class ClientThreads
+{
+    /** 仮想スレッドを生成するThreadFactory(Java21未満の実行環境ではnull) */
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = lookupVirtualThreadFactory();
+
+    private ClientThreads(){}
+
+    /** @return : 実行環境で仮想スレッドが使用できるか */
+    static boolean isVirtualThreadSupported(){return VIRTUAL_THREAD_FACTORY != null;}
+
+    /** @return : 仮想スレッドを生成するThreadFactory(使用できない場合はnull) */
+    static ThreadFactory virtualThreadFactory(){return VIRTUAL_THREAD_FACTORY;}
+
+    /**
+     * 接続処理・受信処理を行うスレッドプールを生成する
+     * @param factory：スレッドの生成方法(nullの場合は既定のプラットフォームスレッド)
+     * @param virtual：仮想スレッドの場合は上限を設けず、処理ごとにスレッドを生成する
+     */
+    static ExecutorService newTaskPool(ThreadFactory factory, boolean virtual)
+    {
+        /* スレッドの最小数は0，最大数は3,処理終了後のスレッドの寿命は60秒,処理を入れるためのQueue */
+        if(factory == null) return new ThreadPoolExecutor(0,3,60L, TimeUnit.SECONDS,new SynchronousQueue<>());
+        if(virtual) return new ThreadPoolExecutor(0,Integer.MAX_VALUE,0L, TimeUnit.SECONDS,new SynchronousQueue<>(),factory);
+        return new ThreadPoolExecutor(0,3,60L, TimeUnit.SECONDS,new SynchronousQueue<>(),factory);
+    }
+
+    /**
+     * 処理を1つずつ順番に行うスレッドを生成する(送信用・再接続用。処理が無い間はスレッドを終了させる)
+     * @param factory：スレッドの生成方法(nullの場合は既定のプラットフォームスレッド)
+     */
+    static ExecutorService newSerialThread(ThreadFactory factory)
+    {
+        ThreadPoolExecutor executor = factory == null
+                ? new ThreadPoolExecutor(1,1,60L, TimeUnit.SECONDS,new LinkedBlockingQueue<>())
+                : new ThreadPoolExecutor(1,1,60L, TimeUnit.SECONDS,new LinkedBlockingQueue<>(),factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /** Thread.ofVirtual().factory()を取得する(Java17でもビルド出来るようリフレクションを使用する) */
+    private static ThreadFactory lookupVirtualThreadFactory()
+    {
+        try
+        {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        }
+        catch(ReflectiveOperationException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+}
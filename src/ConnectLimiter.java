@@ -0,0 +1,46 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/** 複数のSocketClientが同時に行う接続処理の数を制限するクラス
+ *  同じインスタンスをClientConfig.ConfigBuilder.setConnectLimiter()で複数のクライアントに設定して共有する。
+ *  サーバーの再起動後などに多数のクライアントの接続要求が集中してサーバーを再び落とすことを防ぐ */
+public final class ConnectLimiter
+{
+    private final int maxConcurrentConnects;
+    private final Semaphore permits;
+
+    /**
+     * コンストラクタ
+     * @param maxConcurrentConnects：同時に行える接続処理の最大数
+     */
+    public ConnectLimiter(int maxConcurrentConnects)
+    {
+        if(maxConcurrentConnects <= 0) throw new IllegalArgumentException("maxConcurrentConnects must be positive : " + maxConcurrentConnects);
+        this.maxConcurrentConnects = maxConcurrentConnects;
+        this.permits = new Semaphore(maxConcurrentConnects);
+    }
+
+    /** @return : 同時に行える接続処理の最大数 */
+    public int getMaxConcurrentConnects(){return maxConcurrentConnects;}
+
+    /** @return : 現在行われている接続処理の数 */
+    public int getActiveConnects(){return maxConcurrentConnects - permits.availablePermits();}
+
+    /**
+     * 接続処理の開始を待つ
+     * @param timeoutMillis：最大待機時間(ms)
+     * @return：開始できる場合はtrue(終了後に必ずrelease()を呼ぶこと)、時間内に空かなかった場合はfalse
+     */
+    boolean acquire(long timeoutMillis) throws InterruptedException
+    {
+        return permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** 接続処理の終了を通知する */
+    void release()
+    {
+        permits.release();
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.nio.ByteBuffer;
+
+/** SocketClient.request()で送信したリクエストと、受信したレスポンスを対応付けるIDを取り出すためのインターフェース
+ *  ClientConfig.ConfigBuilder.setCorrelationIdExtractor()で設定する
+ *  取り出したIDはequals/hashCodeで比較されるため、Long・Integer・Stringなどを返すこと */
+public interface CorrelationIdExtractor
+{
+    /**
+     * 送信するリクエストからIDを取り出す
+     * @param request：request()に渡された送信データ
+     * @return：リクエストのID(nullは不可)
+     */
+    Object requestId(byte[] request);
+
+    /**
+     * 受信したデータ(FrameDecoder設定時は1フレーム)からIDを取り出す
+     * @param response：受信したデータ(position～limit)。positionやlimitは変更しないこと
+     * @return：レスポンスのID。リクエストに対するレスポンスではないデータ(サーバーからの通知など)の場合はnull
+     */
+    Object responseId(ByteBuffer response);
+}
@@ -0,0 +1,13 @@
+package com.example.simple_socket_client_lib_ver201;
+
+/** 受信データの通知を別スレッドで行う場合(ClientConfig.ConfigBuilder.setCallbackDispatch())の待ち方
+ *  通知用スレッドがデータを待つ時と、リングバッファが一杯で受信処理が空きを待つ時の両方に使用する */
+public enum DispatchWaitStrategy
+{
+    /** スレッドを停止させて待つ。CPUを使わないが、データが届いてから通知までにスレッドの起床時間がかかる */
+    BLOCKING,
+    /** しばらくスピンした後はThread.yield()を繰り返して待つ。起床時間は短いが、待っている間もCPUを使う */
+    YIELDING,
+    /** Thread.onSpinWait()でスピンし続けて待つ。遅延は最も小さいが、通知用スレッドが1コアを占有する */
+    BUSY_SPIN
+}
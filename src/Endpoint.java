@@ -0,0 +1,44 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.util.Objects;
+
+/** 接続先サーバー(ホスト名とポート番号)を表すクラス
+ *  ClientConfig.ConfigBuilder.addEndpoint()で予備の接続先を追加する際に使用する */
+public final class Endpoint
+{
+    private final String host;
+    private final int port;
+
+    /**
+     * コンストラクタ
+     * @param host：接続先サーバーのホスト名(IPアドレス)
+     * @param port：接続先サーバーのポート番号
+     */
+    public Endpoint(String host, int port)
+    {
+        if(host == null || host.isEmpty()) throw new IllegalArgumentException("host must not be empty");
+        if(port < 0 || port > 0xFFFF) throw new IllegalArgumentException("port out of range : " + port);
+        this.host = host;
+        this.port = port;
+    }
+
+    /** @return : 接続先サーバーのホスト名(IPアドレス) */
+    public String getHost(){return host;}
+
+    /** @return : 接続先サーバーのポート番号 */
+    public int getPort(){return port;}
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if(this == o) return true;
+        if(!(o instanceof Endpoint other)) return false;
+        return port == other.port && host.equals(other.host);
+    }
+
+    @Override
+    public int hashCode(){return Objects.hash(host, port);}
+
+    @Override
+    public String toString(){return host + ":" + port;}
+}
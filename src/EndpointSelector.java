@@ -0,0 +1,178 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** 1つのSocketClientの接続先の候補を、接続にかかった時間と最近の失敗回数から並べ替えるクラス
+ *  接続が速く失敗していない接続先を先に試し、失敗した接続先は一定時間後ろへ回す
+ *  接続時間を計測していない接続先は、計測済みで失敗していない接続先の後ろに設定順に並べる */
+final class EndpointSelector
+{
+    /** 接続時間の移動平均に今回の値を反映する割合 */
+    private static final double LATENCY_WEIGHT = 0.3;
+    /** 失敗した接続先を後ろへ回す時間 */
+    private static final long FAILURE_MEMORY_NANOS = TimeUnit.SECONDS.toNanos(30);
+    /** 連続した失敗1回あたりに加算する評価値(ns) */
+    private static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** 接続の候補(接続先と、そのホスト名を解決したアドレスの1つ) */
+    static final class Candidate
+    {
+        final Stats stats;
+        final InetSocketAddress address;
+
+        private Candidate(Stats stats, InetSocketAddress address)
+        {
+            this.stats = stats;
+            this.address = address;
+        }
+    }
+
+    /** 接続先ごとの計測値 */
+    static final class Stats
+    {
+        final Endpoint endpoint;
+        /** 設定された接続先の一覧での位置 */
+        private final int index;
+        /** 接続時間の移動平均(ns)。未計測の場合は0 */
+        private volatile long latencyNanos = 0;
+        private volatile int consecutiveFailures = 0;
+        private volatile long lastFailureNanos = 0;
+
+        private Stats(Endpoint endpoint, int index)
+        {
+            this.endpoint = endpoint;
+            this.index = index;
+        }
+
+        private boolean recentlyFailed(long now)
+        {
+            return consecutiveFailures > 0 && now - lastFailureNanos < FAILURE_MEMORY_NANOS;
+        }
+
+        /** @return : 優先度の段階(0：計測済みで最近失敗していない、1：未計測で最近失敗していない、2：最近失敗した) */
+        private int tier(long now)
+        {
+            if(recentlyFailed(now)) return 2;
+            return latencyNanos == 0 ? 1 : 0;
+        }
+
+        /** @return : 同じ段階の中での評価値(小さいほど優先する) */
+        private long score(long now)
+        {
+            long score = latencyNanos;
+            if(recentlyFailed(now)) score += FAILURE_PENALTY_NANOS * consecutiveFailures;
+            return score;
+        }
+    }
+
+    /** 並べ替えのために確定させた接続先の評価値 */
+    private static final class Ranked
+    {
+        final Stats stats;
+        final int tier;
+        final long score;
+
+        Ranked(Stats stats, int tier, long score)
+        {
+            this.stats = stats;
+            this.tier = tier;
+            this.score = score;
+        }
+    }
+
+    private final List<Stats> endpoints = new ArrayList<>();
+    private final HostResolver resolver;
+
+    /**
+     * コンストラクタ
+     * @param endpoints：接続先の一覧(未計測の場合や評価値が同じ場合はこの順に試す)
+     * @param resolver：ホスト名の解決方法
+     */
+    EndpointSelector(List<Endpoint> endpoints, HostResolver resolver)
+    {
+        this.resolver = resolver;
+        for(Endpoint endpoint : endpoints) this.endpoints.add(new Stats(endpoint, this.endpoints.size()));
+    }
+
+    /**
+     * 接続を試す順に並べた候補を返す。各接続先のホスト名を解決し、
+     * 1つの接続先に複数のアドレスがある場合はIPv6とIPv4を交互に並べる
+     * @throws UnknownHostException：全ての接続先のホスト名が解決できなかった場合
+     */
+    List<Candidate> candidates() throws UnknownHostException
+    {
+        long now = System.nanoTime();
+        // 並べ替えの途中で計測値が変わらないよう、先に評価値を確定させる
+        List<Ranked> ordered = new ArrayList<>(endpoints.size());
+        for(Stats stats : endpoints) ordered.add(new Ranked(stats, stats.tier(now), stats.score(now)));
+        ordered.sort(Comparator.<Ranked>comparingInt(ranked -> ranked.tier)
+                .thenComparingLong(ranked -> ranked.score)
+                .thenComparingInt(ranked -> ranked.stats.index));
+
+        List<Candidate> candidates = new ArrayList<>();
+        UnknownHostException lastError = null;
+        for(Ranked ranked : ordered)
+        {
+            Stats stats = ranked.stats;
+            try
+            {
+                for(InetAddress address : interleave(resolver.resolve(stats.endpoint.getHost())))
+                    candidates.add(new Candidate(stats, new InetSocketAddress(address, stats.endpoint.getPort())));
+            }
+            catch(UnknownHostException e)
+            {
+                recordFailure(stats);
+                lastError = e;
+            }
+        }
+        if(candidates.isEmpty() && lastError != null) throw lastError;
+        return candidates;
+    }
+
+    /** 接続に成功した際に接続時間を記録する */
+    void recordSuccess(Candidate candidate, long latencyNanos)
+    {
+        Stats stats = candidate.stats;
+        long previous = stats.latencyNanos;
+        long average = previous == 0 ? latencyNanos : (long) (previous + LATENCY_WEIGHT * (latencyNanos - previous));
+        stats.latencyNanos = Math.max(1, average);     // 0は未計測を表すため
+        stats.consecutiveFailures = 0;
+    }
+
+    /** 接続に失敗した際に記録する */
+    void recordFailure(Candidate candidate)
+    {
+        recordFailure(candidate.stats);
+    }
+
+    private static void recordFailure(Stats stats)
+    {
+        stats.consecutiveFailures = stats.consecutiveFailures + 1;
+        stats.lastFailureNanos = System.nanoTime();
+    }
+
+    /** アドレスの一覧をIPv6とIPv4が交互になるように並べ替える(先頭のアドレスの種類から始める) */
+    private static List<InetAddress> interleave(InetAddress[] addresses)
+    {
+        List<InetAddress> v6 = new ArrayList<>();
+        List<InetAddress> v4 = new ArrayList<>();
+        for(InetAddress address : addresses) (address instanceof Inet6Address ? v6 : v4).add(address);
+
+        List<InetAddress> first = addresses.length > 0 && addresses[0] instanceof Inet6Address ? v6 : v4;
+        List<InetAddress> second = first == v6 ? v4 : v6;
+        List<InetAddress> result = new ArrayList<>(addresses.length);
+        for(int i = 0; i < Math.max(first.size(), second.size()); i++)
+        {
+            if(i < first.size()) result.add(first.get(i));
+            if(i < second.size()) result.add(second.get(i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.nio.ByteBuffer;
+
+/** 受信したチャンクを蓄積しながらFrameDecoderでフレームを切り出すクラス(1接続の受信処理から使用する)
+ *  蓄積バッファにデータが無い場合は受信バッファから直接フレームを切り出し、
+ *  フレームの途中で終わった残りのデータだけを蓄積バッファへコピーする */
+final class FrameAssembler
+{
+    /** 切り出したフレームを受け取る処理 */
+    interface FrameHandler
+    {
+        void onFrame(ByteBuffer frame);
+    }
+
+    private final FrameDecoder decoder;
+    private final BufferPool pool;
+    private final int initialCapacity;
+    private final FrameHandler handler;
+
+    /** 未処理のデータ(書き込みモード : 0～positionが蓄積済み)。空の場合はnull */
+    private ByteBuffer cumulation;
+
+    FrameAssembler(FrameDecoder decoder, BufferPool pool, int initialCapacity, FrameHandler handler)
+    {
+        this.decoder = decoder;
+        this.pool = pool;
+        this.initialCapacity = initialCapacity;
+        this.handler = handler;
+    }
+
+    /**
+     * 受信したデータを渡し、完全なフレームがあればその数だけhandlerを呼び出す
+     * @param data：受信したデータ(position～limit)。呼び出し後は全て消費済みになる
+     */
+    void feed(ByteBuffer data) throws FrameDecoder.CorruptedFrameException
+    {
+        if(cumulation == null)
+        {
+            decodeFrames(data);
+            if(data.hasRemaining())
+            {
+                cumulation = pool.acquire(Math.max(data.remaining(), initialCapacity));
+                cumulation.limit(cumulation.capacity());
+                cumulation.put(data);
+            }
+            return;
+        }
+
+        ensureWritable(data.remaining());
+        cumulation.put(data);
+        cumulation.flip();
+        decodeFrames(cumulation);
+
+        if(!cumulation.hasRemaining())
+        {
+            pool.release(cumulation);
+            cumulation = null;
+        }
+        else if(cumulation.position() == 0)
+        {
+            // フレームを1つも取り出せなかった場合はコピーせずにそのまま追記を続ける
+            cumulation.position(cumulation.limit()).limit(cumulation.capacity());
+        }
+        else
+        {
+            cumulation.compact();
+        }
+    }
+
+    /** 蓄積バッファをプールへ返却する(接続終了時に受信処理を行うスレッドから呼ぶ) */
+    void release()
+    {
+        if(cumulation != null) pool.release(cumulation);
+        cumulation = null;
+    }
+
+    private void decodeFrames(ByteBuffer in) throws FrameDecoder.CorruptedFrameException
+    {
+        ByteBuffer frame;
+        while(in.hasRemaining() && (frame = decoder.decode(in)) != null) handler.onFrame(frame);
+    }
+
+    /** 蓄積バッファの空きが足りない場合は大きなバッファへ移し替える */
+    private void ensureWritable(int size)
+    {
+        if(cumulation.remaining() >= size) return;
+
+        ByteBuffer larger = pool.acquire(Math.max(cumulation.capacity() * 2, cumulation.position() + size));
+        larger.limit(larger.capacity());
+        cumulation.flip();
+        larger.put(cumulation);
+        pool.release(cumulation);
+        cumulation = larger;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** 受信データ(TCPのストリーム)からアプリ側の1メッセージ(フレーム)を切り出すためのインターフェース
+ *  ClientConfig.ConfigBuilder.setFrameDecoder()で設定すると、フレーム1つごとにonDataReceivedが呼ばれる
+ *  インスタンスは途中までの解析状態を持つため、接続ごとに生成して使用する */
+public interface FrameDecoder
+{
+    /**
+     * 受信済みのデータから完全なフレームを1つ取り出す
+     * @param in：受信済みで未処理のデータ(position～limit)。取り出した分だけpositionを進めること
+     * @return：取り出したフレーム(inと領域を共有するバッファ)。データが足りない場合はnull
+     * @throws CorruptedFrameException：フレームの形式が不正で、以降のデータを解析できない場合
+     */
+    ByteBuffer decode(ByteBuffer in) throws CorruptedFrameException;
+
+
+    /// --- 組み込みのデコーダ --- ///
+
+    /**
+     * 先頭に付けられたデータ長でフレームを区切るデコーダを生成する(データ長の部分はフレームに含めない)
+     * @param lengthFieldSize：データ長のバイト数(1, 2, 4のいずれか)
+     * @param order：データ長のバイトオーダー
+     * @param maxFrameLength：許容する最大のフレーム長(これを超えた場合はCorruptedFrameException)
+     */
+    static FrameDecoder lengthField(int lengthFieldSize, ByteOrder order, int maxFrameLength)
+    {
+        return new LengthFieldFrameDecoder(lengthFieldSize, order, maxFrameLength);
+    }
+
+    /**
+     * 先頭に付けられたビッグエンディアンのデータ長でフレームを区切るデコーダを生成する
+     * @param lengthFieldSize：データ長のバイト数(1, 2, 4のいずれか)
+     */
+    static FrameDecoder lengthField(int lengthFieldSize)
+    {
+        return new LengthFieldFrameDecoder(lengthFieldSize, ByteOrder.BIG_ENDIAN, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 区切り文字でフレームを区切るデコーダを生成する(区切り文字はフレームに含めない)
+     * @param maxFrameLength：許容する最大のフレーム長(これを超えた場合はCorruptedFrameException)
+     * @param delimiter：区切り文字のバイト列(例 : "\r\n".getBytes())
+     */
+    static FrameDecoder delimiter(int maxFrameLength, byte... delimiter)
+    {
+        return new DelimiterFrameDecoder(maxFrameLength, delimiter);
+    }
+
+    /**
+     * 固定長でフレームを区切るデコーダを生成する
+     * @param frameLength：1フレームのバイト数
+     */
+    static FrameDecoder fixedLength(int frameLength)
+    {
+        return new FixedLengthFrameDecoder(frameLength);
+    }
+
+
+    /** フレームの形式が不正な場合に発生する例外 */
+    class CorruptedFrameException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public CorruptedFrameException(String message){super(message);}
+    }
+
+    /** データ長 + データ本体の形式のフレームを切り出すデコーダ */
+    final class LengthFieldFrameDecoder implements FrameDecoder
+    {
+        private final int lengthFieldSize;
+        private final boolean bigEndian;
+        private final int maxFrameLength;
+
+        private LengthFieldFrameDecoder(int lengthFieldSize, ByteOrder order, int maxFrameLength)
+        {
+            if(lengthFieldSize != 1 && lengthFieldSize != 2 && lengthFieldSize != 4)
+                throw new IllegalArgumentException("lengthFieldSize must be 1, 2 or 4 : " + lengthFieldSize);
+            if(maxFrameLength <= 0) throw new IllegalArgumentException("maxFrameLength must be positive : " + maxFrameLength);
+
+            this.lengthFieldSize = lengthFieldSize;
+            this.bigEndian = order == ByteOrder.BIG_ENDIAN;
+            this.maxFrameLength = maxFrameLength;
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer in) throws CorruptedFrameException
+        {
+            if(in.remaining() < lengthFieldSize) return null;
+
+            int start = in.position();
+            long length = 0;
+            for(int i = 0; i < lengthFieldSize; i++)
+            {
+                int b = in.get(start + (bigEndian ? i : lengthFieldSize - 1 - i)) & 0xFF;
+                length = (length << 8) | b;
+            }
+            if(length > maxFrameLength) throw new CorruptedFrameException("frame length " + length + " exceeds " + maxFrameLength);
+
+            if(in.remaining() - lengthFieldSize < length) return null;
+
+            ByteBuffer frame = in.slice(start + lengthFieldSize, (int) length);
+            in.position(start + lengthFieldSize + (int) length);
+            return frame;
+        }
+    }
+
+    /** 区切り文字で終わるフレームを切り出すデコーダ */
+    final class DelimiterFrameDecoder implements FrameDecoder
+    {
+        private final byte[] delimiter;
+        private final int maxFrameLength;
+        /** 前回までに区切り文字が無いことを確認済みのバイト数(未処理データの先頭からの位置) */
+        private int scanned = 0;
+
+        private DelimiterFrameDecoder(int maxFrameLength, byte... delimiter)
+        {
+            if(delimiter == null || delimiter.length == 0) throw new IllegalArgumentException("delimiter must not be empty");
+            if(maxFrameLength <= 0) throw new IllegalArgumentException("maxFrameLength must be positive : " + maxFrameLength);
+
+            this.delimiter = delimiter.clone();
+            this.maxFrameLength = maxFrameLength;
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer in) throws CorruptedFrameException
+        {
+            int start = in.position();
+            int end = in.limit() - delimiter.length;
+
+            for(int i = start + scanned; i <= end; i++)
+            {
+                if(matches(in, i))
+                {
+                    int length = i - start;
+                    if(length > maxFrameLength) throw new CorruptedFrameException("frame length " + length + " exceeds " + maxFrameLength);
+
+                    ByteBuffer frame = in.slice(start, length);
+                    in.position(i + delimiter.length);
+                    scanned = 0;
+                    return frame;
+                }
+            }
+
+            // 区切り文字の途中までが末尾にある可能性があるので、その分は次回もう一度調べる
+            scanned = Math.max(0, in.remaining() - delimiter.length + 1);
+            if(scanned > maxFrameLength) throw new CorruptedFrameException("no delimiter found within " + maxFrameLength + " bytes");
+            return null;
+        }
+
+        private boolean matches(ByteBuffer in, int index)
+        {
+            for(int j = 0; j < delimiter.length; j++)
+            {
+                if(in.get(index + j) != delimiter[j]) return false;
+            }
+            return true;
+        }
+    }
+
+    /** 固定長のフレームを切り出すデコーダ */
+    final class FixedLengthFrameDecoder implements FrameDecoder
+    {
+        private final int frameLength;
+
+        private FixedLengthFrameDecoder(int frameLength)
+        {
+            if(frameLength <= 0) throw new IllegalArgumentException("frameLength must be positive : " + frameLength);
+            this.frameLength = frameLength;
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer in)
+        {
+            if(in.remaining() < frameLength) return null;
+
+            int start = in.position();
+            ByteBuffer frame = in.slice(start, frameLength);
+            in.position(start + frameLength);
+            return frame;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** 複数の接続候補へ少しずつ開始時刻をずらして並行に接続し、最初に接続できたものを使うクラス(Happy Eyeballs方式)
+ *  応答しないアドレスがあっても、次の候補への接続がattemptDelay後に始まるため
+ *  接続のタイムアウト時間全体を待たずに別の候補へ切り替えられる */
+final class HappyEyeballsConnector
+{
+    /** 接続結果 */
+    static final class Result
+    {
+        /** 接続済みのチャネル(ノンブロッキング) */
+        final SocketChannel channel;
+        final EndpointSelector.Candidate candidate;
+
+        private Result(SocketChannel channel, EndpointSelector.Candidate candidate)
+        {
+            this.channel = channel;
+            this.candidate = candidate;
+        }
+    }
+
+    /** 実行中の接続 */
+    private static final class Attempt
+    {
+        private final EndpointSelector.Candidate candidate;
+        private final SocketChannel channel;
+        private final long startNanos;
+
+        private Attempt(EndpointSelector.Candidate candidate, SocketChannel channel, long startNanos)
+        {
+            this.candidate = candidate;
+            this.channel = channel;
+            this.startNanos = startNanos;
+        }
+    }
+
+    /** 接続前のチャネルにソケットオプションなどを設定する処理 */
+    interface ChannelSetup
+    {
+        void apply(SocketChannel channel) throws IOException;
+    }
+
+    private HappyEyeballsConnector(){}
+
+    /**
+     * 候補の順に接続を開始し、最初に接続できたチャネルを返す(それ以外の接続は閉じる)
+     * 実行中の接続が失敗した場合は待たずに次の候補への接続を開始する
+     * @param candidates：接続を試す順に並べた候補
+     * @param endpoints：接続時間・失敗の記録先
+     * @param attemptDelayMillis：次の候補への接続を開始するまでの間隔(ms)
+     * @param timeoutMillis：全体のタイムアウト時間(ms)
+     * @param setup：接続前の各チャネルに行う設定
+     * @return：接続結果(チャネルはノンブロッキングのまま返す)
+     */
+    static Result connect(List<EndpointSelector.Candidate> candidates, EndpointSelector endpoints,
+                          long attemptDelayMillis, long timeoutMillis, ChannelSetup setup) throws IOException
+    {
+        if(candidates.isEmpty()) throw new ConnectException("no address to connect");
+
+        long attemptDelay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, attemptDelayMillis));
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<Attempt> running = new ArrayList<>();
+        Attempt winner = null;
+        IOException lastError = null;
+
+        try(Selector selector = Selector.open())
+        {
+            int next = 0;
+            long nextStart = System.nanoTime();
+            while(winner == null)
+            {
+                long now = System.nanoTime();
+                if(now - deadline >= 0)
+                {
+                    for(Attempt attempt : running) endpoints.recordFailure(attempt.candidate);
+                    throw new SocketTimeoutException("connect timed out after " + timeoutMillis + "ms");
+                }
+
+                // 次の候補の開始時刻になったか、実行中の接続が無い場合は次の候補を開始する
+                if(next < candidates.size() && (now - nextStart >= 0 || running.isEmpty()))
+                {
+                    EndpointSelector.Candidate candidate = candidates.get(next++);
+                    nextStart = now + attemptDelay;
+                    SocketChannel channel = null;
+                    try
+                    {
+                        channel = SocketChannel.open();
+                        channel.configureBlocking(false);
+                        setup.apply(channel);
+                        Attempt attempt = new Attempt(candidate, channel, now);
+                        if(channel.connect(candidate.address))
+                        {
+                            winner = attempt;
+                            break;
+                        }
+                        channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+                        running.add(attempt);
+                    }
+                    catch(IOException e)
+                    {
+                        if(channel != null) try { channel.close(); } catch (IOException ignored) {}
+                        endpoints.recordFailure(candidate);
+                        lastError = e;
+                    }
+                    continue;
+                }
+
+                if(running.isEmpty())
+                {
+                    throw lastError != null ? lastError : new ConnectException("no address to connect");
+                }
+
+                long wakeup = next < candidates.size() ? Math.min(nextStart - now, deadline - now) : deadline - now;
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wakeup)));
+
+                for(SelectionKey key : selector.selectedKeys())
+                {
+                    Attempt attempt = (Attempt) key.attachment();
+                    try
+                    {
+                        if(attempt.channel.finishConnect())
+                        {
+                            winner = attempt;
+                            break;
+                        }
+                    }
+                    catch(IOException e)
+                    {
+                        // 失敗した場合は次の候補の開始を待たずに始める
+                        key.cancel();
+                        running.remove(attempt);
+                        try { attempt.channel.close(); } catch (IOException ignored) {}
+                        endpoints.recordFailure(attempt.candidate);
+                        lastError = e;
+                        nextStart = System.nanoTime();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        }
+        finally
+        {
+            for(Attempt attempt : running)
+            {
+                if(attempt != winner) try { attempt.channel.close(); } catch (IOException ignored) {}
+            }
+        }
+
+        // Selectorを閉じた時点で登録は解除されている
+        endpoints.recordSuccess(winner.candidate, System.nanoTime() - winner.startNanos);
+        return new Result(winner.channel, winner.candidate);
+    }
+}
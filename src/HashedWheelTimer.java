@@ -0,0 +1,426 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** 接続監視・再接続などの定周期処理を多数のSocketClientで共有するためのタイマー(ハッシュドホイール方式)
+ *  1つのスレッドが一定間隔(tick)ごとにホイールの1スロット分だけ期限切れの処理を実行する。
+ *  登録・キャンセルはキューへ積むだけのO(1)の処理で、実行時刻の精度はtickの間隔になる
+ *  通常は全クライアントでshared()のインスタンスを共有し、tickを変える場合はインスタンスを生成して
+ *  ClientConfig.ConfigBuilder.setTimer()で設定する
+ *  タイマーのスレッドで実行される処理は短時間で終わるものにし、時間のかかる処理はExecutorを指定して実行すること */
+public final class HashedWheelTimer
+{
+    /** 登録した処理の実行前であればキャンセルできるハンドル */
+    public interface Timeout
+    {
+        /**
+         * 処理をキャンセルする(定周期処理の場合は以降の実行も止まる)
+         * @return：この呼び出しでキャンセルされた場合はtrue、実行済み・キャンセル済みの場合はfalse
+         */
+        boolean cancel();
+        /** @return : キャンセルされているか */
+        boolean isCancelled();
+    }
+
+    /** 既定のtickの間隔(ms)。-Dsimple_socket_client.timer.tickMillisで変更できる */
+    private static final long DEFAULT_TICK_MILLIS = Long.getLong("simple_socket_client.timer.tickMillis", 10);
+    /** 既定のホイールのスロット数 */
+    private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+    /** 1tickでホイールへ移す登録の最大数(大量登録時にtickが遅れ続けないようにする) */
+    private static final int MAX_TRANSFER_PER_TICK = 100_000;
+
+    private static final HashedWheelTimer SHARED = new HashedWheelTimer("SocketClient-timer", DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL, true);
+
+    private static final int STATE_INIT = 0;
+    private static final int STATE_STARTED = 1;
+    private static final int STATE_STOPPED = 2;
+
+    private final String name;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final boolean shared;
+
+    /** 登録されてまだホイールへ移していない処理 */
+    private final Queue<Entry> pendingEntries = new ConcurrentLinkedQueue<>();
+    /** キャンセルされてまだホイールから外していない処理 */
+    private final Queue<Entry> cancelledEntries = new ConcurrentLinkedQueue<>();
+    /** 実行待ちの処理の数 */
+    private final AtomicLong pendingCount = new AtomicLong();
+
+    private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+    private volatile Thread workerThread;
+    /** タイマースレッドの開始時刻(実行時刻はここからの経過時間で扱う) */
+    private volatile long startNanos;
+
+    /** 全てのSocketClientで共有するタイマーを返す(デーモンスレッドのため停止は不要) */
+    public static HashedWheelTimer shared(){return SHARED;}
+
+    /**
+     * コンストラクタ(スレッドは最初の登録時に開始する)
+     * @param tickDuration：ホイールを1スロット進める間隔(実行時刻の精度)
+     * @param unit：tickDurationの単位
+     * @param ticksPerWheel：ホイールのスロット数(2のべき乗に切り上げる)
+     */
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel)
+    {
+        this("HashedWheelTimer", tickDuration, unit, ticksPerWheel, false);
+    }
+
+    private HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel, boolean shared)
+    {
+        if(tickDuration <= 0) throw new IllegalArgumentException("tickDuration must be positive : " + tickDuration);
+        if(ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) throw new IllegalArgumentException("ticksPerWheel must be in 1..2^30 : " + ticksPerWheel);
+
+        this.name = name;
+        this.tickNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), unit.toNanos(tickDuration));
+        int size = 1;
+        while(size < ticksPerWheel) size <<= 1;
+        this.wheel = new Bucket[size];
+        for(int i = 0; i < size; i++) wheel[i] = new Bucket();
+        this.mask = size - 1;
+        this.shared = shared;
+    }
+
+    /**
+     * 処理を一定時間後に1回だけタイマーのスレッドで実行する
+     * @param task：実行する処理(短時間で終わるもの)
+     * @param delay：実行までの時間
+     * @param unit：delayの単位
+     * @return：キャンセル用のハンドル
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit)
+    {
+        if(task == null) throw new NullPointerException("task");
+        start();
+
+        Entry entry = new Entry(task, System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay)));
+        pendingCount.incrementAndGet();
+        pendingEntries.add(entry);
+        if(state.get() == STATE_STOPPED && pendingEntries.remove(entry))
+        {
+            pendingCount.decrementAndGet();
+            throw new IllegalStateException(name + " is stopped");
+        }
+        return entry;
+    }
+
+    /**
+     * 処理を一定の間隔で繰り返し実行する(前回の処理が終わってから次の実行までdelayを空ける)
+     * @param task：実行する処理
+     * @param executor：処理を実行するExecutor(nullの場合はタイマーのスレッドで実行する)
+     * @param initialDelay：最初の実行までの時間
+     * @param delay：処理の終了から次の実行までの時間
+     * @param unit：initialDelay, delayの単位
+     * @return：キャンセル用のハンドル(キャンセルすると以降の実行も止まる)
+     */
+    public Timeout scheduleWithFixedDelay(Runnable task, Executor executor, long initialDelay, long delay, TimeUnit unit)
+    {
+        PeriodicTimeout periodic = new PeriodicTimeout(task, executor, unit.toNanos(delay));
+        periodic.schedule(unit.toNanos(initialDelay));
+        return periodic;
+    }
+
+    /** @return : 実行待ちの処理の数 */
+    public long getPendingTimeouts(){return pendingCount.get();}
+
+    /** @return : tickの間隔(ns) */
+    public long getTickNanos(){return tickNanos;}
+
+    /**
+     * タイマーを停止し、実行待ちの処理を全て破棄する(shared()のインスタンスは停止できない)
+     * SocketClient.disconnect()はタイマーを停止せず、自身の処理をキャンセルするだけなので
+     * 生成したタイマーを使い終わった時点で呼び出すこと
+     */
+    public void stop()
+    {
+        if(shared) throw new IllegalStateException("the shared timer cannot be stopped");
+        if(state.getAndSet(STATE_STOPPED) != STATE_STARTED) return;
+
+        Thread worker = workerThread;
+        if(worker == null || worker == Thread.currentThread()) return;
+        LockSupport.unpark(worker);
+        boolean interrupted = false;
+        while(worker.isAlive())
+        {
+            try
+            {
+                worker.join(100);
+            }
+            catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if(interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void start()
+    {
+        switch(state.get())
+        {
+            case STATE_STARTED -> { return; }
+            case STATE_STOPPED -> throw new IllegalStateException(name + " is stopped");
+            default -> {}
+        }
+
+        synchronized(this)
+        {
+            if(state.get() != STATE_INIT) return;
+            startNanos = System.nanoTime();
+            Thread thread = new Thread(this::run, name);
+            thread.setDaemon(true);
+            workerThread = thread;
+            state.set(STATE_STARTED);
+            thread.start();
+        }
+    }
+
+
+    /// --- タイマースレッドの処理 --- ///
+
+    private void run()
+    {
+        long tick = 0;
+        while(state.get() == STATE_STARTED)
+        {
+            long deadline = waitForNextTick(tick);
+            if(deadline < 0) break;
+
+            removeCancelled();
+            transferPending(tick);
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+
+        // 停止時は実行待ちの処理を全て破棄する
+        for(Bucket bucket : wheel) bucket.clear();
+        pendingEntries.clear();
+        cancelledEntries.clear();
+        pendingCount.set(0);
+    }
+
+    /** 次のtickの時刻まで待つ
+     * @return：tickの時刻(開始時刻からの経過時間)。停止された場合は-1 */
+    private long waitForNextTick(long tick)
+    {
+        long deadline = tickNanos * (tick + 1);
+        while(true)
+        {
+            long current = System.nanoTime() - startNanos;
+            long sleep = deadline - current;
+            if(sleep <= 0) return current;
+
+            LockSupport.parkNanos(this, sleep);
+            if(state.get() != STATE_STARTED) return -1;
+        }
+    }
+
+    private void transferPending(long tick)
+    {
+        for(int i = 0; i < MAX_TRANSFER_PER_TICK; i++)
+        {
+            Entry entry = pendingEntries.poll();
+            if(entry == null) return;
+            if(entry.state.get() != Entry.ST_INIT) continue;    // 登録直後にキャンセルされた
+
+            long calculated = entry.deadline / tickNanos;
+            entry.remainingRounds = (calculated - tick) / wheel.length;
+            long ticks = Math.max(calculated, tick);           // 過ぎている場合は今回のtickで実行する
+            wheel[(int) (ticks & mask)].add(entry);
+        }
+    }
+
+    private void removeCancelled()
+    {
+        Entry entry;
+        while((entry = cancelledEntries.poll()) != null)
+        {
+            if(entry.bucket != null) entry.bucket.remove(entry);
+        }
+    }
+
+
+    /** 登録された処理(ホイールのスロット内で双方向リストになる) */
+    private final class Entry implements Timeout
+    {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final Runnable task;
+        /** 実行時刻(タイマーの開始時刻からの経過時間) */
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+        /// --- タイマースレッドだけが使用する変数 --- ///
+        private long remainingRounds;
+        private Bucket bucket;
+        private Entry prev;
+        private Entry next;
+
+        private Entry(Runnable task, long deadline)
+        {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel()
+        {
+            if(!state.compareAndSet(ST_INIT, ST_CANCELLED)) return false;
+            pendingCount.decrementAndGet();
+            cancelledEntries.add(this);     // ホイールからはタイマースレッドが外す
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled(){return state.get() == ST_CANCELLED;}
+
+        private void expire()
+        {
+            if(!state.compareAndSet(ST_INIT, ST_EXPIRED)) return;
+            pendingCount.decrementAndGet();
+            try
+            {
+                task.run();
+            }
+            catch(Throwable ignored) {}     // 1つの処理の例外で他のクライアントのタイマーを止めない
+        }
+    }
+
+    /** ホイールの1スロット分の処理のリスト */
+    private static final class Bucket
+    {
+        private Entry head;
+        private Entry tail;
+
+        private void add(Entry entry)
+        {
+            entry.bucket = this;
+            if(head == null)
+            {
+                head = tail = entry;
+            }
+            else
+            {
+                tail.next = entry;
+                entry.prev = tail;
+                tail = entry;
+            }
+        }
+
+        /** 実行時刻を過ぎた処理を実行し、キャンセル済みの処理を外す */
+        private void expire(long deadline)
+        {
+            Entry entry = head;
+            while(entry != null)
+            {
+                Entry next = entry.next;
+                if(entry.remainingRounds <= 0)
+                {
+                    remove(entry);
+                    if(entry.deadline <= deadline) entry.expire();
+                }
+                else if(entry.isCancelled())
+                {
+                    remove(entry);
+                }
+                else
+                {
+                    entry.remainingRounds--;
+                }
+                entry = next;
+            }
+        }
+
+        private void remove(Entry entry)
+        {
+            if(entry.bucket != this) return;
+            Entry next = entry.next;
+            if(entry.prev != null) entry.prev.next = next;
+            if(next != null) next.prev = entry.prev;
+            if(entry == head) head = next;
+            if(entry == tail) tail = entry.prev;
+            entry.prev = null;
+            entry.next = null;
+            entry.bucket = null;
+        }
+
+        private void clear()
+        {
+            head = null;
+            tail = null;
+        }
+    }
+
+    /** 一定の間隔で繰り返す処理(実行が終わるたびに次の1回を登録する) */
+    private final class PeriodicTimeout implements Timeout, Runnable
+    {
+        private final Runnable task;
+        private final Executor executor;
+        private final long delayNanos;
+        private volatile boolean cancelled = false;
+        /** 次の実行の登録 */
+        private volatile Timeout current;
+
+        private PeriodicTimeout(Runnable task, Executor executor, long delayNanos)
+        {
+            this.task = task;
+            this.executor = executor;
+            this.delayNanos = delayNanos;
+        }
+
+        private void schedule(long delay)
+        {
+            current = newTimeout(executor == null ? this : () -> executeSafely(), delay, TimeUnit.NANOSECONDS);
+            if(cancelled) current.cancel();     // 登録中にキャンセルされた
+        }
+
+        private void executeSafely()
+        {
+            try
+            {
+                executor.execute(this);
+            }
+            catch(RuntimeException e)
+            {
+                // Executorが停止している場合は次の周期で再度試す
+                if(!cancelled && state.get() == STATE_STARTED) schedule(delayNanos);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            if(cancelled) return;
+            try
+            {
+                task.run();
+            }
+            finally
+            {
+                if(!cancelled && state.get() == STATE_STARTED) schedule(delayNanos);
+            }
+        }
+
+        @Override
+        public boolean cancel()
+        {
+            if(cancelled) return false;
+            cancelled = true;
+            Timeout next = current;
+            if(next != null) next.cancel();
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled(){return cancelled;}
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/** 接続先のホスト名をアドレスへ解決するためのインターフェース
+ *  ClientConfig.ConfigBuilder.setResolver()で設定する。設定しない場合はCachingHostResolver.shared()を使用する
+ *  テスト時に固定のアドレスを返すスタブへ差し替える場合などに実装する */
+@FunctionalInterface
+public interface HostResolver
+{
+    /**
+     * ホスト名を解決する
+     * @param host：ホスト名(IPアドレス)
+     * @return：解決したアドレス(1つ以上)
+     * @throws UnknownHostException：解決できなかった場合
+     */
+    InetAddress[] resolve(String host) throws UnknownHostException;
+
+    /** @return : InetAddress.getAllByName()で解決するリゾルバ(キャッシュしない) */
+    static HostResolver system()
+    {
+        return InetAddress::getAllByName;
+    }
+}
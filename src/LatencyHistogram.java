@@ -0,0 +1,100 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** 処理時間の分布を固定のバケットで集計するヒストグラム
+ *  バケットはマイクロ秒単位の2のべき乗(1us未満, 1～2us, 2～4us, … 2^30us以上)で区切られ、
+ *  記録はバケットごとのLongAdderへの加算だけなので複数スレッドから同時に記録しても競合しない */
+public class LatencyHistogram
+{
+    /** バケットの数(最後のバケットは2^30us(約18分)以上) */
+    public static final int BUCKET_COUNT = 32;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder count = new LongAdder();
+
+    LatencyHistogram()
+    {
+        for(int i = 0; i < BUCKET_COUNT; i++) buckets[i] = new LongAdder();
+    }
+
+    /**
+     * 処理時間を記録する
+     * @param nanos：処理時間(ns)
+     */
+    void record(long nanos)
+    {
+        if(nanos < 0) nanos = 0;
+        long micros = nanos / 1000;
+        int index = micros == 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[index].increment();
+        totalNanos.add(nanos);
+        count.increment();
+    }
+
+    /** @return : 記録した回数 */
+    public long getCount(){return count.sum();}
+
+    /** @return : 平均の処理時間(us)。記録が無い場合は0 */
+    public double getMeanMicros()
+    {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1000.0 / n;
+    }
+
+    /**
+     * 指定したパーセンタイルの処理時間のおおよその値を返す(該当するバケットの上限値)
+     * @param percentile：0～100の値(例 : 99.9)
+     * @return：処理時間(us)。記録が無い場合は0
+     */
+    public long getPercentileMicros(double percentile)
+    {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for(long c : counts) total += c;
+        if(total == 0) return 0;
+
+        long threshold = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100.0);
+        long seen = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += counts[i];
+            if(seen >= threshold && counts[i] > 0) return bucketUpperBoundMicros(i);
+        }
+        return bucketUpperBoundMicros(BUCKET_COUNT - 1);
+    }
+
+    /** @return : バケットごとの記録回数 */
+    public long[] getBucketCounts()
+    {
+        long[] counts = new long[BUCKET_COUNT];
+        for(int i = 0; i < BUCKET_COUNT; i++) counts[i] = buckets[i].sum();
+        return counts;
+    }
+
+    /**
+     * @param index：バケットの番号
+     * @return：バケットの上限値(us)
+     */
+    public static long bucketUpperBoundMicros(int index)
+    {
+        return 1L << index;
+    }
+
+    /** 記録を全て消去する */
+    void reset()
+    {
+        for(LongAdder bucket : buckets) bucket.reset();
+        totalNanos.reset();
+        count.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "count=" + getCount() + ", mean=" + String.format("%.1f", getMeanMicros()) + "us"
+                + ", p50=" + getPercentileMicros(50) + "us, p99=" + getPercentileMicros(99) + "us"
+                + ", p99.9=" + getPercentileMicros(99.9) + "us";
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** 送信時のエンコードと受信時のデコードを1つにまとめたインターフェース(TypedSocketClientで使用する) */
+public interface MessageCodec<T> extends MessageEncoder<T>, MessageDecoder<T>
+{
+    /// --- 組み込みのコーデック --- ///
+
+    /**
+     * 文字列をUTF-8で送受信するコーデックを生成する(区切り文字などは付けない)
+     * 受信時のメッセージの区切りはFrameDecoder.delimiter()などで設定すること
+     */
+    static MessageCodec<String> utf8()
+    {
+        return Utf8Codec.INSTANCE;
+    }
+
+    /** バイト列をそのまま送受信するコーデックを生成する */
+    static MessageCodec<byte[]> bytes()
+    {
+        return BytesCodec.INSTANCE;
+    }
+
+    /**
+     * 先頭にビッグエンディアンのデータ長を付けて送信するコーデックを生成する(データ本体はinnerでエンコードする)
+     * 受信時はFrameDecoder.lengthField(lengthFieldSize)で区切ったデータ本体をinnerでデコードするので、
+     * ClientConfig.ConfigBuilder.setFrameDecoder(() -> FrameDecoder.lengthField(lengthFieldSize))を設定すること
+     * @param inner：データ本体のコーデック
+     * @param lengthFieldSize：データ長のバイト数(1, 2, 4のいずれか)
+     */
+    static <T> MessageCodec<T> lengthPrefixed(MessageCodec<T> inner, int lengthFieldSize)
+    {
+        return new LengthPrefixedCodec<>(inner, lengthFieldSize);
+    }
+
+
+    /** UTF-8の文字列のコーデック(エンコード時は文字列から直接バッファへ書き込む) */
+    final class Utf8Codec implements MessageCodec<String>
+    {
+        private static final Utf8Codec INSTANCE = new Utf8Codec();
+
+        private Utf8Codec(){}
+
+        @Override
+        public int maxEncodedSize(String message)
+        {
+            return message.length() * 3;        // サロゲートペアは2文字で4バイトなので1文字あたり3バイトを超えない
+        }
+
+        @Override
+        public void encode(String message, ByteBuffer out)
+        {
+            if(out.hasArray())
+            {
+                int end = encode(message, out.array(), out.arrayOffset() + out.position());
+                out.position(end - out.arrayOffset());
+                return;
+            }
+            for(int i = 0; i < message.length(); i++)
+            {
+                char c = message.charAt(i);
+                if(c < 0x80) out.put((byte) c);
+                else if(c < 0x800)
+                {
+                    out.put((byte) (0xC0 | (c >> 6)));
+                    out.put((byte) (0x80 | (c & 0x3F)));
+                }
+                else if(Character.isHighSurrogate(c) && i + 1 < message.length() && Character.isLowSurrogate(message.charAt(i + 1)))
+                {
+                    int codePoint = Character.toCodePoint(c, message.charAt(++i));
+                    out.put((byte) (0xF0 | (codePoint >> 18)));
+                    out.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    out.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    out.put((byte) (0x80 | (codePoint & 0x3F)));
+                }
+                else if(Character.isSurrogate(c)) out.put((byte) '?');     // 対になっていないサロゲート(String.getBytesと同じ扱い)
+                else
+                {
+                    out.put((byte) (0xE0 | (c >> 12)));
+                    out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    out.put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+
+        /** ヒープバッファの配列へ直接書き込む
+         * @return：書き込み終わった配列上の位置 */
+        private static int encode(String message, byte[] dst, int index)
+        {
+            for(int i = 0; i < message.length(); i++)
+            {
+                char c = message.charAt(i);
+                if(c < 0x80) dst[index++] = (byte) c;
+                else if(c < 0x800)
+                {
+                    dst[index++] = (byte) (0xC0 | (c >> 6));
+                    dst[index++] = (byte) (0x80 | (c & 0x3F));
+                }
+                else if(Character.isHighSurrogate(c) && i + 1 < message.length() && Character.isLowSurrogate(message.charAt(i + 1)))
+                {
+                    int codePoint = Character.toCodePoint(c, message.charAt(++i));
+                    dst[index++] = (byte) (0xF0 | (codePoint >> 18));
+                    dst[index++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    dst[index++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    dst[index++] = (byte) (0x80 | (codePoint & 0x3F));
+                }
+                else if(Character.isSurrogate(c)) dst[index++] = (byte) '?';
+                else
+                {
+                    dst[index++] = (byte) (0xE0 | (c >> 12));
+                    dst[index++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    dst[index++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return index;
+        }
+
+        @Override
+        public String decode(ByteBuffer frame)
+        {
+            if(frame.hasArray())
+            {
+                // 受信バッファの配列から直接文字列を生成する(中間のbyte[]を作らない)
+                String message = new String(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining(), StandardCharsets.UTF_8);
+                frame.position(frame.limit());
+                return message;
+            }
+            return StandardCharsets.UTF_8.decode(frame).toString();
+        }
+    }
+
+    /** バイト列のコーデック */
+    final class BytesCodec implements MessageCodec<byte[]>
+    {
+        private static final BytesCodec INSTANCE = new BytesCodec();
+
+        private BytesCodec(){}
+
+        @Override
+        public int maxEncodedSize(byte[] message){return message.length;}
+
+        @Override
+        public void encode(byte[] message, ByteBuffer out){out.put(message);}
+
+        @Override
+        public byte[] decode(ByteBuffer frame)
+        {
+            byte[] message = new byte[frame.remaining()];
+            frame.get(message);
+            return message;
+        }
+    }
+
+    /** データ長 + データ本体の形式で送信するコーデック(データ長はエンコード後に書き込む) */
+    final class LengthPrefixedCodec<T> implements MessageCodec<T>
+    {
+        private final MessageCodec<T> inner;
+        private final int lengthFieldSize;
+        private final long maxLength;
+
+        private LengthPrefixedCodec(MessageCodec<T> inner, int lengthFieldSize)
+        {
+            if(lengthFieldSize != 1 && lengthFieldSize != 2 && lengthFieldSize != 4)
+                throw new IllegalArgumentException("lengthFieldSize must be 1, 2 or 4 : " + lengthFieldSize);
+            this.inner = inner;
+            this.lengthFieldSize = lengthFieldSize;
+            this.maxLength = lengthFieldSize == 4 ? Integer.MAX_VALUE : (1L << (lengthFieldSize * 8)) - 1;
+        }
+
+        @Override
+        public int maxEncodedSize(T message)
+        {
+            return lengthFieldSize + inner.maxEncodedSize(message);
+        }
+
+        @Override
+        public void encode(T message, ByteBuffer out)
+        {
+            int start = out.position();
+            out.position(start + lengthFieldSize);
+            inner.encode(message, out);
+            int length = out.position() - start - lengthFieldSize;
+            if(length > maxLength) throw new IllegalArgumentException("message too long for " + lengthFieldSize + " byte length field : " + length);
+
+            // バッファのバイトオーダーの設定に関わらずビッグエンディアンで書き込む
+            for(int i = 0; i < lengthFieldSize; i++) out.put(start + i, (byte) (length >>> (8 * (lengthFieldSize - 1 - i))));
+        }
+
+        @Override
+        public T decode(ByteBuffer frame)
+        {
+            return inner.decode(frame);         // データ長はFrameDecoderで取り除かれている
+        }
+    }
+}
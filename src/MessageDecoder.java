@@ -0,0 +1,18 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.nio.ByteBuffer;
+
+/** 受信したメッセージを、受信バッファから直接読み込んでオブジェクトにするためのインターフェース
+ *  TypedSocketClientで使用する。メッセージの区切りはClientConfigのFRAME_DECODERに従い、
+ *  FrameDecoderが設定されていない場合は1回の読み込みで受信したデータが1メッセージとして渡される
+ *  受信処理のスレッドから呼ばれる(通知用スレッドを使う設定の場合は通知用スレッドから呼ばれる) */
+public interface MessageDecoder<T>
+{
+    /**
+     * 受信したメッセージをオブジェクトにする
+     * 形式が不正な場合は非チェック例外(IllegalArgumentExceptionなど)を投げると受信処理のエラーとして通知される
+     * @param frame：受信したメッセージ(position～limit)。この関数から戻った時点でプールへ返却されるので保持しないこと
+     * @return：受信したオブジェクト
+     */
+    T decode(ByteBuffer frame);
+}
@@ -0,0 +1,23 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.nio.ByteBuffer;
+
+/** 送信するオブジェクトを、送信キューに積むバッファへ直接書き込むためのインターフェース
+ *  SocketClient.sendMessage(T, MessageEncoder)・TypedSocketClientで使用する
+ *  バッファはBufferPoolから取得し、書き込みが終わるとプールへ返却されるため、送信ごとのbyte[]の生成が無くなる
+ *  複数のスレッドから同時に呼ばれるため、状態を持たない実装にすること */
+public interface MessageEncoder<T>
+{
+    /**
+     * エンコード後のバイト数の上限を返す(このサイズのバッファを取得してencodeへ渡す)
+     * @param message：送信するオブジェクト
+     */
+    int maxEncodedSize(T message);
+
+    /**
+     * オブジェクトをバッファへ書き込む
+     * @param message：送信するオブジェクト
+     * @param out：書き込み先(positionから書き込み、書き込んだ分だけpositionを進めること)
+     */
+    void encode(T message, ByteBuffer out);
+}
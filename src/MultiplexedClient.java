@@ -0,0 +1,443 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** 1つのSocketClientの接続上で、チャネルIDで区別した複数の論理的な通信路(チャネル)を使うためのクラス
+ *  同じ接続先へ通信路ごとにSocketClientを生成する場合と違い、ソケット・スレッド・接続監視・再接続は全チャネルで1つを共有する
+ *  送信データはFRAGMENT_SIZEごとに分割し、送信待ちのあるチャネルから順番に1つずつ送るため、
+ *  大きな送信データの途中でも他のチャネルの小さな送信データが待たされ続けることはない
+ *
+ *  通信上の形式(サーバー側も同じ形式で送受信すること) :
+ *  [以降のバイト数(4byte)][チャネルID(4byte。最上位ビットが1の場合は同じメッセージの続きがある)][データ]
+ *  以降のバイト数が0のものは接続監視で送るデータで、受信側は読み捨てる
+ *
+ *  使用例 :
+ *  MultiplexedClient mux = new MultiplexedClient(config);
+ *  MultiplexedClient.Channel control = mux.openChannel(1, controlListener);
+ *  MultiplexedClient.Channel bulk = mux.openChannel(2, bulkListener);
+ *  mux.connect(); */
+public class MultiplexedClient
+{
+    /** チャネルIDのうち、同じメッセージの続きがあることを示すビット */
+    private static final int MORE_FRAGMENTS = 0x80000000;
+    /** 接続監視で送るデータ(以降のバイト数が0の空のフレーム) */
+    private static final byte[] HEARTBEAT = new byte[4];
+    /** フレームの先頭の管理領域(以降のバイト数 + チャネルID) */
+    private static final int FRAME_HEADER_SIZE = 8;
+
+    /** 実際の通信を行うSocketClient */
+    private final SocketClient client;
+    /** 開いているチャネル */
+    private final Map<Integer, Channel> channels = new ConcurrentHashMap<>();
+    private final int FRAGMENT_SIZE;
+    /** 送信キューへ積んで書き込みが終わっていないバイト数の上限(これを超えた分は送信待ちのチャネルごとに順番を待つ) */
+    private final long MAX_IN_FLIGHT;
+
+    /** 送信待ちのデータがあるチャネル(先頭から順に1フレームずつ送る。lockで保護する) */
+    private final Queue<Channel> ready = new ArrayDeque<>();
+    /** 送信キューへ積んで書き込みが終わっていないバイト数(lockで保護する) */
+    private long inFlightBytes;
+    /** pump()の実行中か(送信の完了がその場で通知された場合に、pump()を入れ子で呼ばないようにする。lockで保護する) */
+    private boolean pumping = false;
+    private final Object lock = new Object();
+
+    /**
+     * コンストラクタ(分割の単位は16KB、1メッセージの上限は16MB)
+     * @param config:ClientConfigクラス(FRAME_DECODERはこのクラスの形式で区切るため設定しないこと)
+     */
+    public MultiplexedClient(ClientConfig config)
+    {
+        this(config, 16 * 1024, 16 * 1024 * 1024);
+    }
+
+    /**
+     * コンストラクタ
+     * @param config:ClientConfigクラス(FRAME_DECODERはこのクラスの形式で区切るため設定しないこと)
+     * @param fragmentSize:送信データを分割する単位(Byte)。小さいほど他のチャネルの待ち時間が短くなる
+     * @param maxMessageSize:受信する1メッセージの上限(Byte)。超えた場合は受信処理のエラーとして再接続する
+     */
+    public MultiplexedClient(ClientConfig config, int fragmentSize, int maxMessageSize)
+    {
+        if(config.getFRAME_DECODER() != null) throw new IllegalArgumentException("FRAME_DECODER must not be set for MultiplexedClient");
+        if(fragmentSize <= 0) throw new IllegalArgumentException("fragmentSize must be positive : " + fragmentSize);
+        if(maxMessageSize <= 0) throw new IllegalArgumentException("maxMessageSize must be positive : " + maxMessageSize);
+
+        this.FRAGMENT_SIZE = fragmentSize;
+        this.MAX_IN_FLIGHT = Math.max(4L * (fragmentSize + FRAME_HEADER_SIZE), config.getWRITE_BUFFER_LOW_WATER_MARK());
+        this.client = new SocketClient(new Demultiplexer(), config, () -> new MuxFrameDecoder(maxMessageSize), HEARTBEAT);
+    }
+
+    /**
+     * チャネルを開く(接続前・接続中のどちらでも開ける)
+     * @param channelId:チャネルID(0～2^31-1。サーバー側と同じIDを使う)
+     * @param listener:このチャネルのコールバック関数(ByteBufferEventListenerの場合は受信データをバッファのまま受け取る)
+     *                 接続・切断・再接続などの通知は全チャネルへ送られる
+     * @return:開いたチャネル
+     */
+    public Channel openChannel(int channelId, SocketClient.ClientEventListener listener)
+    {
+        if(channelId < 0) throw new IllegalArgumentException("channelId must not be negative : " + channelId);
+        Channel channel = new Channel(channelId, listener);
+        if(channels.putIfAbsent(channelId, channel) != null) throw new IllegalStateException("channel already open : " + channelId);
+        return channel;
+    }
+
+    /** サーバーへ接続する(SocketClient.connect()と同じ) */
+    public void connect(){client.connect();}
+
+    /** サーバーとの接続を切断する(SocketClient.disconnect()と同じ。送信待ちのデータは破棄する) */
+    public void disconnect()
+    {
+        client.disconnect();
+        synchronized(lock)
+        {
+            Channel channel;
+            while((channel = ready.poll()) != null)
+            {
+                channel.scheduled = false;
+                channel.failPending(new ClosedChannelException());
+            }
+        }
+    }
+
+    /** @return : 接続中か */
+    public boolean isConnected(){return client.isConnected();}
+
+    /**
+     * 接続中の状態になるまで待つ
+     * @param timeoutMillis：最大待機時間(ms)
+     * @return：時間内に接続中になった場合はtrue
+     */
+    public boolean awaitConnected(long timeoutMillis) throws InterruptedException {return client.awaitConnected(timeoutMillis);}
+
+    /** @return : 実際の通信を行うSocketClient(計測値・接続状態の確認用) */
+    public SocketClient getClient(){return client;}
+
+    /** 送信待ちのチャネルから順番に1フレームずつ、送信キューへ積んだ量がMAX_IN_FLIGHTに達するまで積む */
+    private void pump()
+    {
+        synchronized(lock)
+        {
+            if(pumping) return;         // 実行中のループが続けて積む
+            pumping = true;
+            try
+            {
+                pumpLocked();
+            }
+            finally
+            {
+                pumping = false;
+            }
+        }
+    }
+
+    /** pump()の本体(lockを取得した状態で呼ぶ) */
+    private void pumpLocked()
+    {
+        Channel channel;
+        while(inFlightBytes < MAX_IN_FLIGHT && (channel = ready.poll()) != null)
+        {
+            Outgoing message = channel.pending.peek();
+            if(message == null || message.failed)
+            {
+                if(message != null) channel.pending.poll();
+                requeue(channel);
+                continue;
+            }
+
+            ByteBuffer data = message.data;
+            int size = Math.min(data.remaining(), FRAGMENT_SIZE);
+            ByteBuffer body = data.slice(data.position(), size);
+            data.position(data.position() + size);
+            boolean last = !data.hasRemaining();
+            if(last) channel.pending.poll();
+            requeue(channel);       // 残りは他のチャネルの後に送る
+
+            Fragment fragment = new Fragment(last ? channel.id : channel.id | MORE_FRAGMENTS, body);
+            inFlightBytes += FRAME_HEADER_SIZE + size;
+            message.inFlight++;
+            client.sendInternalAsync(fragment, FRAGMENT_ENCODER).whenComplete((v, e) -> onFragmentSent(message, size, last, e));
+        }
+    }
+
+    /** 送信待ちのデータが残っていれば、チャネルを送信待ちの最後に戻す(lockを取得した状態で呼ぶ) */
+    private void requeue(Channel channel)
+    {
+        if(!channel.pending.isEmpty()) ready.add(channel);
+        else channel.scheduled = false;
+    }
+
+    /** フレームの書き込みが終わった・失敗した際の処理(メッセージの最後のフレームまで書き込んだらメッセージの送信完了とする) */
+    private void onFragmentSent(Outgoing message, int size, boolean last, Throwable error)
+    {
+        synchronized(lock)
+        {
+            inFlightBytes -= FRAME_HEADER_SIZE + size;
+            message.inFlight--;
+            if(error != null) message.fail(error);          // 残りのフレームは送らない(受信側では新しい接続で途中からになるため)
+            else if(last && message.inFlight == 0) message.complete();
+        }
+        pump();
+    }
+
+
+    /** チャネルIDで区別した論理的な通信路 */
+    public final class Channel
+    {
+        private final int id;
+        private final SocketClient.ClientEventListener listener;
+        /** 送信待ちのメッセージ(lockで保護する) */
+        private final Queue<Outgoing> pending = new ArrayDeque<>();
+        /** 送信待ちのチャネルとしてreadyに入っているか(lockで保護する) */
+        private boolean scheduled = false;
+        private volatile boolean closed = false;
+
+        private Channel(int id, SocketClient.ClientEventListener listener)
+        {
+            this.id = id;
+            this.listener = listener;
+        }
+
+        /** @return : チャネルID */
+        public int getId(){return id;}
+
+        /**
+         * データを送信する(送信の失敗はこのチャネルのonErrorReceivedへ通知される)
+         * @param data:送信データ(送信が終わるまで内容を変更しないこと)
+         */
+        public void sendMessage(byte[] data)
+        {
+            send(ByteBuffer.wrap(data), null);
+        }
+
+        /**
+         * データを送信し、送信の完了を受け取る
+         * @param data:送信データ(送信が終わるまで内容を変更しないこと)
+         * @return:最後のフレームまでソケットへ書き込み終わった時点で完了するCompletableFuture
+         *         (切断などで送信できなかった場合は例外で完了する)
+         */
+        public CompletableFuture<Void> sendMessageAsync(byte[] data)
+        {
+            CompletableFuture<Void> promise = new CompletableFuture<>();
+            send(ByteBuffer.wrap(data), promise);
+            return promise;
+        }
+
+        /** チャネルを閉じる(以降の受信データは読み捨て、送信待ちのデータは破棄する) */
+        public void close()
+        {
+            closed = true;
+            channels.remove(id, this);
+            synchronized(lock){failPending(new ClosedChannelException());}
+        }
+
+        private void send(ByteBuffer data, CompletableFuture<Void> promise)
+        {
+            Outgoing message = new Outgoing(this, data, promise);
+            synchronized(lock)
+            {
+                if(closed)
+                {
+                    message.fail(new ClosedChannelException());
+                    return;
+                }
+                pending.add(message);
+                if(!scheduled)
+                {
+                    scheduled = true;
+                    ready.add(this);
+                }
+            }
+            pump();
+        }
+
+        /** 送信待ちのメッセージを全て失敗にする(lockを取得した状態で呼ぶ) */
+        private void failPending(Throwable cause)
+        {
+            Outgoing message;
+            while((message = pending.poll()) != null) message.fail(cause);
+        }
+
+        private void deliver(ByteBuffer data)
+        {
+            if(listener instanceof SocketClient.ByteBufferEventListener bufferListener) bufferListener.onDataReceived(data);
+            else if(listener != null)
+            {
+                byte[] bytes = new byte[data.remaining()];
+                data.get(bytes);
+                listener.onDataReceived(bytes);
+            }
+        }
+    }
+
+    /** 送信中・送信待ちのメッセージ */
+    private final class Outgoing
+    {
+        private final Channel channel;
+        /** まだフレームにしていない残り(position～limit) */
+        private final ByteBuffer data;
+        private final CompletableFuture<Void> promise;
+        /** 送信関数が呼ばれた時刻(フレームではなくメッセージ単位で送信時間を記録する) */
+        private final long startNanos;
+        /** 送信キューへ積んで書き込みが終わっていないフレームの数 */
+        private int inFlight;
+        private boolean failed = false;
+
+        private Outgoing(Channel channel, ByteBuffer data, CompletableFuture<Void> promise)
+        {
+            this.channel = channel;
+            this.data = data;
+            this.promise = promise;
+            this.startNanos = client.getMetrics().sendStartNanos();
+            client.getMetrics().recordQueued(startNanos);
+        }
+
+        private void complete()
+        {
+            if(failed) return;          // 先に失敗したフレームがある(書き込み中だった後続のフレームが完了した)
+            client.getMetrics().recordMessageSent(startNanos);
+            if(promise != null) promise.complete(null);
+        }
+
+        private void fail(Throwable cause)
+        {
+            if(failed) return;
+            failed = true;
+            client.getMetrics().recordDropped(startNanos);
+            if(promise != null) promise.completeExceptionally(cause);
+            else if(channel.listener != null)
+            {
+                Exception e = cause instanceof Exception ? (Exception) cause : new Exception(cause);
+                channel.listener.onErrorReceived(client.toErrorInfo(e, SocketClient.Phase.SEND));
+            }
+        }
+    }
+
+    /** 送信キューへ積むフレーム(書き込み時にヘッダーとデータを送信バッファへ直接書き込む) */
+    private static final class Fragment
+    {
+        private final int header;
+        private final ByteBuffer body;
+
+        private Fragment(int header, ByteBuffer body)
+        {
+            this.header = header;
+            this.body = body;
+        }
+    }
+
+    private static final MessageEncoder<Fragment> FRAGMENT_ENCODER = new MessageEncoder<>()
+    {
+        @Override
+        public int maxEncodedSize(Fragment fragment){return FRAME_HEADER_SIZE + fragment.body.remaining();}
+
+        @Override
+        public void encode(Fragment fragment, ByteBuffer out)
+        {
+            out.order(ByteOrder.BIG_ENDIAN);
+            out.putInt(4 + fragment.body.remaining());
+            out.putInt(fragment.header);
+            out.put(fragment.body.duplicate());
+        }
+    };
+
+    /** 受信データをチャネルごとのコールバック関数へ振り分けるクラス */
+    private final class Demultiplexer implements SocketClient.ByteBufferEventListener
+    {
+        @Override
+        public void onDataReceived(ByteBuffer frame)
+        {
+            int id = frame.getInt() & ~MORE_FRAGMENTS;
+            Channel channel = channels.get(id);
+            if(channel != null) channel.deliver(frame);        // 開いていないチャネルのデータは読み捨てる
+        }
+
+        @Override
+        public void onErrorReceived(SocketClient.ErrorInfo e){for(Channel channel : channels.values()) if(channel.listener != null) channel.listener.onErrorReceived(e);}
+
+        @Override
+        public void onConnected(){for(Channel channel : channels.values()) if(channel.listener != null) channel.listener.onConnected();}
+
+        @Override
+        public void onDisConnected(){for(Channel channel : channels.values()) if(channel.listener != null) channel.listener.onDisConnected();}
+
+        @Override
+        public void onRetryStarted(){for(Channel channel : channels.values()) if(channel.listener != null) channel.listener.onRetryStarted();}
+
+        @Override
+        public void onWritabilityChanged(boolean writable){for(Channel channel : channels.values()) if(channel.listener != null) channel.listener.onWritabilityChanged(writable);}
+
+        @Override
+        public void onReadIdle(long idleMillis){for(Channel channel : channels.values()) if(channel.listener != null) channel.listener.onReadIdle(idleMillis);}
+    }
+
+    /** フレームを切り出し、分割されたメッセージを元に戻すデコーダ(接続ごとに生成する)
+     *  切り出したフレームは[チャネルID][データ]の形式で返す */
+    private static final class MuxFrameDecoder implements FrameDecoder
+    {
+        private final int maxMessageSize;
+        private final FrameDecoder frames;
+        /** チャネルごとの途中まで受信したメッセージ(書き込みモード : 先頭4バイトはチャネルID) */
+        private final Map<Integer, ByteBuffer> partial = new HashMap<>();
+
+        private MuxFrameDecoder(int maxMessageSize)
+        {
+            this.maxMessageSize = maxMessageSize;
+            this.frames = FrameDecoder.lengthField(4, ByteOrder.BIG_ENDIAN, (int) Math.min(Integer.MAX_VALUE, maxMessageSize + 4L));
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer in) throws CorruptedFrameException
+        {
+            ByteBuffer frame;
+            while((frame = frames.decode(in)) != null)
+            {
+                if(!frame.hasRemaining()) continue;         // 接続監視
+                if(frame.remaining() < 4) throw new CorruptedFrameException("frame too short for channel id : " + frame.remaining());
+
+                int header = frame.getInt(frame.position());
+                int id = header & ~MORE_FRAGMENTS;
+                boolean more = (header & MORE_FRAGMENTS) != 0;
+                ByteBuffer message = partial.get(id);
+                if(!more && message == null) return frame;      // 分割されていないメッセージ
+
+                ByteBuffer body = frame.slice(frame.position() + 4, frame.remaining() - 4);
+                message = append(id, message, body);
+                if(more) partial.put(id, message);
+                else
+                {
+                    partial.remove(id);
+                    return message.flip();
+                }
+            }
+            return null;
+        }
+
+        private ByteBuffer append(int id, ByteBuffer message, ByteBuffer body) throws CorruptedFrameException
+        {
+            int size = (message == null ? 0 : message.position() - 4) + body.remaining();
+            if(size > maxMessageSize) throw new CorruptedFrameException("message size " + size + " exceeds " + maxMessageSize);
+
+            if(message == null)
+            {
+                message = ByteBuffer.allocate(4 + Math.max(body.remaining() * 2, 256));
+                message.putInt(id);
+            }
+            else if(message.remaining() < body.remaining())
+            {
+                ByteBuffer larger = ByteBuffer.allocate((int) Math.min(4L + maxMessageSize, Math.max(message.capacity() * 2L, 4L + size)));
+                larger.put(message.flip());
+                message = larger;
+            }
+            return message.put(body);
+        }
+    }
+}
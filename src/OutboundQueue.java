@@ -0,0 +1,559 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** 1つの接続の送信データを送信順に書き込むためのキュー
+ *  複数スレッドからのofferはロックを使わないMPSCキューに積まれ、書き込みは常に1つのスレッド(writer)だけが行う。
+ *  writerは起床ごとに溜まっている送信データをまとめて取り出し、1回のギャザー書き込みで送信する
+ *  未送信のバイト数が上限(high water mark)を超えると書き込み不可、下限(low water mark)を下回ると書き込み可能として通知する */
+final class OutboundQueue
+{
+    /** 1回のギャザー書き込みでまとめる最大のバッファ数 */
+    private static final int MAX_BATCH_COUNT = 64;
+    /** 1回のギャザー書き込みでまとめる最大のバイト数 */
+    private static final long MAX_BATCH_BYTES = 1024 * 1024;
+
+    /** 書き込みの失敗や書き込み可否の変化の通知先 */
+    interface Callback
+    {
+        /** 書き込みに失敗した場合に呼ばれる(writerのスレッドから呼ばれる) */
+        void onWriteFailed(Exception e);
+        /** 未送信のバイト数によって書き込み可否が変化した場合に呼ばれる */
+        void onWritabilityChanged(boolean writable);
+        /** 送信完了の通知先が無い送信データを、切断などで送信せずに破棄した場合に呼ばれる(破棄処理ごとにまとめて1回) */
+        void onDiscarded(int count, long bytes);
+    }
+
+    /** キューの要素(次の要素へのリンクを持つ) */
+    private static final class Entry
+    {
+        private ByteBuffer data;
+        /** dataの取得元のプール(送信が終わった時点で返却する。プールから取得していない場合はnull) */
+        private final BufferPool pool;
+        /** プールへ返却するバッファ(dataは書き込み中にnullにするため別に保持する) */
+        private final ByteBuffer pooled;
+        /** チャネルから読み込んで送信するデータ(dataを送信する要素の場合はnull) */
+        private OutboundTransfer transfer;
+        private final long epoch;
+        private final long size;
+        /** 送信完了を通知する先(不要な場合はnull) */
+        private final CompletableFuture<Void> promise;
+        /** 送信関数が呼ばれた時刻(計測が無効の場合は0、内部の送信データの場合はClientMetrics.INTERNAL) */
+        private final long startNanos;
+        private volatile Entry next;
+
+        private Entry(ByteBuffer data, BufferPool pool, long epoch, CompletableFuture<Void> promise, long startNanos)
+        {
+            this.data = data;
+            this.pool = pool;
+            this.pooled = pool == null ? null : data;
+            this.epoch = epoch;
+            this.size = data == null ? 0 : data.remaining();
+            this.promise = promise;
+            this.startNanos = startNanos;
+        }
+
+        private Entry(OutboundTransfer transfer, long epoch, CompletableFuture<Void> promise, long startNanos)
+        {
+            this.transfer = transfer;
+            this.pool = null;
+            this.pooled = null;
+            this.epoch = epoch;
+            this.size = transfer.total();
+            this.promise = promise;
+            this.startNanos = startNanos;
+        }
+    }
+
+    /** 書き込み先の接続とその接続用のwriter */
+    private static final class Target
+    {
+        /** 書き込み先(TLS使用時はTlsChannel) */
+        private final GatheringByteChannel channel;
+        private final long epoch;
+        /** ブロッキングモード時に書き込みを行うスレッド(NIOエンジン使用時はnull) */
+        private final Executor writer;
+        /** NIOエンジン使用時のチャネルのハンドル(ブロッキングモード時はnull) */
+        private final SocketClientEventLoop.Registration registration;
+
+        private Target(GatheringByteChannel channel, long epoch, Executor writer, SocketClientEventLoop.Registration registration)
+        {
+            this.channel = channel;
+            this.epoch = epoch;
+            this.writer = writer;
+            this.registration = registration;
+        }
+
+        private void submit(Runnable task)
+        {
+            if(registration != null) registration.execute(task);
+            else writer.execute(task);
+        }
+
+        /** @return : TLS使用時に暗号化済みで書き切れなかったデータを全て書き込めたか(TLSを使用しない場合は常にtrue) */
+        private boolean flush() throws IOException
+        {
+            return !(channel instanceof TlsChannel tls) || tls.flush();
+        }
+    }
+
+    private final Callback callback;
+    /** 送信量・送信時間の記録先 */
+    private final ClientMetrics metrics;
+    /** 積まれた送信データの記録先(記録しない場合はnull) */
+    private final TrafficCapture capture;
+    private final long lowWaterMark;
+    private final long highWaterMark;
+
+    /** 積まれていてまだ送信が終わっていないバイト数 */
+    private final AtomicLong pendingBytes = new AtomicLong();
+    /** 未送信のバイト数が上限を超えていないか */
+    private final AtomicBoolean writable = new AtomicBoolean(true);
+    /** 書き込み可能になるまで待つスレッドの待機用 */
+    private final Object writableMonitor = new Object();
+
+    /** MPSCキューの末尾(offerするスレッドが更新する) */
+    private final AtomicReference<Entry> tail;
+    /** MPSCキューの先頭のダミー要素(writerだけが更新する) */
+    private Entry head;
+
+    /** writerの起動を依頼済みか */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /** writerが書き込み処理中か(キューから取り出すのは常に1スレッドだけにするため) */
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final Runnable drainTask = this::drain;
+
+    /** 最後にソケットへ書き込んだ時刻(writerだけが更新する) */
+    private volatile long lastWriteNanos = System.nanoTime();
+
+    /** 現在の書き込み先(未接続の場合はnull) */
+    private volatile Target target;
+    /** 接続ごとに増える番号(以前の接続向けに積まれたデータを破棄するために使用する) */
+    private volatile long epoch = 0;
+
+    /// --- writerだけが使用する変数 --- ///
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH_COUNT];
+    private final Entry[] batchEntries = new Entry[MAX_BATCH_COUNT];
+    /** NIOエンジン使用時に書き切れなかったバッファの範囲 */
+    private int batchOffset = 0;
+    private int batchCount = 0;
+    private long batchEpoch = -1;
+    /** 送信中のチャネルから読み込むデータ(batchと同時には使用しない) */
+    private Entry transferEntry;
+    /** 送信完了の通知先が無いまま破棄した件数・バイト数(処理を終える時にまとめて通知する) */
+    private int discardedCount = 0;
+    private long discardedBytes = 0;
+
+    /**
+     * コンストラクタ
+     * @param callback：書き込みの失敗や書き込み可否の変化の通知先
+     * @param lowWaterMark：未送信のバイト数がこれを下回ると書き込み可能に戻る
+     * @param highWaterMark：未送信のバイト数がこれを超えると書き込み不可になる
+     * @param metrics：送信量・送信時間の記録先
+     * @param capture：積まれた送信データの記録先(記録しない場合はnull)
+     */
+    OutboundQueue(Callback callback, long lowWaterMark, long highWaterMark, ClientMetrics metrics, TrafficCapture capture)
+    {
+        this.callback = callback;
+        this.metrics = metrics;
+        this.capture = capture;
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        this.head = new Entry((ByteBuffer) null, null, -1, null, ClientMetrics.INTERNAL);
+        this.tail = new AtomicReference<>(head);
+    }
+
+    /**
+     * 接続済みのチャネルを書き込み先に設定する
+     * @param channel：書き込み先のチャネル(TLS使用時はTlsChannel)
+     * @param writer：ブロッキングモード時に書き込みを行うスレッド
+     * @param registration：NIOエンジン使用時のハンドル(設定された場合はI/Oスレッドで書き込む)
+     */
+    synchronized void attach(GatheringByteChannel channel, Executor writer, SocketClientEventLoop.Registration registration)
+    {
+        long next = epoch + 1;
+        epoch = next;
+        lastWriteNanos = System.nanoTime();     // 送信の無通信時間は接続完了から数える
+        target = new Target(channel, next, writer, registration);
+        scheduleDrain();
+    }
+
+    /** 書き込み先を解除する。それまでに積まれて未送信のデータは破棄される */
+    synchronized void detach()
+    {
+        target = null;
+        epoch = epoch + 1;
+        discardIfDetached();
+    }
+
+    /**
+     * 書き込み先が指定したチャネルの場合だけ解除する(既に別の接続の書き込み先に置き換わっている場合は何もしない)
+     * @param channel：解除するチャネル
+     */
+    synchronized void detach(GatheringByteChannel channel)
+    {
+        Target current = target;
+        if(current != null && current.channel == channel) detach();
+    }
+
+    /**
+     * BufferPoolから取得したバッファの送信データを積む。送信はwriterが積まれた順に行い、送信が終わった時点・破棄された時点でプールへ返却する
+     * @param data：送信データ(送信が終わるまで内容を変更しないこと。poolを指定した場合は積んだ後は使用しないこと)
+     * @param pool：dataの取得元(プールから取得していない場合はnull)
+     * @param promise：全て書き込んだ時点で完了し、破棄・失敗した場合は例外で完了する(不要な場合はnull)
+     * @param startNanos：送信関数が呼ばれた時刻(ClientMetrics.sendStartNanos()。内部の送信データの場合はClientMetrics.INTERNAL)
+     */
+    void offer(ByteBuffer data, BufferPool pool, CompletableFuture<Void> promise, long startNanos)
+    {
+        enqueue(new Entry(data, pool, epoch, promise, startNanos));
+    }
+
+    /**
+     * チャネルから読み込んで送信するデータを積む。前後に積まれた送信データとは積まれた順に送信され、
+     * このデータを送信し終えるまで後に積まれた送信データは送信されない
+     * @param transfer：送信するデータ(送信が終わった時・破棄された時に閉じられる)
+     * @param promise：全て書き込んだ時点で完了し、破棄・失敗した場合は例外で完了する(不要な場合はnull)
+     * @param startNanos：送信関数が呼ばれた時刻(ClientMetrics.sendStartNanos())
+     */
+    void offer(OutboundTransfer transfer, CompletableFuture<Void> promise, long startNanos)
+    {
+        enqueue(new Entry(transfer, epoch, promise, startNanos));
+    }
+
+    private void enqueue(Entry entry)
+    {
+        if(capture != null && entry.data != null) capture.record(TrafficCapture.Direction.OUTBOUND, entry.data);
+        Entry previous = tail.getAndSet(entry);
+        previous.next = entry;
+
+        if(pendingBytes.addAndGet(entry.size) > highWaterMark) setWritable(false);
+        scheduleDrain();
+    }
+
+    /** @return : 未送信のバイト数が上限を超えていないか */
+    boolean isWritable(){return writable.get();}
+
+    /** @return : 積まれていてまだ送信が終わっていないバイト数 */
+    long getPendingBytes(){return pendingBytes.get();}
+
+    /** @return : 最後にソケットへ書き込んだ時刻(System.nanoTime()) */
+    long getLastWriteNanos(){return lastWriteNanos;}
+
+    /**
+     * 書き込み可能になるまで待つ
+     * @param timeoutMillis：最大待機時間(ms)
+     * @return：書き込み可能になった場合はtrue、タイムアウトした場合はfalse
+     */
+    boolean awaitWritable(long timeoutMillis) throws InterruptedException
+    {
+        if(writable.get()) return true;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized(writableMonitor)
+        {
+            while(!writable.get())
+            {
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0) return false;
+                TimeUnit.NANOSECONDS.timedWait(writableMonitor, remaining);
+            }
+        }
+        return true;
+    }
+
+    private void setWritable(boolean value)
+    {
+        if(!writable.compareAndSet(!value, value)) return;
+
+        if(value)
+        {
+            synchronized(writableMonitor){writableMonitor.notifyAll();}
+        }
+        callback.onWritabilityChanged(value);
+
+        // 切り替え中に他のスレッドで増減した場合に状態がずれないよう確認し直す
+        long pending = pendingBytes.get();
+        if(value && pending > highWaterMark) setWritable(false);
+        else if(!value && pending < lowWaterMark) setWritable(true);
+    }
+
+    /** 要素の送信が完了・失敗した際に未送信のバイト数を減らして結果を通知する */
+    private void complete(Entry entry, Exception cause)
+    {
+        long unreleased = entry.size;
+        if(entry.transfer != null)
+        {
+            unreleased -= entry.transfer.transferred();        // 書き込み済みの分は書き込みごとに減らしている
+            entry.transfer.close();
+            entry.transfer = null;
+        }
+        if(entry.pool != null) entry.pool.release(entry.pooled);
+        if(pendingBytes.addAndGet(-unreleased) < lowWaterMark) setWritable(true);
+
+        if(cause == null) metrics.recordSent(entry.size, entry.startNanos);
+        else metrics.recordDropped(entry.startNanos);
+
+        if(entry.promise != null)
+        {
+            if(cause == null) entry.promise.complete(null);
+            else entry.promise.completeExceptionally(cause);
+        }
+        else if(cause != null)
+        {
+            discardedCount++;
+            discardedBytes += entry.size;
+        }
+    }
+
+    /** 処理中に破棄した送信完了の通知先が無い送信データをまとめて通知する(drainingを解除した後に呼ぶ) */
+    private void reportDiscarded(int count, long bytes)
+    {
+        if(count > 0) callback.onDiscarded(count, bytes);
+    }
+
+    /** NIOエンジン使用時にチャネルが書き込み可能になった際に呼ぶ(I/Oスレッド上で実行される) */
+    void onWritable()
+    {
+        drain();
+    }
+
+    private boolean hasPending()
+    {
+        return tail.get() != head || batchCount > 0 || transferEntry != null;
+    }
+
+    private void scheduleDrain()
+    {
+        if(!scheduled.compareAndSet(false, true)) return;
+
+        Target current = target;
+        if(current != null)
+        {
+            current.submit(drainTask);
+            return;
+        }
+
+        // 未接続の場合は積まれたデータを破棄する
+        scheduled.set(false);
+        if(target != null) scheduleDrain();
+        else discardIfDetached();
+    }
+
+    /** 書き込み先が無い場合に、writerの代わりに積まれているデータを全て破棄する */
+    private void discardIfDetached()
+    {
+        if(!draining.compareAndSet(false, true)) return;    // writerが処理中の場合はwriterが破棄する
+        int count;
+        long bytes;
+        try
+        {
+            if(target == null) discardQueued();
+        }
+        finally
+        {
+            count = discardedCount;
+            bytes = discardedBytes;
+            discardedCount = 0;
+            discardedBytes = 0;
+            draining.set(false);
+        }
+        reportDiscarded(count, bytes);
+    }
+
+    /** batchとキューに残っているデータを全て破棄する(draining中のスレッドから呼ぶ) */
+    private void discardQueued()
+    {
+        ClosedChannelException cause = new ClosedChannelException();
+        clearBatch(cause);
+
+        Entry next;
+        while((next = head.next) != null)
+        {
+            next.data = null;
+            head = next;
+            complete(next, cause);      // チャネルから読み込むデータはここで閉じられる
+        }
+    }
+
+    /** キューに溜まっている送信データをまとめて書き込む(writerのスレッド上で実行される) */
+    private void drain()
+    {
+        scheduled.set(false);
+        if(!draining.compareAndSet(false, true)) return;    // 古い接続のwriterがまだ処理中
+
+        Target current = target;
+        boolean waitingWritable = false;
+        int count;
+        long bytes;
+        try
+        {
+            while(current != null && current == target)
+            {
+                if((batchCount > 0 || transferEntry != null) && batchEpoch != current.epoch) clearBatch(new ClosedChannelException());    // 以前の接続で書き切れなかったデータ
+                if(batchCount == 0 && transferEntry == null && !fillBatch(current.epoch) && transferEntry == null)
+                {
+                    if(current.flush()) break;
+                }
+                else if(batchCount > 0)
+                {
+                    if(current.channel.write(batch, batchOffset, batchCount) > 0) lastWriteNanos = System.nanoTime();
+                    skipWritten();
+                    if(batchCount == 0) continue;       // 暗号化済みで書き切れなかったデータは次の周回で書き込む
+                }
+                else if(writeTransfer(current))
+                {
+                    continue;                           // 送信し終えたので次の送信データへ
+                }
+
+                if(current.registration != null)
+                {
+                    // ソケットの送信バッファが一杯なので書き込み可能になるまで待つ
+                    current.registration.setWriteInterest(true);
+                    waitingWritable = true;
+                    break;
+                }
+            }
+            if(!waitingWritable && current != null && current.registration != null) current.registration.setWriteInterest(false);
+            if(current == null || current != target) clearBatch(new ClosedChannelException());
+            if(target == null) discardQueued();
+        }
+        catch(IOException e)
+        {
+            clearBatch(e);
+            if(current == target) callback.onWriteFailed(e);
+        }
+        finally
+        {
+            count = discardedCount;
+            bytes = discardedBytes;
+            discardedCount = 0;
+            discardedBytes = 0;
+            draining.set(false);
+        }
+        reportDiscarded(count, bytes);
+
+        // 処理中に積まれたデータや、処理中に切断された場合のデータの取りこぼしを防ぐ
+        if(target == null) discardIfDetached();
+        else if(!waitingWritable && hasPending()) scheduleDrain();
+    }
+
+    /**
+     * チャネルから読み込むデータを書き込めるだけ書き込む
+     * @return：全て書き込んだ場合(または書き込み先が切り替わった場合)はtrue、送信バッファが一杯で書き込めない場合はfalse
+     */
+    private boolean writeTransfer(Target current) throws IOException
+    {
+        OutboundTransfer transfer = transferEntry.transfer;
+        while(transfer.remaining() > 0)
+        {
+            if(current != target) return true;      // 切断された(残りは呼び出し元で破棄する)
+            long written;
+            try
+            {
+                written = transfer.writeTo(current.channel);
+            }
+            catch(OutboundTransfer.SourceException e)
+            {
+                // 読み込み元の異常は接続の異常ではないため、この送信だけを失敗させて次の送信データへ進む
+                Entry entry = transferEntry;
+                transferEntry = null;
+                complete(entry, e.source());
+                return true;
+            }
+            if(written == 0) return false;
+            lastWriteNanos = System.nanoTime();
+            if(pendingBytes.addAndGet(-written) < lowWaterMark) setWritable(true);
+        }
+        if(!current.flush()) return false;          // 暗号化済みで書き切れなかったデータ
+
+        Entry entry = transferEntry;
+        transferEntry = null;
+        complete(entry, null);
+        return true;
+    }
+
+    /** キューから送信データを取り出してbatchへ詰める(以前の接続向けのデータは破棄する)
+     *  先頭がチャネルから読み込むデータの場合はbatchには詰めずにtransferEntryへ取り出す */
+    private boolean fillBatch(long currentEpoch)
+    {
+        long bytes = 0;
+        batchOffset = 0;
+        batchCount = 0;
+        batchEpoch = currentEpoch;
+
+        while(batchCount < MAX_BATCH_COUNT && bytes < MAX_BATCH_BYTES)
+        {
+            Entry next = head.next;
+            if(next == null) break;
+            if(next.transfer != null && next.epoch == currentEpoch)
+            {
+                if(batchCount > 0) break;           // 先に積まれた送信データを書き込んでから送信する
+                head = next;
+                transferEntry = next;
+                break;
+            }
+
+            ByteBuffer data = next.data;
+            next.data = null;
+            head = next;
+
+            if(next.epoch != currentEpoch)
+            {
+                complete(next, new ClosedChannelException());   // 以前の接続向けのデータは送らない
+                continue;
+            }
+            if(!data.hasRemaining())
+            {
+                complete(next, null);
+                continue;
+            }
+            batchEntries[batchCount] = next;
+            batch[batchCount++] = data;
+            bytes += data.remaining();
+        }
+        return batchCount > 0;
+    }
+
+    /** 書き込みが終わったバッファをbatchから外す */
+    private void skipWritten()
+    {
+        int end = batchOffset + batchCount;
+        while(batchOffset < end && !batch[batchOffset].hasRemaining())
+        {
+            Entry entry = batchEntries[batchOffset];
+            batch[batchOffset] = null;
+            batchEntries[batchOffset++] = null;
+            batchCount--;
+            complete(entry, null);
+        }
+        if(batchCount == 0) batchOffset = 0;
+    }
+
+    /** batchに残っているデータを破棄する
+     * @param cause：送信完了の通知先へ渡す例外 */
+    private void clearBatch(Exception cause)
+    {
+        for(int i = batchOffset; i < batchOffset + batchCount; i++) complete(batchEntries[i], cause);
+        if(transferEntry != null)
+        {
+            complete(transferEntry, cause);
+            transferEntry = null;
+        }
+        for(int i = 0; i < batch.length; i++)
+        {
+            batch[i] = null;
+            batchEntries[i] = null;
+        }
+        batchOffset = 0;
+        batchCount = 0;
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** 未接続の間の送信データを退避しておくための、メモリマップしたファイル上の送信データの置き場
+ *  ClientConfig.ConfigBuilder.setOutboundSpool()で設定すると、未接続の間のsendMessageはエラーにならずにここへ追記され、
+ *  接続完了後にまとめて大きな単位で送信される(送信の途中で切断された分は次の接続で送り直すため、重複して届くことがある)
+ *  ファイルは固定サイズの循環領域として使い、一杯になった場合はEvictionの設定に従って古いデータを捨てるか新しいデータを拒否する
+ *  読み書きの位置もファイルに保存するため、同じファイルを開き直すとプロセスの再起動前の未送信データから送信を再開できる
+ *  (OSのページキャッシュへの書き込みまでなので、電源断にも備える場合はforce()を呼ぶこと)
+ *  1つのインスタンスは1つのSocketClientでのみ使用すること */
+public final class OutboundSpool implements AutoCloseable
+{
+    /** 一杯になった場合の動作 */
+    public enum Eviction
+    {
+        /** 古い送信データから順に捨てて新しい送信データを追記する */
+        DROP_OLDEST,
+        /** 新しい送信データを拒否する(送信の失敗として通知される) */
+        REJECT_NEW
+    }
+
+    private static final int MAGIC = 0x53504F4C;        // "SPOL"
+    /** ヘッダー(MAGIC, データ領域のサイズ, 読み込み位置, 書き込み位置) */
+    private static final int HEADER_SIZE = 32;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int HEAD_OFFSET = 8;
+    private static final int TAIL_OFFSET = 16;
+    /** データ領域の終端までに送信データが収まらず、先頭へ戻ることを示すデータ長 */
+    private static final int WRAP_MARKER = -1;
+
+    private final Path file;
+    private final Eviction eviction;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    /** データ領域のサイズ(4の倍数) */
+    private final int dataCapacity;
+
+    /** 最も古い送信データの位置(データ領域を繰り返し使う通算の位置) */
+    private long head;
+    /** 次に追記する位置(通算の位置) */
+    private long tail;
+    /** 一杯になったことで捨てた送信データの数 */
+    private long evictedCount;
+    private boolean closed = false;
+
+    /**
+     * ファイルを開いてメモリマップする(既存のファイルが同じサイズで作られたものであれば未送信データを引き継ぐ)
+     * @param file：送信データを退避するファイル
+     * @param capacity：ファイルのサイズ(Byte)。1つの送信データはこのサイズからヘッダー分を引いたものより小さいこと
+     * @param eviction：一杯になった場合の動作
+     */
+    public OutboundSpool(Path file, int capacity, Eviction eviction) throws IOException
+    {
+        if(capacity < HEADER_SIZE + 64) throw new IllegalArgumentException("capacity too small : " + capacity);
+        if(eviction == null) throw new IllegalArgumentException("eviction must not be null");
+
+        this.file = file;
+        this.eviction = eviction;
+        this.dataCapacity = (capacity - HEADER_SIZE) & ~3;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            boolean reuse = channel.size() == capacity;
+            this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            if(reuse && map.getInt(0) == MAGIC && map.getInt(CAPACITY_OFFSET) == dataCapacity
+                    && map.getLong(HEAD_OFFSET) <= map.getLong(TAIL_OFFSET) && map.getLong(TAIL_OFFSET) - map.getLong(HEAD_OFFSET) <= dataCapacity)
+            {
+                head = map.getLong(HEAD_OFFSET);
+                tail = map.getLong(TAIL_OFFSET);
+            }
+            else
+            {
+                map.putInt(0, MAGIC);
+                map.putInt(CAPACITY_OFFSET, dataCapacity);
+                writePositions();
+            }
+        }
+        catch(IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** @return : 退避先のファイル */
+    public Path getFile(){return file;}
+
+    /** @return : 退避中の送信データのバイト数(データ長などの管理領域を含む) */
+    public synchronized long getSpooledBytes(){return tail - head;}
+
+    /** @return : 退避中の送信データが無いか */
+    public synchronized boolean isEmpty(){return head == tail;}
+
+    /** @return : 一杯になったことで捨てた送信データの数 */
+    public synchronized long getEvictedCount(){return evictedCount;}
+
+    /**
+     * 送信データを追記する
+     * @param data：送信データ(position～limit)。positionは変更しない
+     * @return：追記した送信データの次の位置(commit()にこの位置以降が渡された時点で送信済み)。
+     *          一杯でREJECT_NEWの場合・データ領域より大きい場合は-1
+     */
+    synchronized long append(ByteBuffer data)
+    {
+        if(closed) throw new IllegalStateException("OutboundSpool is closed");
+
+        int length = data.remaining();
+        long recordSize = align(4L + length);
+        if(recordSize > dataCapacity) return -1;
+
+        while(true)
+        {
+            if(head == tail)
+            {
+                // 空の場合はデータ領域の先頭から書き込む(終端での折り返しを減らす)
+                head = tail = ceilToCapacity(tail);
+            }
+            long toEnd = dataCapacity - offset(tail);
+            long needed = recordSize <= toEnd ? recordSize : toEnd + recordSize;
+            if(dataCapacity - (tail - head) >= needed) break;
+            if(eviction == Eviction.REJECT_NEW) return -1;
+            evictOldest();
+        }
+
+        long toEnd = dataCapacity - offset(tail);
+        if(recordSize > toEnd)
+        {
+            map.putInt(HEADER_SIZE + offset(tail), WRAP_MARKER);
+            tail += toEnd;
+        }
+        int index = HEADER_SIZE + offset(tail);
+        map.putInt(index, length);
+        map.put(index + 4, data, data.position(), length);
+        tail += recordSize;
+        writePositions();
+        return tail;
+    }
+
+    /** @return : 最も古い送信データの位置(これより前の位置で終わる送信データは送信済みか、一杯になって捨てられた) */
+    synchronized long headPosition(){return head;}
+
+    /** @return : 最も古い送信データのバイト数(空の場合は0) */
+    synchronized int peekSize()
+    {
+        if(head == tail) return 0;
+        long position = skipMarker(head);
+        return map.getInt(HEADER_SIZE + offset(position));
+    }
+
+    /**
+     * 古い送信データから順に、outに収まるだけコピーする(退避中のデータからは取り除かない)
+     * @param out：コピー先(positionから書き込む)
+     * @return：コピーした最後の送信データの次の位置(送信し終えたらcommit()へ渡す)
+     */
+    synchronized long read(ByteBuffer out)
+    {
+        long position = head;
+        while(position != tail)
+        {
+            position = skipMarker(position);
+            int index = HEADER_SIZE + offset(position);
+            int length = map.getInt(index);
+            if(length > out.remaining()) break;
+            out.put(out.position(), map, index + 4, length);
+            out.position(out.position() + length);
+            position += align(4L + length);
+        }
+        return position;
+    }
+
+    /**
+     * read()でコピーした送信データを送信し終えたものとして取り除く
+     * @param position：read()の戻り値(その間に古いデータとして捨てられていた場合は何もしない)
+     */
+    synchronized void commit(long position)
+    {
+        if(position <= head || position > tail) return;
+        head = position;
+        writePositions();
+    }
+
+    /** メモリマップした内容をファイルへ書き出す(電源断に備える場合に呼ぶ) */
+    public synchronized void force()
+    {
+        if(!closed) map.force();
+    }
+
+    /** ファイルを閉じる(未送信データはファイルに残り、同じファイルを開き直すと引き継がれる) */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if(closed) return;
+        closed = true;
+        map.force();
+        channel.close();
+    }
+
+    /** 最も古い送信データを捨てる */
+    private void evictOldest()
+    {
+        head = skipMarker(head);
+        head += align(4L + map.getInt(HEADER_SIZE + offset(head)));
+        evictedCount++;
+    }
+
+    /** 折り返しの印がある場合はデータ領域の先頭の位置を返す */
+    private long skipMarker(long position)
+    {
+        if(map.getInt(HEADER_SIZE + offset(position)) == WRAP_MARKER) return position + (dataCapacity - offset(position));
+        return position;
+    }
+
+    private void writePositions()
+    {
+        map.putLong(HEAD_OFFSET, head);
+        map.putLong(TAIL_OFFSET, tail);
+    }
+
+    /** 通算の位置をデータ領域内の位置にする */
+    private int offset(long position){return (int) (position % dataCapacity);}
+
+    private long ceilToCapacity(long position)
+    {
+        long offset = position % dataCapacity;
+        return offset == 0 ? position : position + (dataCapacity - offset);
+    }
+
+    private static long align(long size){return (size + 3) & ~3L;}
+}
@@ -0,0 +1,164 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/** 送信キューに積む、チャネルから読み込んで送信するデータ(ファイルなどの大きなデータ用)
+ *  ファイルの場合、平文のTCPではFileChannel.transferTo(sendfile)でヒープを経由せずに送信し、
+ *  TLS使用時は暗号化が必要なため一定サイズごとにメモリマップした範囲を暗号化して送信する
+ *  それ以外のチャネルは一定サイズごとにダイレクトバッファへ読み込んで送信する
+ *  書き込みは送信キューのwriterの1スレッドからのみ行う */
+final class OutboundTransfer
+{
+    /** transferTo・読み込み1回あたりの最大バイト数 */
+    private static final long MAX_CHUNK = 8L * 1024 * 1024;
+    /** TLS使用時にメモリマップする範囲の最大バイト数 */
+    private static final long MAP_WINDOW = 4L * 1024 * 1024;
+    /** ファイル以外のチャネルから読み込むバッファのサイズ */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel source;
+    /** 送信を始めるファイル上の位置(ファイル以外のチャネルの場合は使用しない) */
+    private final long position;
+    private final long total;
+    /** 送信が終わった時にsourceを閉じるか */
+    private final boolean closeSource;
+    private final TransferProgressListener progress;
+
+    /** 書き込み済みのバイト数 */
+    private long transferred = 0;
+    /** 読み込み済み・メモリマップ済みで書き込みが終わっていない範囲 */
+    private ByteBuffer staged;
+    /** ファイル以外のチャネルから読み込むバッファ(最初の読み込み時に確保する) */
+    private ByteBuffer readBuffer;
+
+    /**
+     * コンストラクタ
+     * @param source：読み込み元(ブロッキングモードであること)
+     * @param position：FileChannelの場合に送信を始める位置
+     * @param total：送信するバイト数
+     * @param closeSource：送信が終わった時・破棄された時にsourceを閉じるか
+     * @param progress：送信済みバイト数の通知先(不要な場合はnull)
+     */
+    OutboundTransfer(ReadableByteChannel source, long position, long total, boolean closeSource, TransferProgressListener progress)
+    {
+        if(total < 0) throw new IllegalArgumentException("count must not be negative : " + total);
+        this.source = source;
+        this.position = position;
+        this.total = total;
+        this.closeSource = closeSource;
+        this.progress = progress;
+    }
+
+    /** @return : 送信する全体のバイト数 */
+    long total(){return total;}
+
+    /** @return : 書き込み済みのバイト数 */
+    long transferred(){return transferred;}
+
+    /** @return : まだ書き込んでいないバイト数 */
+    long remaining(){return total - transferred;}
+
+    /** 読み込み元の異常(接続の異常ではないため、この送信だけを失敗させる) */
+    static final class SourceException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private SourceException(IOException cause)
+        {
+            super(cause.getMessage(), cause);
+        }
+
+        /** @return : 読み込み元で発生した例外 */
+        IOException source(){return (IOException) getCause();}
+    }
+
+    /**
+     * 続きを1回分書き込む
+     * @param out：書き込み先(TLS使用時はTlsChannel)
+     * @return：書き込んだバイト数。ノンブロッキングモードで送信バッファが一杯の場合は0
+     * @throws SourceException：読み込み元がtotalより先に終わった場合・読み込みに失敗した場合・データを返さなかった場合
+     */
+    long writeTo(GatheringByteChannel out) throws IOException
+    {
+        long written;
+        if(staged == null || !staged.hasRemaining())
+        {
+            long chunk = Math.min(remaining(), MAX_CHUNK);
+            if(source instanceof FileChannel file && !(out instanceof TlsChannel))
+            {
+                written = file.transferTo(position + transferred, chunk, out);
+                if(written == 0 && fileSize(file) <= position + transferred)
+                    throw new SourceException(new EOFException("file ended before " + total + " bytes were sent"));
+                return advance(written);
+            }
+            try
+            {
+                staged = stage(chunk);
+            }
+            catch(IOException e)
+            {
+                throw new SourceException(e);
+            }
+        }
+        written = out.write(staged);
+        return advance(written);
+    }
+
+    /** 送信が終わった・破棄された時に呼ぶ */
+    void close()
+    {
+        staged = null;
+        readBuffer = null;
+        if(closeSource) try { source.close(); } catch (IOException ignored) {}
+    }
+
+    /** 次に書き込む範囲を用意する(ファイルはメモリマップし、それ以外は読み込む) */
+    private ByteBuffer stage(long chunk) throws IOException
+    {
+        if(source instanceof FileChannel file)
+        {
+            long offset = position + transferred;
+            if(offset >= file.size()) throw new EOFException("file ended before " + total + " bytes were sent");
+            return file.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(Math.min(chunk, MAP_WINDOW), file.size() - offset));
+        }
+
+        if(readBuffer == null) readBuffer = ByteBuffer.allocateDirect((int) Math.min(READ_BUFFER_SIZE, Math.max(1, total)));
+        readBuffer.clear();
+        if(readBuffer.remaining() > chunk) readBuffer.limit((int) chunk);
+        int read = source.read(readBuffer);
+        if(read < 0) throw new EOFException("source ended before " + total + " bytes were sent");
+        // ブロッキングモードの読み込みは1バイト以上読むまで待つため、0はノンブロッキングのチャネルなど(待たずに繰り返すと空回りする)
+        if(read == 0) throw new IOException("source returned no data : 読み込み元はブロッキングモードであること");
+        return readBuffer.flip();
+    }
+
+    private static long fileSize(FileChannel file) throws SourceException
+    {
+        try
+        {
+            return file.size();
+        }
+        catch(IOException e)
+        {
+            throw new SourceException(e);
+        }
+    }
+
+    private long advance(long written)
+    {
+        if(written > 0)
+        {
+            transferred += written;
+            if(progress != null)
+            {
+                try { progress.onProgress(transferred, total); } catch (RuntimeException ignored) {}     // 通知先の例外で送信を止めない
+            }
+        }
+        return written;
+    }
+}
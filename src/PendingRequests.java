@@ -0,0 +1,123 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/** 送信済みでレスポンスを待っているリクエストを管理するクラス(1つの接続で複数のリクエストを同時に送信できる)
+ *  CorrelationIdExtractorが設定されている場合はIDでレスポンスを対応付け、
+ *  設定されていない場合はサーバーがリクエストの順番通りに応答するものとして送信順に対応付ける */
+final class PendingRequests
+{
+    private final CorrelationIdExtractor extractor;
+
+    /** IDで対応付ける場合のレスポンス待ちのリクエスト */
+    private final Map<Object, CompletableFuture<byte[]>> byId = new ConcurrentHashMap<>();
+    /** 送信順に対応付ける場合のレスポンス待ちのリクエスト(タイムアウトしたものも応答を読み捨てるために残す。送信に失敗したものは外す) */
+    private final Queue<CompletableFuture<byte[]>> inOrder = new ConcurrentLinkedQueue<>();
+
+    PendingRequests(CorrelationIdExtractor extractor)
+    {
+        this.extractor = extractor;
+    }
+
+    /**
+     * リクエストを登録してから送信する
+     * @param payload：送信データ
+     * @param timeoutMillis：レスポンスを待つ最大時間(ms)
+     * @param sender：送信処理(送信の完了・失敗を返す)
+     * @return：レスポンスを受信した時点で完了するCompletableFuture
+     */
+    CompletableFuture<byte[]> send(byte[] payload, long timeoutMillis, Function<byte[], CompletableFuture<Void>> sender)
+    {
+        CompletableFuture<byte[]> response = new CompletableFuture<>();
+        CompletableFuture<Void> sent;
+
+        if(extractor != null)
+        {
+            Object id = extractor.requestId(payload);
+            if(byId.putIfAbsent(id, response) != null)
+            {
+                response.completeExceptionally(new IllegalStateException("request id already in flight : " + id));
+                return response;
+            }
+            response.whenComplete((r, e) -> byId.remove(id, response));
+            sent = sender.apply(payload);
+        }
+        else
+        {
+            // 登録順と送信順がずれないようにまとめて行う
+            synchronized(inOrder)
+            {
+                inOrder.add(response);
+                sent = sender.apply(payload);
+            }
+        }
+
+        sent.whenComplete((v, e) ->
+        {
+            if(e == null) return;
+            // 送信されなかったリクエストには応答が来ないため、次のリクエストへの応答と対応付けないように外す
+            if(extractor == null) inOrder.remove(response);
+            response.completeExceptionally(e);
+        });
+        response.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        return response;
+    }
+
+    /**
+     * 受信したデータがレスポンス待ちのリクエストへの応答であれば、そのリクエストを完了させる
+     * @param data：受信したデータ(position～limit)
+     * @return：リクエストへの応答として処理した場合はtrue(コールバック関数へは通知しない)
+     */
+    boolean complete(ByteBuffer data)
+    {
+        CompletableFuture<byte[]> response;
+
+        if(extractor != null)
+        {
+            if(byId.isEmpty()) return false;
+            Object id = extractor.responseId(data);
+            if(id == null) return false;
+            response = byId.remove(id);
+            if(response == null) return false;
+        }
+        else
+        {
+            response = inOrder.poll();
+            if(response == null) return false;
+        }
+
+        // タイムアウト済みのリクエストへの遅れた応答は読み捨てる
+        if(!response.isDone())
+        {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(data.position(), bytes);
+            response.complete(bytes);
+        }
+        return true;
+    }
+
+    /**
+     * レスポンス待ちのリクエストを全て失敗させる(切断時に使用する)
+     * @param cause：各リクエストへ渡す例外
+     */
+    void failAll(Exception cause)
+    {
+        for(CompletableFuture<byte[]> response : byId.values()) response.completeExceptionally(cause);
+
+        CompletableFuture<byte[]> response;
+        while((response = inOrder.poll()) != null) response.completeExceptionally(cause);
+    }
+
+    /** @return : レスポンス待ちのリクエストが無いか */
+    boolean isEmpty()
+    {
+        return extractor != null ? byId.isEmpty() : inOrder.isEmpty();
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/** 再接続の試行ごとの待ち時間を決めるためのインターフェース
+ *  ClientConfig.ConfigBuilder.setReconnectPolicy()で設定する。設定しない場合はfixed(TIMEOUT)と同じ動作になる
+ *  サーバーの再起動時などに多数のクライアントが同じ間隔で一斉に再接続しないよう、
+ *  多数のクライアントが同じサーバーへ接続する場合はジッター付きの指数バックオフを使用すること */
+public interface ReconnectPolicy
+{
+    /**
+     * 次の再接続を試行するまでの待ち時間を返す
+     * @param attempt：これから行う試行の回数目(1から始まり、接続に成功すると1に戻る)
+     * @param previousDelayMillis：前回の試行の前に待った時間(ms)。1回目は0
+     * @return：待ち時間(ms)
+     */
+    long nextDelayMillis(int attempt, long previousDelayMillis);
+
+
+    /// --- 組み込みのポリシー --- ///
+
+    /**
+     * 1回目はすぐに試行し、以降は一定の間隔で試行するポリシーを生成する
+     * @param delayMillis：試行の間隔(ms)
+     */
+    static ReconnectPolicy fixed(long delayMillis)
+    {
+        return new FixedReconnectPolicy(delayMillis);
+    }
+
+    /**
+     * 試行ごとに待ち時間を2倍にするポリシーを生成する(base, base*2, base*4 ... maxまで)
+     * @param baseMillis：1回目の待ち時間(ms)
+     * @param maxMillis：待ち時間の上限(ms)
+     */
+    static ReconnectPolicy exponential(long baseMillis, long maxMillis)
+    {
+        return new ExponentialReconnectPolicy(baseMillis, maxMillis, false);
+    }
+
+    /**
+     * 指数バックオフの待ち時間を上限として、0からその値までの乱数を待ち時間にするポリシーを生成する(Full Jitter)
+     * 一斉に切断されたクライアントの再接続を最も均等に分散できる
+     * @param baseMillis：1回目の待ち時間の上限(ms)
+     * @param maxMillis：待ち時間の上限(ms)
+     */
+    static ReconnectPolicy fullJitter(long baseMillis, long maxMillis)
+    {
+        return new ExponentialReconnectPolicy(baseMillis, maxMillis, true);
+    }
+
+    /**
+     * 前回の待ち時間の3倍までの乱数を待ち時間にするポリシーを生成する(Decorrelated Jitter)
+     * 待ち時間がbase～maxの範囲で前回の値に応じて増えていく
+     * @param baseMillis：待ち時間の下限(ms)
+     * @param maxMillis：待ち時間の上限(ms)
+     */
+    static ReconnectPolicy decorrelatedJitter(long baseMillis, long maxMillis)
+    {
+        return new DecorrelatedJitterReconnectPolicy(baseMillis, maxMillis);
+    }
+
+
+    /** 一定間隔で再接続するポリシー */
+    final class FixedReconnectPolicy implements ReconnectPolicy
+    {
+        private final long delayMillis;
+
+        private FixedReconnectPolicy(long delayMillis)
+        {
+            if(delayMillis < 0) throw new IllegalArgumentException("delayMillis must not be negative : " + delayMillis);
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public long nextDelayMillis(int attempt, long previousDelayMillis)
+        {
+            return attempt <= 1 ? 0 : delayMillis;
+        }
+    }
+
+    /** 指数バックオフで再接続するポリシー(jitterがtrueの場合はFull Jitter) */
+    final class ExponentialReconnectPolicy implements ReconnectPolicy
+    {
+        private final long baseMillis;
+        private final long maxMillis;
+        private final boolean jitter;
+
+        private ExponentialReconnectPolicy(long baseMillis, long maxMillis, boolean jitter)
+        {
+            if(baseMillis <= 0 || maxMillis < baseMillis)
+                throw new IllegalArgumentException("0 < baseMillis <= maxMillis is required : baseMillis=" + baseMillis + ", maxMillis=" + maxMillis);
+            this.baseMillis = baseMillis;
+            this.maxMillis = maxMillis;
+            this.jitter = jitter;
+        }
+
+        @Override
+        public long nextDelayMillis(int attempt, long previousDelayMillis)
+        {
+            int shift = Math.min(Math.max(attempt - 1, 0), 62);
+            long ceiling = baseMillis > (maxMillis >> shift) ? maxMillis : Math.min(maxMillis, baseMillis << shift);
+            return jitter ? ThreadLocalRandom.current().nextLong(ceiling + 1) : ceiling;
+        }
+    }
+
+    /** Decorrelated Jitterで再接続するポリシー */
+    final class DecorrelatedJitterReconnectPolicy implements ReconnectPolicy
+    {
+        private final long baseMillis;
+        private final long maxMillis;
+
+        private DecorrelatedJitterReconnectPolicy(long baseMillis, long maxMillis)
+        {
+            if(baseMillis <= 0 || maxMillis < baseMillis)
+                throw new IllegalArgumentException("0 < baseMillis <= maxMillis is required : baseMillis=" + baseMillis + ", maxMillis=" + maxMillis);
+            this.baseMillis = baseMillis;
+            this.maxMillis = maxMillis;
+        }
+
+        @Override
+        public long nextDelayMillis(int attempt, long previousDelayMillis)
+        {
+            long upper = Math.min(maxMillis, Math.max(baseMillis, previousDelayMillis) * 3);
+            return Math.min(maxMillis, ThreadLocalRandom.current().nextLong(baseMillis, upper + 1));
+        }
+    }
+}
@@ -2,27 +2,43 @@ package com.example.simple_socket_client_lib_ver201;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.UTFDataFormatException;
 import java.net.BindException;
 import java.net.ConnectException;
-import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
-import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLParameters;
 
 /** ソケット通信のクライアントの処理を提供する汎用クラス */
 @SuppressWarnings("rawtypes")
@@ -33,14 +49,43 @@ public class SocketClient
     private final ClientEventListener listener;
     /** 通信先などの情報を設定したClientConfigクラスのインスタンス */
     private final ClientConfig config;
-    /** Tcpクライアント(ソケット通信)を実装するためのクラス */
-    private Socket socket;
-    /** クライアントからサーバーへのデータ送信を行うためのクラス */
-    private OutputStream outputStream;
-    /** サーバーから受信したデータを受け取るためのクラス */
-    private InputStream inputStream;
+    /** 接続状態と接続中の接続(状態の変更はCASで行い、受信・接続監視のスレッドからも同じ値が見える) */
+    private final AtomicReference<Status> status = new AtomicReference<>(new Status(ConnectionState.CLOSED, null));
+    /** 次に接続中の状態になった時点で完了する通知(接続中の状態を離れるたびに新しいものに置き換える) */
+    private volatile CompletableFuture<Void> connectedSignal = new CompletableFuture<>();
+    /** 接続ごとの受信データの区切り方(区切らない場合はnull) */
+    private final Supplier<FrameDecoder> frameDecoder;
+    /** 接続監視で送信するデータ */
+    private final byte[] heartbeat;
+    /** 受信データを読み込むバッファの取得元 */
+    private final BufferPool bufferPool;
+    /** 送信データを送信順に1つのwriterで書き込むためのキュー */
+    private final OutboundQueue outbound;
+    /** 送受信したデータの記録先(設定されていない場合はnull) */
+    private final TrafficCapture capture;
+    /** 未接続の間の送信データの退避先(設定されていない場合はnull) */
+    private final OutboundSpool spool;
+    /** 退避した送信データを送信中か */
+    private final AtomicBoolean spoolDraining = new AtomicBoolean();
+    /** 退避した送信データを1回の書き込みでまとめて送る量 */
+    private static final int SPOOL_DRAIN_SIZE = 256 * 1024;
+    /** 退避した送信データの送信完了の通知先(退避先での位置の順。退避先への追記・取り除きと合わせてこのキューで排他する) */
+    private final ArrayDeque<SpooledPromise> spoolPromises = new ArrayDeque<>();
+    /** request()で送信してレスポンスを待っているリクエスト */
+    private final PendingRequests pendingRequests;
+    /** 送受信量・遅延などの計測値 */
+    private final ClientMetrics metrics;
+    /** サーバーへの接続方法(TCP・Unixドメインソケット) */
+    private final Transport transport;
+    /** 受信データを通知用スレッドからコールバック関数へ渡す処理(受信処理のスレッドで通知する設定の場合はnull) */
+    private final CallbackDispatcher dispatcher;
     //////////////////////////////////////////
 
+    /// ---- NIOエンジン(イベントループ)使用時の変数 ---- ///
+    /** 共有のイベントループ(nullの場合は接続ごとのスレッドで送受信を行う) */
+    private final SocketClientEventLoop eventLoop;
+    //////////////////////////////////////////////////
+
     /// --- エラー処理用 --- ///
     /** 現状考慮可能な例外クラスとそのSummaryメッセージ */
     private static final Map<Class<? extends Exception>, String> ERROR_MAP = Map.ofEntries(
@@ -50,8 +95,12 @@ public class SocketClient
             Map.entry(NoRouteToHostException.class, "サーバーへのルートが見つかりません。"),
             Map.entry(BindException.class, "指定されたポートはすでに使用されています。"),
             Map.entry(SocketException.class, "ソケットがすでに閉じているか切断されています。"),
+            Map.entry(ClosedChannelException.class, "ソケットがすでに閉じているか切断されています。"),
             Map.entry(EOFException.class, "サーバーが接続を終了しました。"),
             Map.entry(UTFDataFormatException.class, "不正な文字データを受信しました。"),
+            Map.entry(FrameDecoder.CorruptedFrameException.class, "受信データのフレーム形式が不正です。"),
+            Map.entry(SSLHandshakeException.class, "TLSのハンドシェイクに失敗しました。"),
+            Map.entry(SSLException.class, "TLSの通信でエラーが発生しました。"),
             Map.entry(IOException.class, "入出力エラーが発生しました。")
     );
     ///////////////////////////
@@ -65,35 +114,55 @@ public class SocketClient
         DISCONNECT,
         RETRY
     }
-    Phase commonPhase;              // クラスで共通のPhase
+
+    /** --- 接続状態 --- */
+    public enum ConnectionState
+    {
+        /** connect()による接続処理中 */
+        CONNECTING,
+        /** サーバーと接続中 */
+        CONNECTED,
+        /** 切断を検出して再接続中 */
+        RECONNECTING,
+        /** 未接続(connect()前・disconnect()後・接続や再接続をあきらめた後) */
+        CLOSED
+    }
     ////////////////////////////////////////////
 
-    /// ---- 各処理を非同期で行うためのスレッド ----///
+    /// ---- 各処理を非同期で行うためのスレッド(停止済みの場合は使用時に生成し直す) ----///
     /** サーバーへの接続、データの送信、データの受信を行うスレッドをまとめたもの */
-    private ExecutorService threadPool;
-
-    /** 一定周期で行うサーバーとの接続確認用 */
-    private ScheduledExecutorService connectCheckScheduler;
-    /** 再接続用 */
-    private ScheduledExecutorService retryConnectScheduler;
+    private final AtomicReference<ExecutorService> threadPool = new AtomicReference<>();
+    /** 送信データの書き込みと、接続完了を待ってからの送信を行うスレッド(接続ごとに1つ) */
+    private final AtomicReference<ExecutorService> writeThread = new AtomicReference<>();
+    /** 再接続処理を行うスレッド(再接続中だけ存在する) */
+    private final AtomicReference<ExecutorService> retryThread = new AtomicReference<>();
+
+    /** 接続確認・再接続の周期処理用のタイマー(全クライアントで共有する) */
+    private final HashedWheelTimer timer;
     //////////////////////////////////////////////
 
-    /// --- Scheduleによる定期処理の終了用 --- ///
+    /// --- タイマーによる定期処理の終了用 --- ///
     /** 接続確認用 */
-    private ScheduledFuture connectCheckFuture;
+    private volatile HashedWheelTimer.Timeout connectCheckFuture;
+    /** 受信の無通信監視用 */
+    private volatile HashedWheelTimer.Timeout readIdleFuture;
     /** 再接続用 */
-    private ScheduledFuture retryFuture;
+    private volatile HashedWheelTimer.Timeout retryFuture;
 
-    /// --- スレッドのループ回数制御用変数 --- ///
-    private int loopCount = 0;
+    /// --- スレッドのループ回数制御用変数(再接続中は再接続用スレッドだけが更新する) --- ///
+    private volatile int loopCount = 0;
+    /** 前回の再接続の試行前に待った時間(ms) */
+    private volatile long retryDelay = 0;
 
-    /// --- データ受信スレッドの開始・停止を判断するFlag --- ///
-    private boolean dataReceiveFlag = false;
-    ////////////////////////////////////////////////////
+    /// --- 接続完了を待っている送信の数(0になるまでは後続の送信も同じ順番で待たせる) --- ///
+    private final AtomicInteger waitingSendCount = new AtomicInteger();
 
-    /// --- サーバーとの接続処理が完了するまで待機させるためのもの --- ///
-    private final CountDownLatch latch;
-    /////////////////////////////////////////////
+    /// --- 無通信時間の監視用 --- ///
+    /** 最後にデータを受信した時刻(受信処理を行うスレッドだけが更新する) */
+    private volatile long lastReadNanos = System.nanoTime();
+    /** 接続監視の世代(開始・停止のたびに増やし、以前の接続向けの監視を止める) */
+    private final AtomicInteger idleCheckGeneration = new AtomicInteger();
+    ////////////////////////////////////////////////////
 
 
     /**
@@ -102,40 +171,106 @@ public class SocketClient
      * @param config:ClientConfigクラス
      */
     public SocketClient(ClientEventListener listener, ClientConfig config)
+    {
+        this(listener, config, config.getFRAME_DECODER(), null);
+    }
+
+    /**
+     * 受信データの区切り方と接続監視で送るデータを、ClientConfigの設定とは別に指定するコンストラクタ(MultiplexedClientで使用する)
+     * @param frameDecoder:接続ごとの受信データの区切り方(区切らない場合はnull)
+     * @param heartbeat:接続監視で送信するデータ(nullの場合はClientConfigのCONNECT_CHECK_CHAR)
+     */
+    SocketClient(ClientEventListener listener, ClientConfig config, Supplier<FrameDecoder> frameDecoder, byte[] heartbeat)
     {
         this.listener = listener;
         this.config = config;
-        latch = new CountDownLatch(1);
-        InitThread();
+        this.frameDecoder = frameDecoder;
+        if(heartbeat != null) this.heartbeat = heartbeat.clone();
+        else if(config.getCONNECT_CHECK_CHAR().equals(" ")) this.heartbeat = new byte[]{0};
+        else this.heartbeat = config.getCONNECT_CHECK_CHAR().getBytes(StandardCharsets.UTF_8);
+        this.eventLoop = config.getEVENT_LOOP();
+        this.bufferPool = config.getBUFFER_POOL();
+        this.timer = config.getTIMER();
+        this.transport = config.getUNIX_DOMAIN_SOCKET() != null
+                ? new UnixDomainTransport(config, config.getUNIX_DOMAIN_SOCKET())
+                : new TcpTransport(config);
+        this.metrics = new ClientMetrics(config.isMETRICS_ENABLED());
+        this.capture = config.getTRAFFIC_CAPTURE();
+        this.outbound = new OutboundQueue(new OutboundHandler(),
+                config.getWRITE_BUFFER_LOW_WATER_MARK(), config.getWRITE_BUFFER_HIGH_WATER_MARK(), metrics, capture);
+        this.metrics.setQueuedBytesSource(outbound::getPendingBytes);
+        this.pendingRequests = new PendingRequests(config.getCORRELATION_ID_EXTRACTOR());
+        this.spool = config.getOUTBOUND_SPOOL();
+        this.dispatcher = config.isCALLBACK_DISPATCH()
+                ? new CallbackDispatcher(config.getDISPATCH_RING_SIZE(), config.getDISPATCH_WAIT_STRATEGY(), new DispatchHandler(), metrics, config.getTHREAD_FACTORY())
+                : null;
+    }
+
+    /** 接続・受信処理を行うスレッドプールを返す(スレッドの生成方法はClientConfigのTHREAD_FACTORY(仮想スレッドなど)に従う) */
+    private ExecutorService taskPool()
+    {
+        return liveExecutor(threadPool, () -> ClientThreads.newTaskPool(config.getTHREAD_FACTORY(), config.isVIRTUAL_THREADS()));
     }
 
-    /** スレッドの初期化・再生成を行う関数 */
-    private void InitThread()
+    /** 送信用スレッドを返す(送信が無い間はスレッドを終了させる) */
+    private ExecutorService writeExecutor()
     {
-        /* スレッドの最小数は0，最大数は3,処理終了後のスレッドの寿命は60秒,処理を入れるためのQueue */
-        if(threadPool == null || threadPool.isShutdown()) threadPool = new ThreadPoolExecutor(0,3,60L, TimeUnit.SECONDS,new SynchronousQueue<>());
+        return liveExecutor(writeThread, () -> ClientThreads.newSerialThread(config.getTHREAD_FACTORY()));
+    }
 
-        if(connectCheckScheduler == null || connectCheckScheduler.isShutdown()) connectCheckScheduler = Executors.newSingleThreadScheduledExecutor();
+    /** 再接続用スレッドを返す */
+    private ExecutorService retryExecutor()
+    {
+        return liveExecutor(retryThread, () -> ClientThreads.newSerialThread(config.getTHREAD_FACTORY()));
     }
 
-    /** 外部から呼び出す用のサーバーとの接続関数 */
+    /** 停止されていないExecutorServiceを返す。停止済みの場合は生成し直し、複数のスレッドから同時に呼ばれても1つだけを使う */
+    private static ExecutorService liveExecutor(AtomicReference<ExecutorService> holder, Supplier<ExecutorService> factory)
+    {
+        while(true)
+        {
+            ExecutorService current = holder.get();
+            if(current != null && !current.isShutdown()) return current;
+
+            ExecutorService created = factory.get();
+            if(holder.compareAndSet(current, created)) return created;
+            created.shutdown();         // 他のスレッドが先に生成した
+        }
+    }
+
+    /** ExecutorServiceを停止する(処理中のものは最後まで実行される) */
+    private static void shutdownExecutor(AtomicReference<ExecutorService> holder)
+    {
+        ExecutorService current = holder.get();
+        if(current != null) current.shutdown();
+    }
+
+    /** 外部から呼び出す用のサーバーとの接続関数
+     *  未接続(CLOSED)の場合だけ接続処理を開始し、接続処理中・接続中・再接続中の場合は何もしない */
     public void connect()
     {
         // 現在のStatusを設定
         Phase phase = Phase.CONNECT;
 
-        InitThread();
+        Status closed = status.get();
+        if(closed.state != ConnectionState.CLOSED) return;
+        Status connecting = new Status(ConnectionState.CONNECTING, null);
+        if(!status.compareAndSet(closed, connecting)) return;      // 他のスレッドが先に接続を開始した
+
+        metrics.register(config.getHOST(), config.getPORT());    // JMXへ計測値を公開する
+        if(dispatcher != null) dispatcher.start();
 
         // 再接続試行回数をリセット
         loopCount = 0;
 
         // サーバーとの接続関数を非同期スレッドで開始
-        threadPool.execute(()->
+        taskPool().execute(()->
         {
             try
             {
-                connection();                       // 接続関数の呼び出し
-                NotifyConnected();                  // 接続が正常完了したことをコールバック関数へ通知
+                Connection connection = connection();       // 接続関数の呼び出し
+                if(publish(connecting, connection))
+                    NotifyConnected(connection);            // 接続が正常完了したことをコールバック関数へ通知
             }
             catch(Exception e)
             {
@@ -143,50 +278,231 @@ public class SocketClient
 
                 if(config.getRETRY_COUNT() <= 0)
                 {
-                    NotifyError(e,phase);
+                    if(status.compareAndSet(connecting, new Status(ConnectionState.CLOSED, null)))
+                    {
+                        replaceConnectedSignal();           // 接続を待っている送信を終わらせる
+                        NotifyError(e,phase);
+                    }
                 }
-                else
+                else if(status.compareAndSet(connecting, new Status(ConnectionState.RECONNECTING, null)))
                 {
-                    DisConnect();                       // サーバーとの接続を全て切断
-
-                    // サーバーとの再接続処理を非同期スレッドで実行
+                    // サーバーとの再接続処理を非同期スレッドで実行(接続処理中にdisconnect()された場合は行わない)
                     startReConnect();
                 }
             }
         });
     }
 
-    /** サーバーとの接続確立関数 */
-    private synchronized void connection() throws Exception
+    /** サーバーとの接続確立関数(接続処理中・再接続中の1つのスレッドからだけ呼ばれる)
+     * @return:接続済みの新しい接続(まだ接続中の状態としては公開していない) */
+    private Connection connection() throws Exception
     {
-        // 各処理用のスレッドクラスを初期化
-        InitThread();
+        // 同時接続数の制限が設定されている場合は他のクライアントの接続処理が終わるまで待つ
+        ConnectLimiter limiter = config.getCONNECT_LIMITER();
+        if(limiter != null && !limiter.acquire(config.getTIMEOUT()))
+            throw new ConnectException("Connect limiter timeout : 同時接続数の上限により接続を開始できませんでした。");
+
+        long startNanos = System.nanoTime();
+        SocketChannel newChannel = null;
+        TlsChannel newTls = null;
+        try
+        {
+            newChannel = transport.connect();                           // 設定された接続先のサーバーへ接続要求
+            if(config.getSSL_CONTEXT() != null) newTls = startTls(newChannel);  // TLSのハンドシェイクはブロッキングモードで行う
+            newChannel.configureBlocking(eventLoop == null);            // NIOエンジン使用時は接続後にノンブロッキングにする
+        }
+        catch(Exception e)
+        {
+            if(newChannel != null) try { newChannel.close(); } catch (IOException ignored) {}
+            throw e;
+        }
+        finally
+        {
+            if(limiter != null) limiter.release();
+        }
 
-        socket = new Socket();
-        socket.connect(new InetSocketAddress(config.getHOST(),
-                config.getPORT()),config.getTIMEOUT());             // 設定されたIPとPORTのサーバーへ接続要求
-        socket.setSoTimeout(config.getTIMEOUT());
-        inputStream = socket.getInputStream();                      // 接続が出来たらそのサーバーとのInputStreamを取得
-        outputStream = socket.getOutputStream();                    // サーバーへのOutputStreamの取得
+        Connection connection = new Connection(newChannel, newTls);
+        lastReadNanos = System.nanoTime();      // 受信の無通信時間は接続完了から数える
+
+        if(eventLoop != null)
+        {
+            connection.handler = new NioHandler(connection);
+            connection.registration = eventLoop.register(newChannel, connection.handler);     // 送受信はI/Oスレッドで行う
+        }
+        metrics.recordConnected(startNanos);
+        return connection;
     }
 
-    /** 再接続スレッドを開始する関数 */
-    private synchronized void startReConnect()
+    /** 接続処理を始めた時の状態(expected)から変わっていなければ、新しい接続を接続中の状態として公開する関数
+     *  変わっていた場合(接続処理中にdisconnect()された場合)は新しい接続を閉じる
+     * @return:接続中の状態にした場合はtrue */
+    private boolean publish(Status expected, Connection connection)
     {
-        // 再接続用スレッドを初期化or再生成
-        if(retryConnectScheduler == null || retryConnectScheduler.isShutdown()) retryConnectScheduler = Executors.newSingleThreadScheduledExecutor();
+        // 接続中の状態にした直後の送信が新しい接続へ書き込まれるよう、送信データの書き込み先を先に新しい接続にする
+        outbound.attach(connection.sink, writeExecutor(), connection.registration);
+        CompletableFuture<Void> signal = connectedSignal;
+        if(status.compareAndSet(expected, new Status(ConnectionState.CONNECTED, connection)))
+        {
+            signal.complete(null);      // 接続を待っている送信・awaitConnected()を再開させる
+            return true;
+        }
+
+        outbound.detach(connection.sink);
+        connection.close();
+        return false;
+    }
 
-        // スレッドを開始
-        if(retryFuture == null || retryFuture.isCancelled())
-            retryFuture = retryConnectScheduler.scheduleWithFixedDelay(
-                    this::RetryConnection,0,config.getTIMEOUT(), TimeUnit.MILLISECONDS);
+    /** 接続中の接続で切断・異常を検出した際に、接続を閉じて再接続を開始する関数
+     *  複数のスレッドで同時に検出しても再接続は1回だけ行い、disconnect()済みの場合や
+     *  既に別の接続に置き換わっている場合は接続を閉じるだけにする */
+    private void connectionLost(Connection connection)
+    {
+        if(markLost(connection)) handleLost(connection);
+        else connection.close();
     }
 
-    /** 設定された回数分サーバーへの接続処理をリトライする関数 */
+    /** 接続監視のタイマーで切断・異常を検出した際の関数
+     *  タイマーのスレッドでは接続状態の変更だけを行い、接続を閉じる処理・再接続の開始とコールバック関数の呼び出しは
+     *  接続・受信用のスレッドプールで行う(タイマーは全クライアントで共有するため、ユーザーの処理などで止めないようにする)
+     * @param connection:切断・異常を検出した接続
+     * @param notification:接続を閉じる前に呼ぶコールバック関数(無い場合はnull) */
+    private void connectionLostFromTimer(Connection connection, Runnable notification)
+    {
+        boolean lost = markLost(connection);
+        Runnable task = () ->
+        {
+            try
+            {
+                if(lost && notification != null) notification.run();
+            }
+            catch(RuntimeException e)
+            {
+                NotifyError(e,Phase.RECEIVE);       // コールバック関数の例外で再接続を止めない
+            }
+            finally
+            {
+                if(lost) handleLost(connection);
+                else connection.close();
+            }
+        };
+        try
+        {
+            taskPool().execute(task);
+        }
+        catch(RejectedExecutionException e)
+        {
+            task.run();     // disconnect()と同時に停止された場合は、接続を閉じ損ねないようにここで行う
+        }
+    }
+
+    /** 接続中の接続を再接続中の状態へ変更する関数
+     * @return:変更した場合はtrue(切断処理・再接続を行うのは変更したスレッドだけ) */
+    private boolean markLost(Connection connection)
+    {
+        Status current = status.get();
+        return current.connection == connection && status.compareAndSet(current, new Status(ConnectionState.RECONNECTING, null));
+    }
+
+    /** 再接続中の状態へ変更した後に、接続を閉じて再接続を開始する関数 */
+    private void handleLost(Connection connection)
+    {
+        replaceConnectedSignal();
+        closeConnection(connection);
+        startReConnect();
+    }
+
+    /** 接続を閉じ、接続監視・未送信データ・応答待ちのリクエストを終わらせる関数 */
+    private void closeConnection(Connection connection)
+    {
+        stopConnectCheck();
+        outbound.detach(connection.sink);       // 未送信のデータを破棄して書き込みを止める
+        pendingRequests.failAll(new ClosedChannelException());     // 切断によって応答が来なくなったリクエスト
+        connection.close();
+    }
+
+    /** 接続中の状態を離れた際に、次の接続完了の通知を用意する関数(それまでの通知を待っているスレッドは再開させる) */
+    private void replaceConnectedSignal()
+    {
+        CompletableFuture<Void> previous = connectedSignal;
+        connectedSignal = new CompletableFuture<>();
+        previous.complete(null);
+    }
+
+    /** 接続済みのチャネルでTLSのハンドシェイクを行う関数(TIMEOUTを過ぎた場合はチャネルを閉じて中断する)
+     *  SSLEngineに接続先のホスト名とポート番号を渡し、SSLContextのセッションキャッシュから以前のセッションを再利用させる */
+    private TlsChannel startTls(SocketChannel newChannel) throws IOException
+    {
+        Endpoint endpoint = transport.connectedEndpoint();
+        SSLEngine engine = config.getSSL_CONTEXT().createSSLEngine(endpoint.getHost(), endpoint.getPort());
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        if(config.getTLS_PROTOCOLS() != null) parameters.setProtocols(config.getTLS_PROTOCOLS());
+        if(config.getTLS_CIPHER_SUITES() != null) parameters.setCipherSuites(config.getTLS_CIPHER_SUITES());
+        if(config.isTLS_HOSTNAME_VERIFICATION()) parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+
+        newChannel.configureBlocking(true);
+        TlsChannel tls = new TlsChannel(newChannel, engine);
+        HashedWheelTimer.Timeout guard = timer.newTimeout(() ->
+        {
+            try { newChannel.close(); } catch (IOException ignored) {}
+        }, config.getTIMEOUT(), TimeUnit.MILLISECONDS);
+        try
+        {
+            tls.handshake();
+        }
+        catch(IOException e)
+        {
+            if(!guard.cancel()) throw new SocketTimeoutException("TLS handshake timed out");
+            throw e;
+        }
+        if(!guard.cancel()) throw new SocketTimeoutException("TLS handshake timed out");
+        return tls;
+    }
+
+    /** 再接続の1回目の試行を予約する関数(RECONNECTINGへ遷移させたスレッドだけが呼ぶ) */
+    private void startReConnect()
+    {
+        retryDelay = 0;
+        scheduleRetry();
+    }
+
+    /** 次の再接続の試行を再接続ポリシーの待ち時間後に予約する関数
+     *  待ち時間の管理は共有のタイマーで行い、接続処理は再接続用スレッドで行う */
+    private void scheduleRetry()
+    {
+        retryDelay = Math.max(0, config.getRECONNECT_POLICY().nextDelayMillis(loopCount + 1, retryDelay));
+        ExecutorService executor = retryExecutor();
+        retryFuture = timer.newTimeout(() ->
+        {
+            try
+            {
+                executor.execute(this::RetryConnection);
+            }
+            catch(RejectedExecutionException ignored) {}    // disconnect()で停止された
+        }, retryDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /** 再接続に失敗した後、再接続中であれば次の試行を予約する関数 */
+    private void scheduleNextRetry()
+    {
+        if(status.get().state == ConnectionState.RECONNECTING) scheduleRetry();     // 失敗中にdisconnect()された場合は予約しない
+    }
+
+    /** 予約されている再接続を止める関数 */
+    private void stopReConnect()
+    {
+        HashedWheelTimer.Timeout future = retryFuture;
+        if(future != null) future.cancel();
+        retryFuture = null;
+    }
+
+    /** 設定された回数分サーバーへの接続処理をリトライする関数(再接続用スレッドで実行される) */
     private void RetryConnection()
     {
         Phase phase = Phase.RETRY;
-        commonPhase = Phase.RETRY;
+        Status reconnecting = status.get();
+        if(reconnecting.state != ConnectionState.RECONNECTING) return;     // 予約後にdisconnect()された
         try
         {
             NotifyRetryStarted();
@@ -194,18 +510,18 @@ public class SocketClient
             // 再接続を行った回数が設定した回数以上か？
             if(loopCount >= config.getRETRY_COUNT())
             {
-                NotifyError(new Exception("ReTryException:over the retry count"),phase);
-                retryFuture.cancel(false);          // 設定以上なら再接続処理を止める
-                DisConnect();
+                giveUpReConnect(reconnecting, phase);  // 設定以上なら再接続処理を止める
             }
             else
             {
                 loopCount++;                            // 再接続試行回数カウントを増やす
+                metrics.recordReconnectAttempt();
 
-                connection();                           // サーバーとの接続処理を実行する
+                Connection connection = connection();   // サーバーとの接続処理を実行する
+                if(!publish(reconnecting, connection)) return;     // 接続処理中にdisconnect()された
 
-                NotifyConnected();                      // サーバーとの接続処理に成功すれば通知コールバックを呼び出す
-                retryFuture.cancel(false);           // 接続成功なので再接続処理を止める
+                loopCount = 0;                          // 次に切断された場合は1回目から数え直す
+                NotifyConnected(connection);            // サーバーとの接続処理に成功すれば通知コールバックを呼び出す
             }
         }
         catch(Exception e)
@@ -215,192 +531,849 @@ public class SocketClient
             // 再接続回数が設定回数以上か？
             if(loopCount >= config.getRETRY_COUNT())
             {
-                retryFuture.cancel(false);          // 設定回数以上なら再接続処理を止める
-
-                DisConnect();
-
-                NotifyError(new Exception("ReTryException:over the retry count"),phase);                  // エラーコールバック関数を呼び出す
+                giveUpReConnect(reconnecting, phase);  // 設定回数以上なら再接続処理を止める
+            }
+            else
+            {
+                scheduleNextRetry();                // 再接続ポリシーの待ち時間後に再度試行する
             }
         }
     }
 
+    /** 再接続をあきらめて未接続(CLOSED)の状態にし、エラーを通知する関数 */
+    private void giveUpReConnect(Status reconnecting, Phase phase)
+    {
+        if(!status.compareAndSet(reconnecting, new Status(ConnectionState.CLOSED, null))) return;     // disconnect()された
+        replaceConnectedSignal();       // 接続を待っている送信を終わらせる
+        NotifyError(new Exception("ReTryException:over the retry count"),phase);                  // エラーコールバック関数を呼び出す
+    }
+
     /**
      * 外部からデータ送信を行うための関数
      * @param data:サーバーへ送信したいデータをバイト配列にしたもの
      */
     public void sendMessage(byte[] data){
-        if(threadPool == null || threadPool.isShutdown()) threadPool = new ThreadPoolExecutor(0,3,60L, TimeUnit.SECONDS,new SynchronousQueue<>());
-        threadPool.execute(() -> sendMessageInternal(data));
+        submitMessage(ByteBuffer.wrap(data), null, null, metrics.sendStartNanos());
     }
-    /** サーバーへのデータ送信関数 */
-    private void sendMessageInternal(byte[] data)
-    {
-        Phase phase = Phase.SEND;
+
+    /**
+     * 外部からデータ送信を行い、送信の完了を受け取るための関数
+     * @param data:サーバーへ送信したいデータをバイト配列にしたもの
+     * @return:ソケットへの書き込みが終わった時点で完了するCompletableFuture
+     *         (未接続・書き込み失敗などで送信できなかった場合は例外で完了し、onErrorReceivedは呼ばれない)
+     *         OUTBOUND_SPOOLへ退避された場合は、接続後に退避先から書き込み終えた時点で完了する
+     *         (それまでにdisconnect()された場合や、退避先が一杯で捨てられた場合は例外で完了する)
+     */
+    public CompletableFuture<Void> sendMessageAsync(byte[] data){
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        submitMessage(ByteBuffer.wrap(data), null, promise, metrics.sendStartNanos());
+        return promise;
+    }
+
+    /**
+     * 未送信データが上限(WRITE_BUFFER_HIGH_WATER_MARK)を超えている場合は、
+     * 下限を下回って書き込み可能になるまで待ってからデータ送信を行う関数
+     * @param data:サーバーへ送信したいデータをバイト配列にしたもの
+     * @param timeoutMillis:書き込み可能になるまでの最大待機時間(ms)
+     * @return:送信した場合はtrue、待機時間内に書き込み可能にならず送信しなかった場合はfalse
+     */
+    public boolean sendMessage(byte[] data, long timeoutMillis) throws InterruptedException {
+        long startNanos = metrics.sendStartNanos();
+        if(!outbound.awaitWritable(timeoutMillis)) return false;
+        submitMessage(ByteBuffer.wrap(data), null, null, startNanos);
+        return true;
+    }
+
+    /**
+     * オブジェクトをエンコーダーでバッファへ直接書き込んで送信する関数
+     * 書き込み先のバッファはClientConfigのBUFFER_POOLから取得し、送信が終わった時点で返却される(byte[]を経由しない)
+     * @param message:送信するオブジェクト
+     * @param encoder:オブジェクトの書き込み方(MessageCodec.utf8()など)
+     */
+    public <T> void sendMessage(T message, MessageEncoder<? super T> encoder){
+        submitEncoded(message, encoder, null, metrics.sendStartNanos());
+    }
+
+    /**
+     * オブジェクトをエンコーダーでバッファへ直接書き込んで送信し、送信の完了を受け取るための関数
+     * @param message:送信するオブジェクト
+     * @param encoder:オブジェクトの書き込み方(MessageCodec.utf8()など)
+     * @return:ソケットへの書き込みが終わった時点で完了するCompletableFuture
+     *         (エンコードの失敗・未接続・書き込み失敗などで送信できなかった場合は例外で完了する)
+     *         OUTBOUND_SPOOLへ退避された場合は、接続後に退避先から書き込み終えた時点で完了する
+     */
+    public <T> CompletableFuture<Void> sendMessageAsync(T message, MessageEncoder<? super T> encoder){
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        submitEncoded(message, encoder, promise, metrics.sendStartNanos());
+        return promise;
+    }
+
+    /**
+     * ライブラリ内部の送信データ(MultiplexedClientのフレームなど)をエンコーダーで書き込んで送信する関数
+     * 送信したバイト数には含めるが、メッセージ数・送信時間には含めない(呼び出し元で1つのメッセージとして記録すること)
+     */
+    <T> CompletableFuture<Void> sendInternalAsync(T message, MessageEncoder<? super T> encoder){
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        submitEncoded(message, encoder, promise, ClientMetrics.INTERNAL);
+        return promise;
+    }
+
+    /**
+     * ファイルの内容をヒープへ読み込まずに送信する関数(ファームウェアやログなどの大きなファイル用)
+     * 平文のTCPではFileChannel.transferTo(sendfile)で送信し、TLS使用時はメモリマップした範囲ごとに暗号化して送信する
+     * 前後に呼ばれたsendMessageなどの送信とは呼び出し順に送信される(ファイルを送信し終えるまで後の送信は待たされる)
+     * OUTBOUND_SPOOL設定時は、退避した送信データを追い越さないよう、未接続の間と退避した送信データが残っている間は
+     * 送信せずにIllegalStateExceptionで完了する
+     * @param path:送信するファイル
+     * @return:ファイルを全て書き込んだ時点で完了するCompletableFuture
+     *         (ファイルが開けない・未接続・書き込み失敗などで送信できなかった場合は例外で完了する)
+     */
+    public CompletableFuture<Void> sendFile(Path path){
+        return sendFile(path, null);
+    }
+
+    /**
+     * ファイルの内容をヒープへ読み込まずに送信する関数
+     * @param path:送信するファイル
+     * @param progress:送信済みバイト数の通知先(不要な場合はnull)
+     * @return:ファイルを全て書き込んだ時点で完了するCompletableFuture
+     */
+    public CompletableFuture<Void> sendFile(Path path, TransferProgressListener progress){
+        long startNanos = metrics.sendStartNanos();
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        FileChannel file;
+        long size;
         try
         {
-            boolean timeoutFlag = latch.await(config.getTIMEOUT(),TimeUnit.MILLISECONDS);
+            file = FileChannel.open(path, StandardOpenOption.READ);
+            size = file.size();
+        }
+        catch(IOException e)
+        {
+            promise.completeExceptionally(e);
+            return promise;
+        }
+        submitTransfer(new OutboundTransfer(file, 0, size, true, progress), promise, startNanos);
+        return promise;
+    }
+
+    /**
+     * チャネルから読み込んだデータをcountバイト送信する関数(FileChannelの場合は現在の位置からsendFileと同じ方法で送信する)
+     * 前後に呼ばれたsendMessageなどの送信とは呼び出し順に送信される(OUTBOUND_SPOOL設定時の制限はsendFileと同じ)
+     * @param source:読み込み元(ブロッキングモードであること。送信が終わっても閉じない)
+     * @param count:送信するバイト数(読み込み元がそれより先に終わった場合・読み込みに失敗した場合はこの送信だけが例外で完了し、
+     *              接続はそのまま続く。それまでに書き込んだ分は送信済みのため、サーバーへ届くデータは途中で終わる)
+     * @return:countバイトを全て書き込んだ時点で完了するCompletableFuture
+     *         (ノンブロッキングモードの読み込み元はIllegalArgumentExceptionで完了する)
+     */
+    public CompletableFuture<Void> send(ReadableByteChannel source, long count){
+        return send(source, count, null);
+    }
+
+    /**
+     * チャネルから読み込んだデータをcountバイト送信する関数
+     * @param source:読み込み元(ブロッキングモードであること。送信が終わっても閉じない)
+     * @param count:送信するバイト数
+     * @param progress:送信済みバイト数の通知先(不要な場合はnull)
+     * @return:countバイトを全て書き込んだ時点で完了するCompletableFuture
+     */
+    public CompletableFuture<Void> send(ReadableByteChannel source, long count, TransferProgressListener progress){
+        long startNanos = metrics.sendStartNanos();
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        if(source instanceof SelectableChannel selectable && !selectable.isBlocking())
+        {
+            // 読み込めるデータが無い間に0バイトの読み込みを繰り返して送信用スレッドが空回りしないよう受け付けない
+            promise.completeExceptionally(new IllegalArgumentException("source must be in blocking mode"));
+            return promise;
+        }
+        long position = 0;
+        try
+        {
+            if(source instanceof FileChannel file) position = file.position();
+        }
+        catch(IOException e)
+        {
+            promise.completeExceptionally(e);
+            return promise;
+        }
+        submitTransfer(new OutboundTransfer(source, position, count, false, progress), promise, startNanos);
+        return promise;
+    }
+
+    /**
+     * @return : サーバーと接続中か(接続監視の送信に失敗した場合や再接続中はfalse)
+     */
+    public boolean isConnected(){
+        Status current = status.get();
+        return current.state == ConnectionState.CONNECTED && current.connection.channel.isOpen();
+    }
+
+    /**
+     * @return : 現在の接続状態
+     */
+    public ConnectionState getConnectionState(){return status.get().state;}
+
+    /**
+     * connect()で開始したサーバーとの接続が完了するまで待つ関数
+     * @param timeoutMillis:最大待機時間(ms)
+     * @return:接続が完了した場合はtrue、時間内に接続できなかった場合はfalse
+     */
+    public boolean awaitConnected(long timeoutMillis) throws InterruptedException {
+        return awaitConnectedState(TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) == ConnectionState.CONNECTED && isConnected();
+    }
+
+    /**
+     * リクエストを送信し、そのレスポンスを受け取るための関数(タイムアウト時間はClientConfigのTIMEOUT)
+     * レスポンスを待たずに続けて送信でき、複数のリクエストを同時に処理できる
+     * @param payload:サーバーへ送信したいリクエストをバイト配列にしたもの
+     * @return:レスポンスを受信した時点で完了するCompletableFuture
+     *         (レスポンスとして扱われたデータはonDataReceivedへは通知されない)
+     */
+    public CompletableFuture<byte[]> request(byte[] payload){
+        return request(payload, config.getTIMEOUT());
+    }
+
+    /**
+     * リクエストを送信し、そのレスポンスを受け取るための関数
+     * レスポンスの対応付けはClientConfigのCORRELATION_ID_EXTRACTORで行い、
+     * 設定されていない場合はサーバーがリクエストの順番通りに応答するものとして対応付ける
+     * リクエストはOUTBOUND_SPOOLへ退避せずに接続を待って送信するため、退避した送信データより先に送信されることがある
+     * (送信順に対応付ける場合は、1回の読み込みに複数のレスポンスが含まれても区切れるようにFRAME_DECODERの設定が必要)
+     * @param payload:サーバーへ送信したいリクエストをバイト配列にしたもの
+     * @param timeoutMillis:レスポンスを待つ最大時間(ms)。超えた場合はTimeoutExceptionで完了する
+     * @return:レスポンスを受信した時点で完了するCompletableFuture
+     *         CORRELATION_ID_EXTRACTORとFRAME_DECODERのどちらも設定されていない場合はIllegalStateExceptionで完了する
+     */
+    public CompletableFuture<byte[]> request(byte[] payload, long timeoutMillis){
+        if(config.getCORRELATION_ID_EXTRACTOR() == null && frameDecoder == null)
+            return CompletableFuture.failedFuture(new IllegalStateException("request() requires a FrameDecoder or a CorrelationIdExtractor"));
+        // 退避するとレスポンスの対応付けがずれるため、リクエストは退避せずに送信キューへ積む
+        long startNanos = metrics.sendStartNanos();
+        return pendingRequests.send(payload, timeoutMillis, data ->
+        {
+            CompletableFuture<Void> promise = new CompletableFuture<>();
+            metrics.recordQueued(startNanos);
+            submitQueued(ByteBuffer.wrap(data), null, promise, startNanos);
+            return promise;
+        });
+    }
+
+    /**
+     * @return : 未送信データが上限を超えておらず、送信側が送信を続けてよい状態か
+     *           (falseの間は送信を控え、onWritabilityChanged(true)を待つこと)
+     */
+    public boolean isWritable(){return outbound.isWritable();}
+
+    /**
+     * @return : 送受信量・送信遅延・再接続回数などの計測値
+     *           (ClientConfigで計測を無効にした場合は値が増えない)
+     */
+    public ClientMetrics getMetrics(){return metrics;}
+
+    /**
+     * @return : 最後に接続した接続先(複数の接続先を設定した場合に、どの接続先へ接続したかの確認用)
+     *           一度も接続していない場合はnull
+     */
+    public Endpoint getConnectedEndpoint(){return transport.connectedEndpoint();}
+
+    /** 送信データを送信キューへ積む関数(退避先が設定されている場合、未接続の間と退避したデータが残っている間は退避先へ追記する)
+     *  startNanosは送信関数が呼ばれた時刻(ClientMetrics.sendStartNanos()。内部の送信データの場合はClientMetrics.INTERNAL) */
+    private void submitMessage(ByteBuffer data, BufferPool pool, CompletableFuture<Void> promise, long startNanos)
+    {
+        metrics.recordQueued(startNanos);
+        if(spool != null && (status.get().state != ConnectionState.CONNECTED || !spool.isEmpty()))
+        {
+            spoolMessage(data, pool, promise, startNanos);
+            return;
+        }
+        submitQueued(data, pool, promise, startNanos);
+    }
+
+    /** 送信データを送信キューへ積む関数(未接続の場合は送信用スレッドで接続を待つ) */
+    private void submitQueued(ByteBuffer data, BufferPool pool, CompletableFuture<Void> promise, long startNanos)
+    {
+        // 接続済みであればスレッドを使わずに送信キューへ積む(書き込みは送信用スレッドがまとめて行う)
+        if(waitingSendCount.get() == 0 && status.get().state == ConnectionState.CONNECTED)
+        {
+            outbound.offer(data, pool, promise, startNanos);
+            return;
+        }
 
-            if(timeoutFlag)
+        // 接続完了前の送信は送信用スレッドで接続を待ってから送信キューへ積む
+        waitingSendCount.incrementAndGet();
+        writeExecutor().execute(() ->
+        {
+            try
             {
-                if (socket != null && socket.isConnected())
-                {
-                    outputStream.write(data);
-                    outputStream.flush();
-                }
-                else
-                {
-                    NotifyError(new Exception("Socket not connected : サーバーと接続されていません。"),phase);
-                }
+                sendMessageInternal(data, pool, promise, startNanos);
             }
-            else
+            finally
             {
-                NotifyError(new Exception("Socket Connect TimeOut:サーバーと接続されませんでした。"),phase);
+                waitingSendCount.decrementAndGet();
+            }
+        });
+    }
+    /** 送信データを退避先へ追記する関数(接続中であれば退避したデータの送信を開始する) */
+    private void spoolMessage(ByteBuffer data, BufferPool pool, CompletableFuture<Void> promise, long startNanos)
+    {
+        long end;
+        List<SpooledPromise> evicted;
+        try
+        {
+            synchronized(spoolPromises)
+            {
+                end = spool.append(data);
+                evicted = takeSpoolPromises(spool.headPosition());     // 一杯になって捨てられた送信データ
+                // 送信完了の通知先が無くても、計測する場合は書き込み完了時にメッセージ数・送信時間を記録するため保持する
+                boolean counted = metrics.isEnabled() && startNanos != ClientMetrics.INTERNAL;
+                if(end >= 0 && (promise != null || counted)) spoolPromises.add(new SpooledPromise(end, promise, counted ? startNanos : ClientMetrics.INTERNAL));
             }
         }
-        catch (Exception e)
+        catch(RuntimeException e)
         {
-            NotifyError(e,phase);
+            metrics.recordDropped(startNanos);
+            NotifySendError(e,promise);
+            return;
         }
+        finally
+        {
+            if(pool != null) pool.release(data);
+        }
+
+        if(evicted != null)
+        {
+            Exception cause = new IOException("Outbound spool evicted : 退避先が一杯のため、送信前のデータを破棄しました。");
+            for(SpooledPromise dropped : evicted)
+            {
+                metrics.recordDropped(dropped.startNanos);
+                if(dropped.promise != null) dropped.promise.completeExceptionally(cause);
+            }
+        }
+        if(end < 0)
+        {
+            metrics.recordDropped(startNanos);
+            NotifySendError(new Exception("Outbound spool full : 送信データの退避先に空きがありません。"),promise);
+            return;
+        }
+        if(status.get().state == ConnectionState.CONNECTED) startSpoolDrain();
     }
 
-    /** 外部からデータ受信を開始するための関数 */
-    private void startDataReceive(){
-        if(dataReceiveFlag) return;     // 受信スレッドの多重起動防止
-        dataReceiveFlag = true;
-        threadPool.execute(this::receiveMessage);
+    /**
+     * 退避先での位置が指定した位置までで終わる送信データの送信完了の通知先を取り出す関数(spoolPromisesで排他して呼ぶ)
+     * @param position:取り出す範囲の終わりの位置
+     * @return:取り出した通知先(無い場合はnull)
+     */
+    private List<SpooledPromise> takeSpoolPromises(long position)
+    {
+        List<SpooledPromise> taken = null;
+        SpooledPromise first;
+        while((first = spoolPromises.peek()) != null && first.end <= position)
+        {
+            spoolPromises.poll();
+            if(taken == null) taken = new ArrayList<>();
+            taken.add(first);
+        }
+        return taken;
     }
-    /** データ受信処理を停止するための関数 */
-    private void stopDataReceive() {
-        dataReceiveFlag = false;
+
+    /** 退避した送信データの送信完了の通知先を全て失敗させる関数(disconnect()時に使用する)
+     *  データは退避先に残るため、計測用の送信開始時刻は次の接続で書き込み終えるまで保持する */
+    private void failSpoolPromises()
+    {
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        synchronized(spoolPromises)
+        {
+            for(Iterator<SpooledPromise> it = spoolPromises.iterator(); it.hasNext();)
+            {
+                SpooledPromise spooled = it.next();
+                if(spooled.promise == null) continue;
+                pending.add(spooled.promise);
+                spooled.promise = null;
+                if(spooled.startNanos == ClientMetrics.INTERNAL) it.remove();
+            }
+        }
+        ClosedChannelException cause = new ClosedChannelException();
+        for(CompletableFuture<Void> promise : pending) promise.completeExceptionally(cause);
     }
-    /** サーバーからのデータ受信関数(一度に読み取れるのは最大1024バイト) */
-    private void receiveMessage()
+
+    /** 退避した送信データの送信を開始する関数(送信中の場合は何もしない) */
+    private void startSpoolDrain()
     {
-        Phase phase = Phase.RECEIVE;
+        if(!spoolDraining.compareAndSet(false, true)) return;
+        try
+        {
+            taskPool().execute(this::drainSpool);
+        }
+        catch(RejectedExecutionException e)
+        {
+            spoolDraining.set(false);       // disconnect()によってスレッドが停止された
+        }
+    }
 
-        while(dataReceiveFlag && socket != null && !socket.isClosed())
+    /** 退避した送信データを古い順にSPOOL_DRAIN_SIZEずつまとめて送信キューへ積み、書き込み終えた分を退避先から取り除く関数
+     *  書き込みの途中で切断された場合は残りを退避先に残し、次の接続完了後に送り直す */
+    private void drainSpool()
+    {
+        try
         {
-            try
+            while(status.get().state == ConnectionState.CONNECTED)
             {
-                // ここの処理は変える必要は無い
-                // 最初と最後を判定するのはアプリ側の実装
+                int size = spool.peekSize();
+                if(size == 0) break;
 
-                byte[] buffer;
+                ByteBuffer buffer = bufferPool.acquire(Math.max(SPOOL_DRAIN_SIZE, size));
+                long end = spool.read(buffer);
+                buffer.flip();
 
-                if(config.getMAX_READ_SIZE() != 1024) buffer = new byte[config.getMAX_READ_SIZE()];
-                else buffer = new byte[1024];
+                // まとめた送信データは内部の送信データとして積み、メッセージ数・送信時間は退避先から取り除く際に記録する
+                CompletableFuture<Void> written = new CompletableFuture<>();
+                outbound.offer(buffer, bufferPool, written, ClientMetrics.INTERNAL);
+                try
+                {
+                    written.get();
+                }
+                catch(ExecutionException e)
+                {
+                    break;          // 切断された(書き込みの失敗は送信キューから通知される)
+                }
+
+                List<SpooledPromise> sent;
+                synchronized(spoolPromises)
+                {
+                    spool.commit(end);
+                    sent = takeSpoolPromises(end);
+                }
+                if(sent != null) for(SpooledPromise spooled : sent)
+                {
+                    metrics.recordMessageSent(spooled.startNanos);
+                    if(spooled.promise != null) spooled.promise.complete(null);
+                }
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            spoolDraining.set(false);
+        }
 
-                int bytesRead;
+        // 送信を終える間際に退避されたデータの取りこぼしを防ぐ
+        if(!spool.isEmpty() && status.get().state == ConnectionState.CONNECTED) startSpoolDrain();
+    }
 
-                bytesRead = inputStream.read(buffer);
+    /** 接続が完了するまで待ってからデータを送信キューへ積む関数 */
+    private void sendMessageInternal(ByteBuffer data, BufferPool pool, CompletableFuture<Void> promise, long startNanos)
+    {
+        if(awaitSendable(promise))
+        {
+            outbound.offer(data, pool, promise, startNanos);
+            return;
+        }
+        metrics.recordDropped(startNanos);
+        if(pool != null) pool.release(data);
+    }
 
-                if(bytesRead == -1)
+    /**
+     * エンコーダーでBufferPoolのバッファへ直接書き込み、そのバッファを送信キューへ積む関数
+     * @return:エンコードできた場合はtrue(エンコードで例外が発生した場合は失敗を通知してfalse)
+     */
+    private <T> boolean submitEncoded(T message, MessageEncoder<? super T> encoder, CompletableFuture<Void> promise, long startNanos)
+    {
+        ByteBuffer buffer = bufferPool.acquire(encoder.maxEncodedSize(message));
+        try
+        {
+            encoder.encode(message, buffer);
+        }
+        catch(RuntimeException e)
+        {
+            bufferPool.release(buffer);
+            NotifySendError(e,promise);
+            return false;
+        }
+        buffer.flip();
+        submitMessage(buffer, bufferPool, promise, startNanos);
+        return true;
+    }
+
+    /** チャネルから読み込んで送信するデータを送信キューへ積む関数(未接続の場合は送信用スレッドで接続を待つ)
+     *  sendMessageなどの送信と同じ順序で積まれるよう、接続を待っている送信があればその後に積む */
+    private void submitTransfer(OutboundTransfer transfer, CompletableFuture<Void> promise, long startNanos)
+    {
+        metrics.recordQueued(startNanos);
+        // チャネルからの送信は退避できないため、退避した送信データより先に送信されないよう受け付けない
+        if(spool != null && (status.get().state != ConnectionState.CONNECTED || !spool.isEmpty()))
+        {
+            metrics.recordDropped(startNanos);
+            transfer.close();
+            promise.completeExceptionally(new IllegalStateException("Outbound spool pending : 退避した送信データの送信が終わるまでsendFile・send(channel)は使用できません。"));
+            return;
+        }
+        if(waitingSendCount.get() == 0 && status.get().state == ConnectionState.CONNECTED)
+        {
+            outbound.offer(transfer, promise, startNanos);
+            return;
+        }
+
+        waitingSendCount.incrementAndGet();
+        writeExecutor().execute(() ->
+        {
+            try
+            {
+                if(awaitSendable(promise)) outbound.offer(transfer, promise, startNanos);
+                else
                 {
-                    DisConnect();
-                    startReConnect();
-                    break;
+                    metrics.recordDropped(startNanos);
+                    transfer.close();
                 }
+            }
+            finally
+            {
+                waitingSendCount.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * 送信キューへ積めるよう接続が完了するまで待つ関数
+     * @param promise:送信できなかった場合の通知先(無い場合はnull)
+     * @return:接続した場合はtrue、未接続・タイムアウトの場合は失敗を通知してfalse
+     */
+    private boolean awaitSendable(CompletableFuture<Void> promise)
+    {
+        try
+        {
+            ConnectionState state = awaitConnectedState(TimeUnit.MILLISECONDS.toNanos(config.getTIMEOUT()));
 
-                byte[] data = new byte[bytesRead];
-                System.arraycopy(buffer, 0, data, 0, bytesRead);
-                NotifyDataReceive(data);
+            if(state == ConnectionState.CONNECTED)
+            {
+                return true;
+            }
+            else if(state == ConnectionState.CLOSED)
+            {
+                NotifySendError(new Exception("Socket not connected : サーバーと接続されていません。"),promise);
             }
-            catch(SocketTimeoutException ignored) {}
-            catch(Exception ex)
+            else
             {
-                NotifyError(ex,phase);
+                NotifySendError(new Exception("Socket Connect TimeOut:サーバーと接続されませんでした。"),promise);
             }
         }
+        catch (Exception e)
+        {
+            NotifySendError(e,promise);
+        }
+        return false;
     }
 
+    /**
+     * 接続中(CONNECTED)か未接続(CLOSED)の状態になるまで待つ関数
+     * 接続処理中・再接続中の場合は接続完了の通知を待ち、接続中の状態を離れるたびに状態を確認し直す
+     * @param timeoutNanos:最大待機時間(ns)
+     * @return:待ち終わった時点の状態(時間内に接続されなかった場合はCONNECTING・RECONNECTING)
+     */
+    private ConnectionState awaitConnectedState(long timeoutNanos) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while(true)
+        {
+            // 状態より先に通知を取得するので、状態の確認後に接続されても通知は完了する
+            CompletableFuture<Void> signal = connectedSignal;
+            ConnectionState state = status.get().state;
+            if(state == ConnectionState.CONNECTED || state == ConnectionState.CLOSED) return state;
 
-    /** 外部から定周期の接続監視を開始する関数 */
-    private void startConnectCheck(){
-        if(connectCheckFuture == null || connectCheckFuture.isCancelled()) connectCheckFuture = connectCheckScheduler.scheduleWithFixedDelay(this::ConnectionCheck,0,config.getCONNECT_CHECK_CYCLE(), TimeUnit.MILLISECONDS);
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0) return state;
+            try
+            {
+                signal.get(remaining, TimeUnit.NANOSECONDS);
+            }
+            catch(TimeoutException e)
+            {
+                return status.get().state;
+            }
+            catch(ExecutionException e)
+            {
+                throw new IllegalStateException(e);     // 通知は例外で完了させない
+            }
+        }
     }
-    /** 一定周期でのデータ送信による接続チェック関数(データ送信による接続チェック処理のみ) */
-    private void ConnectionCheck()
+
+    /** 送信キューの書き込みに失敗した際の処理(writerのスレッドから呼ばれる) */
+    private void onWriteFailed(Exception e)
     {
+        Status current = status.get();
+        if(current.state != ConnectionState.CONNECTED) return;     // 切断処理によって書き込みが中断された
+        NotifyError(e,Phase.SEND);
+        connectionLost(current.connection);
+    }
+
+    /** 接続ごとにデータ受信を開始するための関数(1つの接続で受信は1回だけ開始する) */
+    private void startDataReceive(Connection connection){
+        if(!connection.receiving.compareAndSet(false, true)) return;     // 受信スレッドの多重起動防止
+        if(eventLoop != null)
+        {
+            connection.registration.enableRead();      // NIOエンジン使用時はI/Oスレッドで受信する
+            NioHandler handler = connection.handler;
+            // ハンドシェイクと同時に受信したデータは読み込み可能の通知が来ないため、ここで読む
+            if(connection.tls != null && connection.tls.hasBufferedInput()) connection.registration.execute(handler::onReadable);
+        }
+        else
+        {
+            try
+            {
+                taskPool().execute(() -> receiveMessage(connection));
+            }
+            catch(RejectedExecutionException e)
+            {
+                connection.close();         // disconnect()によってスレッドが停止された
+            }
+        }
+    }
+    /** サーバーからのデータ受信関数(一度に読み取れるのは最大MAX_READ_SIZEバイト。読み込みサイズを変える設定の場合はその時点の読み込みサイズ)
+     *  読み込みにはプールから取得したバッファを受信スレッドの終了まで使い回し、読み込みサイズが大きく変わった時だけ取り直す */
+    private void receiveMessage(Connection connection)
+    {
+        Phase phase = Phase.RECEIVE;
+        SocketChannel target = connection.channel;
+        ByteChannel source = connection.source;    // TLS使用時は復号したデータを読み込む
+
+        AdaptiveReadSize readSize = newReadSize();
+        ByteBuffer buffer = bufferPool.acquire(readSize.next());
+        FrameAssembler assembler = newFrameAssembler();
         try
         {
-            if(socket != null && socket.isConnected())
+            while(connection.isCurrent() && target.isOpen())
             {
-                if(config.getCONNECT_CHECK_CHAR().equals(" ")) outputStream.write(0);
-                else
+                try
                 {
-                    byte[] sendData = config.getCONNECT_CHECK_CHAR().getBytes(StandardCharsets.UTF_8);
-                    outputStream.write(sendData);
+                    // FrameDecoderが設定されていない場合、最初と最後を判定するのはアプリ側の実装
+                    int size = readSize.next();
+                    if(buffer.capacity() < size || buffer.capacity() / 4 >= size)
+                    {
+                        bufferPool.release(buffer);
+                        buffer = bufferPool.acquire(size);
+                    }
+                    buffer.clear().limit(size);
+
+                    int bytesRead = source.read(buffer);
+
+                    if(bytesRead == -1)
+                    {
+                        connectionLost(connection);
+                        break;
+                    }
+                    lastReadNanos = System.nanoTime();
+                    metrics.recordReceived(bytesRead);
+                    readSize.record(bytesRead);
+
+                    buffer.flip();
+                    if(capture != null) capture.record(TrafficCapture.Direction.INBOUND, buffer);
+                    handleReceived(buffer, assembler);
                 }
+                catch(FrameDecoder.CorruptedFrameException ex)
+                {
+                    // 以降のデータの区切りが分からなくなるため接続をやり直す
+                    NotifyError(ex,phase);
+                    connectionLost(connection);
+                    break;
+                }
+                catch(Exception ex)
+                {
+                    if(!connection.isCurrent() || !target.isOpen()) break;     // 切断処理によって読み込みが中断された
 
-                outputStream.flush();
+                    // SocketChannelの読み込みはタイムアウトしないため、例外は接続の異常(RSTなど)なので接続をやり直す
+                    NotifyError(ex,phase);
+                    connectionLost(connection);
+                    break;
+                }
             }
         }
-        catch(Exception e)
+        finally
         {
-            DisConnect();
+            bufferPool.release(buffer);
+            if(assembler != null) assembler.release();
+        }
+    }
+
+    /** NIOエンジン使用時のサーバーからのデータ受信関数(I/Oスレッド上で実行される) */
+    private void receiveMessageNio(NioHandler handler)
+    {
+        Connection connection = handler.connection;
+        if(!connection.isCurrent()) return;
 
-            connectCheckFuture.cancel(false);
+        // 読み込み可能になった時だけバッファを借りるので、待機中の接続はバッファを保持しない
+        AdaptiveReadSize readSize = handler.readSize;
+        ByteBuffer buffer = bufferPool.acquire(readSize.next());
+        try
+        {
+            do
+            {
+                int size = readSize.next();
+                if(buffer.capacity() < size)
+                {
+                    bufferPool.release(buffer);
+                    buffer = bufferPool.acquire(size);
+                }
+                buffer.clear().limit(size);
+                int bytesRead = connection.source.read(buffer);
 
-            startReConnect();
+                if(bytesRead == -1)
+                {
+                    handler.releaseAssembler();
+                    connectionLost(connection);
+                    return;
+                }
+                if(bytesRead == 0) return;
+                lastReadNanos = System.nanoTime();
+                metrics.recordReceived(bytesRead);
+                readSize.record(bytesRead);
+
+                buffer.flip();
+                if(capture != null) capture.record(TrafficCapture.Direction.INBOUND, buffer);
+                handleReceived(buffer, handler.assembler);
+            }
+            // TLS使用時はソケットから読み込み済みで未復号のデータが残っていると読み込み可能の通知が来ないため続けて読む
+            while(connection.tls != null && connection.tls.hasBufferedInput() && connection.isCurrent());
+        }
+        catch(Exception ex)
+        {
+            handler.releaseAssembler();
+            if(!connection.isCurrent()) return;         // 切断処理によって読み込みが中断された
+            NotifyError(ex,Phase.RECEIVE);
+            connectionLost(connection);
+        }
+        finally
+        {
+            bufferPool.release(buffer);
         }
     }
 
+    /** 受信したデータをFrameDecoderへ渡す。FrameDecoderが設定されていない場合はそのまま通知する */
+    private void handleReceived(ByteBuffer data, FrameAssembler assembler) throws FrameDecoder.CorruptedFrameException
+    {
+        if(assembler == null) NotifyDataReceive(data);
+        else assembler.feed(data);                      // フレームが揃うごとにNotifyDataReceiveが呼ばれる
+    }
 
-    /** 外部からの接続の正常終了やサーバーからのEOF(通信切断)の接続終了および接続終了コールバックを呼び出す関数 */
-    public synchronized void disconnect()
+    /** 接続ごとの読み込みサイズの調整を生成する(読み込みサイズを変えない設定の場合は常にMAX_READ_SIZEを返す) */
+    private AdaptiveReadSize newReadSize()
     {
-        Phase phase = Phase.DISCONNECT;
-        try
-        {
-            // データ受信処理の停止(Whileの停止)
-            stopDataReceive();
+        return new AdaptiveReadSize(config.getMIN_READ_SIZE(), config.getMAX_READ_SIZE(), config.getADAPTIVE_MAX_READ_SIZE());
+    }
 
-            // 各スレッドの停止
-            if(connectCheckFuture != null && !connectCheckFuture.isCancelled()) connectCheckFuture.cancel(false);
-            if(retryFuture != null && !retryFuture.isCancelled()) retryFuture.cancel(false);
-            if(threadPool != null && !threadPool.isShutdown()) threadPool.shutdown();
-            if(connectCheckScheduler != null && !connectCheckScheduler.isShutdown()) connectCheckScheduler.shutdown();
-            if(retryConnectScheduler != null && !retryConnectScheduler.isShutdown()) retryConnectScheduler.shutdown();
+    /** 接続ごとのフレーム切り出し処理を生成する(FrameDecoderが設定されていない場合はnull) */
+    private FrameAssembler newFrameAssembler()
+    {
+        if(frameDecoder == null) return null;
+        return new FrameAssembler(frameDecoder.get(), bufferPool, config.getMAX_READ_SIZE(), this::NotifyDataReceive);
+    }
+
+
+    /** 外部から接続監視(送信の無通信時の接続確認・受信の無通信監視)を開始する関数
+     *  監視はタイマーのスレッドで行い、最後の送受信の時刻から次の確認時刻を決める */
+    private void startConnectCheck(){
+        int generation = idleCheckGeneration.incrementAndGet();     // 以前の監視が残っていれば止める
+        connectCheckFuture = timer.newTimeout(() -> ConnectionCheck(generation), config.getCONNECT_CHECK_CYCLE(), TimeUnit.MILLISECONDS);
+        if(config.getREAD_IDLE_TIMEOUT() > 0)
+            readIdleFuture = timer.newTimeout(() -> ReadIdleCheck(generation), config.getREAD_IDLE_TIMEOUT(), TimeUnit.MILLISECONDS);
+    }
+    /** 接続監視を停止する関数 */
+    private void stopConnectCheck(){
+        idleCheckGeneration.incrementAndGet();
+        if(connectCheckFuture != null) connectCheckFuture.cancel();
+        if(readIdleFuture != null) readIdleFuture.cancel();
+    }
+    /** 送信の無通信時間がCONNECT_CHECK_CYCLEを超えた場合だけデータ送信を行う接続チェック関数
+     *  送信中の接続では接続確認のデータを送らない。送信は送信キュー経由で行い、書き込みに失敗した場合はonWriteFailedで再接続する
+     * @param generation:開始時の監視の世代(停止済みの場合は何もしない) */
+    private void ConnectionCheck(int generation)
+    {
+        if(generation != idleCheckGeneration.get()) return;
+        Status current = status.get();
+        if(current.state != ConnectionState.CONNECTED) return;
 
-            if (socket != null) try { socket.close(); } catch (IOException ignored) {}
-            if (inputStream != null) try { inputStream.close(); } catch (IOException ignored) {}
-            if (outputStream != null) try { outputStream.close(); } catch (IOException ignored) {}
+        long cycle = TimeUnit.MILLISECONDS.toNanos(config.getCONNECT_CHECK_CYCLE());
+        long idle = System.nanoTime() - outbound.getLastWriteNanos();
+        if(idle < cycle)
+        {
+            // 周期内に送信があったので、最後の送信から周期が経過する時刻に確認し直す
+            scheduleConnectCheck(generation, cycle - idle);
+            return;
+        }
 
-            socket = null;
-            inputStream = null;
-            outputStream = null;
+        try
+        {
+            if(current.connection.channel.isConnected())
+            {
+                // 接続監視のデータは破棄されても送信エラーとして通知しないよう送信結果を受け取り、計測が有効な場合は送信できなかった分を数える
+                CompletableFuture<Void> promise = new CompletableFuture<>();
+                if(metrics.isEnabled()) promise.whenComplete((v, e) -> {if(e != null) metrics.recordHeartbeatFailure();});
 
-            NotifyDisConnected();
+                outbound.offer(ByteBuffer.wrap(heartbeat), null, promise, ClientMetrics.INTERNAL);
+            }
+            scheduleConnectCheck(generation, cycle);
         }
         catch(Exception e)
         {
-            NotifyError(e,phase);
+            metrics.recordHeartbeatFailure();
+            connectionLostFromTimer(current.connection, null);     // 接続監視もここで停止される
         }
     }
+    /** 次の接続チェックを予約する関数(停止済みの場合は予約しない) */
+    private void scheduleConnectCheck(int generation, long delayNanos)
+    {
+        if(generation == idleCheckGeneration.get())
+            connectCheckFuture = timer.newTimeout(() -> ConnectionCheck(generation), delayNanos, TimeUnit.NANOSECONDS);
+    }
+    /** 受信の無通信時間がREAD_IDLE_TIMEOUTを超えた場合に、接続先が応答しなくなったものとして再接続する関数
+     *  送信バッファが一杯で書き込みの失敗が検出されない場合でも、接続先の停止を検出できる
+     * @param generation:開始時の監視の世代(停止済みの場合は何もしない) */
+    private void ReadIdleCheck(int generation)
+    {
+        if(generation != idleCheckGeneration.get()) return;
+        Status current = status.get();
+        if(current.state != ConnectionState.CONNECTED) return;
 
-    /** 通信切断コールバックを呼ばず外部からも呼び出させない(異常終了やエラー時のリトライ時に使用される) */
-    private synchronized void DisConnect()
+        long timeout = TimeUnit.MILLISECONDS.toNanos(config.getREAD_IDLE_TIMEOUT());
+        long idle = System.nanoTime() - lastReadNanos;
+        if(idle < timeout)
+        {
+            if(generation == idleCheckGeneration.get())
+                readIdleFuture = timer.newTimeout(() -> ReadIdleCheck(generation), timeout - idle, TimeUnit.NANOSECONDS);
+            return;
+        }
+
+        long idleMillis = TimeUnit.NANOSECONDS.toMillis(idle);
+        connectionLostFromTimer(current.connection, () -> NotifyReadIdle(idleMillis));
+    }
+
+
+    /** 外部からの接続の正常終了および接続終了コールバックを呼び出す関数
+     *  接続処理中・再接続中に呼ばれた場合も未接続(CLOSED)にし、その接続処理で接続できても使わずに閉じる */
+    public void disconnect()
     {
         Phase phase = Phase.DISCONNECT;
         try
         {
-            // データ受信処理の停止(Whileの停止)
-            stopDataReceive();
+            Status previous = status.getAndSet(new Status(ConnectionState.CLOSED, null));
+            replaceConnectedSignal();       // 接続を待っている送信を終わらせる
 
             // 各スレッドの停止
-            if(connectCheckFuture != null && !connectCheckFuture.isCancelled()) connectCheckFuture.cancel(false);
-            if(retryFuture != null && !retryFuture.isCancelled()) retryFuture.cancel(false);
-            if(threadPool != null && !threadPool.isShutdown()) threadPool.shutdown();
-            if(connectCheckScheduler != null && !connectCheckScheduler.isShutdown()) connectCheckScheduler.shutdown();
-            if(retryConnectScheduler != null && !retryConnectScheduler.isShutdown()) retryConnectScheduler.shutdown();
-
-            if (socket != null) try { socket.close(); } catch (IOException ignored) {}
-            if (inputStream != null) try { inputStream.close(); } catch (IOException ignored) {}
-            if (outputStream != null) try { outputStream.close(); } catch (IOException ignored) {}
+            stopConnectCheck();
+            stopReConnect();
+            shutdownExecutor(threadPool);
+            shutdownExecutor(writeThread);
+            shutdownExecutor(retryThread);
+            if(dispatcher != null) dispatcher.stop();      // 受信済みのデータを通知し終えたら通知用スレッドを終了する
+
+            outbound.detach();          // 未送信のデータを破棄して書き込みを止める
+            pendingRequests.failAll(new ClosedChannelException());     // 切断によって応答が来なくなったリクエスト
+            if(spool != null) failSpoolPromises();      // 退避したデータは次の接続で送るが、完了は待たせない
+            if(previous.connection != null) previous.connection.close();     // close_notifyを送ってから閉じる
+            metrics.unregister();
 
-            socket = null;
-            inputStream = null;
-            outputStream = null;
+            NotifyDisConnected();
         }
         catch(Exception e)
         {
@@ -435,10 +1408,32 @@ public class SocketClient
      * @param phase:現在処理中の処理フェーズ
      */
     private void NotifyError(Exception e, Phase phase) {
+        metrics.recordError(phase);
         ErrorInfo info = CheckErrorType(e,phase);
         if (listener != null) listener.onErrorReceived(info);
     }
 
+    /** 例外をエラー情報にする関数(MultiplexedClientがチャネルごとのコールバック関数へ通知するために使う) */
+    ErrorInfo toErrorInfo(Exception e, Phase phase) {
+        metrics.recordError(phase);
+        return CheckErrorType(e,phase);
+    }
+
+    /** 受信データの処理(TypedSocketClientのデコードなど)で発生したエラーを通知する関数(接続はやり直さない) */
+    void notifyReceiveError(Exception e) {
+        NotifyError(e,Phase.RECEIVE);
+    }
+
+    /**
+     * 送信の失敗を通知する関数(送信完了の通知先がある場合はそちらへ、無い場合はコールバック関数へ通知する)
+     * @param e:発生した例外
+     * @param promise:送信完了の通知先(無い場合はnull)
+     */
+    private void NotifySendError(Exception e, CompletableFuture<Void> promise) {
+        if (promise != null) promise.completeExceptionally(e);
+        else NotifyError(e,Phase.SEND);
+    }
+
     /**
      * サーバーからのデータ受信時にコールバック関数を呼び出す関数
      * @param data:サーバーから受信したデータ
@@ -446,12 +1441,36 @@ public class SocketClient
     private void NotifyDataReceive(byte[] data) {
         if (listener != null) listener.onDataReceived(data);
     }
+    /**
+     * サーバーからのデータ受信時にコールバック関数を呼び出す関数
+     * ByteBufferEventListenerの場合はバッファをそのまま渡し、それ以外はbyte[]にコピーして渡す
+     * @param data:受信したデータが格納されたバッファ(position～limit)
+     */
+    private void NotifyDataReceive(ByteBuffer data) {
+        metrics.recordMessageReceived();
+        if (pendingRequests.complete(data)) return;     // request()への応答
+        if (dispatcher != null) dispatcher.publish(data);   // 通知用スレッドからDeliverDataReceiveを呼ぶ
+        else DeliverDataReceive(data);
+    }
+    /**
+     * 受信データをコールバック関数へ渡す関数
+     * @param data:受信したデータが格納されたバッファ(position～limit)
+     */
+    private void DeliverDataReceive(ByteBuffer data) {
+        if (listener instanceof ByteBufferEventListener bufferListener) bufferListener.onDataReceived(data);
+        else if (listener != null)
+        {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            listener.onDataReceived(bytes);
+        }
+    }
     /** サーバーとの接続確立時にコールバック関数を呼び出す関数
      *  接続成功時に周期的な接続監視とデータ受信のスレッドも開始する */
-    private void NotifyConnected() {
-        latch.countDown();
+    private void NotifyConnected(Connection connection) {
         startConnectCheck();
-        startDataReceive();
+        startDataReceive(connection);
+        if (spool != null) startSpoolDrain();      // 未接続の間に退避した送信データを送る
         if (listener != null) listener.onConnected();
     }
     /** エラーの発生時にコールバック関数を呼び出す関数 */
@@ -460,9 +1479,166 @@ public class SocketClient
     }
     /** サーバーへの再接続試行開始時にコールバックを呼び出す関数 */
     private void NotifyRetryStarted(){if(listener != null) listener.onRetryStarted();}
+    /** 受信の無通信時間がREAD_IDLE_TIMEOUTを超えた時にコールバックを呼び出す関数 */
+    private void NotifyReadIdle(long idleMillis){if(listener != null) listener.onReadIdle(idleMillis);}
+    /** 未送信データ量による書き込み可否の変化時にコールバックを呼び出す関数 */
+    private void NotifyWritabilityChanged(boolean writable){if(listener != null) listener.onWritabilityChanged(writable);}
     ///////////////////////////////////////////
 
 
+    /** 送信キューからの通知を受け取るクラス */
+    private final class OutboundHandler implements OutboundQueue.Callback
+    {
+        @Override
+        public void onWriteFailed(Exception e){SocketClient.this.onWriteFailed(e);}
+
+        @Override
+        public void onWritabilityChanged(boolean writable){NotifyWritabilityChanged(writable);}
+
+        @Override
+        public void onDiscarded(int count, long bytes)
+        {
+            NotifyError(new IOException("Outbound data discarded : 切断により未送信のデータ" + count + "件(" + bytes + "Byte)を破棄しました。"),Phase.SEND);
+        }
+    }
+
+    /** 接続状態とその時点の接続の組(状態を変えるたびに新しく生成し、AtomicReferenceのCASで入れ替える) */
+    private static final class Status
+    {
+        private final ConnectionState state;
+        /** 接続中(CONNECTED)の場合の接続。それ以外の状態ではnull */
+        private final Connection connection;
+
+        private Status(ConnectionState state, Connection connection)
+        {
+            this.state = state;
+            this.connection = connection;
+        }
+    }
+
+    /** 退避した送信データの退避先での終わりの位置と、その送信完了の通知先・送信開始時刻の組 */
+    private static final class SpooledPromise
+    {
+        private final long end;
+        /** 送信完了の通知先(不要な場合・disconnect()で失敗させた後はnull。spoolPromisesで排他して更新する) */
+        private CompletableFuture<Void> promise;
+        /** 送信関数が呼ばれた時刻(計測しない場合はClientMetrics.INTERNAL) */
+        private final long startNanos;
+
+        private SpooledPromise(long end, CompletableFuture<Void> promise, long startNanos)
+        {
+            this.end = end;
+            this.promise = promise;
+            this.startNanos = startNanos;
+        }
+    }
+
+    /** サーバーとの1回分の接続(再接続のたびに新しく生成する) */
+    private final class Connection
+    {
+        private final SocketChannel channel;
+        /** TLS使用時の暗号化・復号を行うチャネル(TLSを使用しない場合はnull) */
+        private final TlsChannel tls;
+        /** 受信データの読み込み元(TLS使用時は復号したデータを読み込む) */
+        private final ByteChannel source;
+        /** 送信データの書き込み先(TLS使用時は暗号化してから書き込む) */
+        private final GatheringByteChannel sink;
+        /** NIOエンジン使用時のイベントループへの登録(ブロッキングモードではnull。公開前に設定する) */
+        private SocketClientEventLoop.Registration registration;
+        /** NIOエンジン使用時のイベントループから呼ばれる処理(ブロッキングモードではnull。公開前に設定する) */
+        private NioHandler handler;
+        /** 受信を開始済みか */
+        private final AtomicBoolean receiving = new AtomicBoolean();
+        /** 閉じ済みか */
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Connection(SocketChannel channel, TlsChannel tls)
+        {
+            this.channel = channel;
+            this.tls = tls;
+            this.source = tls != null ? tls : channel;
+            this.sink = tls != null ? tls : channel;
+        }
+
+        /** @return : 現在接続中の接続か(切断処理・再接続で置き換わった後はfalse) */
+        private boolean isCurrent(){return status.get().connection == this;}
+
+        /** 接続を閉じる(何度呼ばれても閉じるのは1回だけ) */
+        private void close()
+        {
+            if(!closed.compareAndSet(false, true)) return;
+            if (tls != null) try { tls.close(); } catch (IOException ignored) {}     // close_notifyを送ってから閉じる
+            try { channel.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    /** 通知用スレッドから呼ばれる処理 */
+    private final class DispatchHandler implements CallbackDispatcher.Handler
+    {
+        @Override
+        public void deliver(ByteBuffer data){DeliverDataReceive(data);}
+
+        @Override
+        public void onFailure(RuntimeException e){NotifyError(e,Phase.RECEIVE);}
+    }
+
+    /** イベントループから呼ばれる処理を接続ごとに束ねたクラス */
+    private final class NioHandler implements SocketClientEventLoop.IoHandler
+    {
+        private final Connection connection;
+        /** この接続のフレーム切り出し処理(I/Oスレッドからのみ使用する) */
+        private final FrameAssembler assembler = newFrameAssembler();
+        /** この接続の読み込みサイズ(I/Oスレッドからのみ使用する) */
+        private final AdaptiveReadSize readSize = newReadSize();
+
+        private NioHandler(Connection connection)
+        {
+            this.connection = connection;
+        }
+
+        private void releaseAssembler(){if(assembler != null) assembler.release();}
+
+        @Override
+        public void onReadable(){receiveMessageNio(this);}
+
+        @Override
+        public void onWritable()
+        {
+            if(connection.isCurrent()) outbound.onWritable();
+        }
+
+        @Override
+        public void onRegisterFailed(IOException e)
+        {
+            if(!connection.isCurrent())
+            {
+                connection.close();
+                return;
+            }
+            NotifyError(e,Phase.CONNECT);
+            connectionLost(connection);
+        }
+
+        @Override
+        public void onFailure(RuntimeException e)
+        {
+            if(!connection.isCurrent())
+            {
+                connection.close();
+                return;
+            }
+            try
+            {
+                NotifyError(e,Phase.RECEIVE);
+            }
+            finally
+            {
+                connectionLost(connection);     // onErrorReceivedが例外を投げても接続はやり直す
+            }
+        }
+    }
+
+
     /** コールバック関数が定義されたインターフェース */
     public interface ClientEventListener
     {
@@ -478,6 +1654,27 @@ public class SocketClient
         void onDisConnected();
         /** 接続リトライのスタート時におyばれるコールバック関数 */
         default void onRetryStarted(){}
+        /** 未送信データ量が上限を超えた・下限を下回った時に呼ばれるコールバック関数
+         * @param writable　falseの場合は送信を控え、trueになったら送信を再開すること　*/
+        default void onWritabilityChanged(boolean writable){}
+        /** 一定時間(READ_IDLE_TIMEOUT)サーバーからデータを受信しなかった時に呼ばれるコールバック関数
+         *  この後、接続を切断して再接続を行う
+         * @param idleMillis　最後にデータを受信してからの経過時間(ms)　*/
+        default void onReadIdle(long idleMillis){}
+    }
+
+    /** 受信データをプールされたByteBufferのまま受け取るためのインターフェース
+     *  受信時にbyte[]へのコピーが発生しないため、受信処理でのメモリ確保を無くすことが出来る */
+    public interface ByteBufferEventListener extends ClientEventListener
+    {
+        /** サーバーからデータ受信時に呼ぶコールバック関数
+         *  渡されたバッファはこの関数から戻った時点でプールへ返却され再利用される。
+         *  関数から戻った後もデータを使用する場合は関数内でコピーすること
+         * @param data　受信したデータ(position～limitの範囲)　*/
+        void onDataReceived(ByteBuffer data);
+        /** ByteBufferEventListenerではbyte[]版のコールバック関数は呼ばれない */
+        @Override
+        default void onDataReceived(byte[] data) {}
     }
 
     /** --- 例外発生時に例外情報を格納するクラス --- */
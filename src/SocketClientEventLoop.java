@@ -0,0 +1,243 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** 少数のI/Oスレッドで多数のSocketClientの送受信を処理するためのイベントループ
+ *  ノンブロッキングのSocketChannelとSelectorを使用し、登録された接続を各I/Oスレッドへ振り分ける
+ *  ClientConfig.ConfigBuilder.setEventLoop()で複数のSocketClientに同じインスタンスを設定して共有する */
+public class SocketClientEventLoop
+{
+    /** I/Oスレッドごとの処理クラス */
+    private final Worker[] workers;
+    /** 次に接続を割り当てるWorkerの番号(ラウンドロビン) */
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    private volatile boolean shutdown = false;
+
+    /** CPUのコア数と同じ数のI/Oスレッドでイベントループを生成する */
+    public SocketClientEventLoop()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * コンストラクタ
+     * @param ioThreadCount：送受信処理を行うI/Oスレッドの数
+     */
+    public SocketClientEventLoop(int ioThreadCount)
+    {
+        if(ioThreadCount <= 0) throw new IllegalArgumentException("ioThreadCount must be positive : " + ioThreadCount);
+
+        workers = new Worker[ioThreadCount];
+        for(int i = 0; i < ioThreadCount; i++)
+        {
+            try
+            {
+                workers[i] = new Worker("SocketClientEventLoop-io-" + i);
+            }
+            catch(IOException e)
+            {
+                for(int j = 0; j < i; j++) workers[j].stop();
+                throw new UncheckedIOException(e);
+            }
+        }
+        for(Worker worker : workers) worker.thread.start();
+    }
+
+    /** @return : I/Oスレッドの数 */
+    public int getIoThreadCount(){return workers.length;}
+
+    /** @return : shutdown()が呼ばれているか */
+    public boolean isShutdown(){return shutdown;}
+
+    /** イベントループを停止する。登録されている各接続のクローズはSocketClient側で行うこと */
+    public void shutdown()
+    {
+        shutdown = true;
+        for(Worker worker : workers) worker.stop();
+    }
+
+    /**
+     * チャネルをいずれかのI/Oスレッドへ登録する。登録直後は受信も送信も監視しない
+     * @param channel：接続済みでノンブロッキングに設定されたチャネル
+     * @param handler：読み込み・書き込み可能になった際に呼ばれる処理
+     * @return：登録したチャネルを操作するためのハンドル
+     */
+    Registration register(SocketChannel channel, IoHandler handler)
+    {
+        if(shutdown) throw new IllegalStateException("SocketClientEventLoop is shut down");
+
+        Worker worker = workers[Math.floorMod(nextWorker.getAndIncrement(), workers.length)];
+        Registration registration = new Registration(worker, channel, handler);
+        registration.execute(() ->
+        {
+            try
+            {
+                registration.key = channel.register(worker.selector, 0, handler);
+            }
+            catch(IOException e)
+            {
+                handler.onRegisterFailed(e);
+            }
+        });
+        return registration;
+    }
+
+
+    /** I/Oスレッドから呼ばれる処理を定義したインターフェース(各処理はI/Oスレッド上で実行される) */
+    interface IoHandler
+    {
+        /** チャネルが読み込み可能になった際に呼ばれる */
+        void onReadable();
+        /** チャネルが書き込み可能になった際に呼ばれる */
+        void onWritable();
+        /** Selectorへの登録に失敗した際に呼ばれる */
+        void onRegisterFailed(IOException e);
+        /** この接続の処理(コールバック関数を含む)で例外が発生した際に呼ばれる(I/Oスレッドは他の接続の処理を続ける) */
+        void onFailure(RuntimeException e);
+    }
+
+    /** イベントループに登録したチャネルの監視対象の変更などを行うためのハンドル */
+    static final class Registration
+    {
+        private final Worker worker;
+        private final SocketChannel channel;
+        private final IoHandler handler;
+        private SelectionKey key;       // I/Oスレッドからのみ参照する
+
+        private Registration(Worker worker, SocketChannel channel, IoHandler handler)
+        {
+            this.worker = worker;
+            this.channel = channel;
+            this.handler = handler;
+        }
+
+        SocketChannel channel(){return channel;}
+
+        /** 現在のスレッドがこのチャネルを担当するI/Oスレッドか */
+        boolean inEventLoop(){return Thread.currentThread() == worker.thread;}
+
+        /** 処理をこのチャネルを担当するI/Oスレッド上で実行する(発生した例外はこの接続の例外としてIoHandlerへ通知する) */
+        void execute(Runnable task)
+        {
+            if(inEventLoop()) task.run();       // 呼び出し元のI/Oスレッドの処理で例外を通知する
+            else worker.submit(this, task);
+        }
+
+        /** 受信データの監視を開始する */
+        void enableRead(){updateInterest(SelectionKey.OP_READ, true);}
+
+        /** 書き込み可能の監視を開始・停止する(送信データが残っている間だけ監視する) */
+        void setWriteInterest(boolean on){updateInterest(SelectionKey.OP_WRITE, on);}
+
+        private void updateInterest(int ops, boolean on)
+        {
+            execute(() ->
+            {
+                if(key == null || !key.isValid()) return;
+                int current = key.interestOps();
+                int updated = on ? current | ops : current & ~ops;
+                if(current != updated) key.interestOps(updated);
+            });
+        }
+    }
+
+    /** 1つのI/Oスレッドと、そのスレッドが担当するSelectorをまとめたクラス */
+    private final class Worker implements Runnable
+    {
+        private final Selector selector;
+        private final Thread thread;
+        /** 他スレッドから依頼されたI/Oスレッド上で実行する処理 */
+        private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+
+        private Worker(String name) throws IOException
+        {
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        private void submit(Registration registration, Runnable action)
+        {
+            tasks.add(new Task(registration.handler, action));
+            selector.wakeup();
+        }
+
+        private void stop()
+        {
+            selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while(!shutdown)
+                {
+                    selector.select();
+                    runTasks();
+
+                    for(SelectionKey key : selector.selectedKeys())
+                    {
+                        IoHandler handler = (IoHandler) key.attachment();
+                        try
+                        {
+                            if(key.isValid() && key.isWritable()) handler.onWritable();
+                            if(key.isValid() && key.isReadable()) handler.onReadable();
+                        }
+                        catch(CancelledKeyException ignored) {}     // 処理中に別スレッドから切断された
+                        catch(RuntimeException e)
+                        {
+                            fail(handler, e);       // コールバック関数などの例外でI/Oスレッドの他の接続を止めない
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            }
+            catch(IOException ignored) {}
+            finally
+            {
+                try { selector.close(); } catch(IOException ignored) {}
+            }
+        }
+
+        private void runTasks()
+        {
+            Task task;
+            while((task = tasks.poll()) != null)
+            {
+                try { task.action.run(); }
+                catch(CancelledKeyException ignored) {}
+                catch(RuntimeException e) { fail(task.handler, e); }
+            }
+        }
+
+        /** 接続の処理で発生した例外をその接続へ通知する(通知処理の例外でもI/Oスレッドは止めない) */
+        private void fail(IoHandler handler, RuntimeException e)
+        {
+            try { handler.onFailure(e); } catch(RuntimeException ignored) {}
+        }
+    }
+
+    /** I/Oスレッド上で実行する処理と、その処理で例外が発生した際の通知先の組 */
+    private static final class Task
+    {
+        private final IoHandler handler;
+        private final Runnable action;
+
+        private Task(IoHandler handler, Runnable action)
+        {
+            this.handler = handler;
+            this.action = action;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/** 接続済みのSocketClientを接続先(HOST:PORT)ごとに保持し、貸し出して使い回すためのプールクラス
+ *  接続数は接続先ごとに、貸し出し中・未使用・接続処理中の合計でMAX_SIZEまでに抑える
+ *  貸し出し時に毎回TCP接続を行わずに済むため、処理単位ごとにSocketClientを生成する場合の接続待ちを無くせる
+ *  インスタンスはPoolBuilderクラスを使用して生成する
+ *
+ *  使用例 :
+ *  try(SocketClientPool.Lease lease = pool.checkout(config)) { lease.client().request(data).get(); } */
+public class SocketClientPool implements AutoCloseable
+{
+    /** 接続先ごとのプール */
+    private final Map<String, EndpointPool> endpoints = new ConcurrentHashMap<>();
+    /** プールするSocketClientに設定するコールバック関数の生成処理 */
+    private final Function<ClientConfig, SocketClient.ClientEventListener> listenerFactory;
+
+    private final int MIN_SIZE;
+    private final int MAX_SIZE;
+    private final long IDLE_TIMEOUT;
+    private final long CHECKOUT_TIMEOUT;
+
+    /** 未使用の接続の切断・接続数の維持を行うスレッド */
+    private final ScheduledExecutorService maintenance;
+    private volatile boolean closed = false;
+
+    private SocketClientPool(PoolBuilder builder)
+    {
+        this.listenerFactory = builder.LISTENER_FACTORY;
+        this.MIN_SIZE = builder.MIN_SIZE;
+        this.MAX_SIZE = builder.MAX_SIZE;
+        this.IDLE_TIMEOUT = builder.IDLE_TIMEOUT;
+        this.CHECKOUT_TIMEOUT = builder.CHECKOUT_TIMEOUT;
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(r ->
+        {
+            Thread thread = new Thread(r, "SocketClientPool-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long cycle = Math.max(100, Math.min(IDLE_TIMEOUT / 2, 5000));
+        maintenance.scheduleWithFixedDelay(this::maintain, cycle, cycle, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 接続済みのSocketClientを借りる(設定されたCHECKOUT_TIMEOUTまで待つ)
+     * @param config：接続先の設定。接続先(HOST:PORT・Unixドメインソケットのパス)ごとに最初に渡したインスタンスでプールを作り、
+     *               以降も同じインスタンスを渡すこと(TLS・FrameDecoderなどの設定が異なる接続を貸し出さないよう、別のインスタンスはIllegalArgumentExceptionになる)
+     * @return：借りたSocketClient。使い終わったらLease.close()で返却すること
+     * @throws TimeoutException：貸し出し可能な接続が時間内に空かなかった場合
+     * @throws IOException：新しい接続の確立に失敗した場合
+     */
+    public Lease checkout(ClientConfig config) throws IOException, InterruptedException, TimeoutException
+    {
+        return checkout(config, CHECKOUT_TIMEOUT);
+    }
+
+    /**
+     * 接続済みのSocketClientを借りる
+     * @param config：接続先の設定(接続先ごとに同じインスタンスを渡すこと)
+     * @param timeoutMillis：貸し出し可能な接続が空くまでの最大待機時間(ms)
+     * @return：借りたSocketClient。使い終わったらLease.close()で返却すること
+     */
+    public Lease checkout(ClientConfig config, long timeoutMillis) throws IOException, InterruptedException, TimeoutException
+    {
+        if(closed) throw new IllegalStateException("SocketClientPool is closed");
+
+        EndpointPool pool = endpoints.computeIfAbsent(key(config), k -> new EndpointPool(config));
+        if(pool.config != config)
+            throw new IllegalArgumentException("a different ClientConfig is already pooled for " + key(config) + " : 接続先ごとに同じClientConfigを使用すること");
+        return pool.checkout(timeoutMillis);
+    }
+
+    /** @return : 全接続先の貸し出し中でない接続数の合計 */
+    public int getIdleCount()
+    {
+        int count = 0;
+        for(EndpointPool pool : endpoints.values()) count += pool.idleCount.get();
+        return count;
+    }
+
+    /** @return : 全接続先の接続数(貸し出し中を含む)の合計 */
+    public int getTotalCount()
+    {
+        int count = 0;
+        for(EndpointPool pool : endpoints.values()) count += pool.totalCount.get();
+        return count;
+    }
+
+    /** プールを終了し、貸し出し中でない全ての接続を切断する(貸し出し中の接続は返却時に切断される) */
+    @Override
+    public void close()
+    {
+        closed = true;
+        maintenance.shutdown();
+        for(EndpointPool pool : endpoints.values()) pool.closeIdle();
+    }
+
+    private static String key(ClientConfig config)
+    {
+        if(config.getUNIX_DOMAIN_SOCKET() != null) return "unix:" + config.getUNIX_DOMAIN_SOCKET().toAbsolutePath();
+        return config.getHOST() + ":" + config.getPORT();
+    }
+
+    /** 定周期で未使用の接続を切断し、最小接続数を維持する */
+    private void maintain()
+    {
+        for(EndpointPool pool : endpoints.values())
+        {
+            try
+            {
+                pool.evictIdle();
+                pool.fillToMinimum();
+            }
+            catch(Exception ignored) {}     // 接続できない場合は次の周期で再度試す
+        }
+    }
+
+
+    /** 貸し出したSocketClientを返却するためのクラス(try-with-resourcesで使用できる) */
+    public static final class Lease implements AutoCloseable
+    {
+        private final EndpointPool pool;
+        private final PooledClient pooled;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(EndpointPool pool, PooledClient pooled)
+        {
+            this.pool = pool;
+            this.pooled = pooled;
+        }
+
+        /** @return : 借りたSocketClient(返却後は使用しないこと) */
+        public SocketClient client(){return pooled.client;}
+
+        /** SocketClientをプールへ返却する(2回目以降の呼び出しは何もしない) */
+        @Override
+        public void close()
+        {
+            if(released.compareAndSet(false, true)) pool.release(pooled);
+        }
+    }
+
+    /** プールしているSocketClientと最後に返却された時刻 */
+    private static final class PooledClient
+    {
+        private final SocketClient client;
+        private volatile long lastUsedNanos = System.nanoTime();
+
+        private PooledClient(SocketClient client){this.client = client;}
+    }
+
+    /** 1つの接続先の接続を保持するプール */
+    private final class EndpointPool
+    {
+        private final ClientConfig config;
+        /** 貸し出し中でない接続(最近返却されたものから貸し出す) */
+        private final ConcurrentLinkedDeque<PooledClient> idle = new ConcurrentLinkedDeque<>();
+        /** 同時に貸し出せる数(MAX_SIZE)の管理 */
+        private final Semaphore permits = new Semaphore(MAX_SIZE);
+        private final AtomicInteger idleCount = new AtomicInteger();
+        private final AtomicInteger totalCount = new AtomicInteger();
+
+        private EndpointPool(ClientConfig config){this.config = config;}
+
+        private Lease checkout(long timeoutMillis) throws IOException, InterruptedException, TimeoutException
+        {
+            if(!permits.tryAcquire() && !permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS))
+                throw new TimeoutException("no pooled connection available for " + key(config) + " within " + timeoutMillis + "ms");
+
+            try
+            {
+                PooledClient pooled;
+                while((pooled = idle.pollFirst()) != null)
+                {
+                    idleCount.decrementAndGet();
+                    if(pooled.client.isConnected()) return new Lease(this, pooled);     // 接続監視で切断されていないものだけ貸し出す
+                    discard(pooled);
+                }
+                return new Lease(this, create());
+            }
+            catch(IOException | RuntimeException | InterruptedException e)
+            {
+                permits.release();
+                throw e;
+            }
+        }
+
+        private void release(PooledClient pooled)
+        {
+            try
+            {
+                if(closed || !pooled.client.isConnected())
+                {
+                    discard(pooled);
+                    return;
+                }
+                pooled.lastUsedNanos = System.nanoTime();
+                idle.offerFirst(pooled);
+                idleCount.incrementAndGet();
+            }
+            finally
+            {
+                permits.release();
+            }
+        }
+
+        /** 新しい接続を確立する */
+        private PooledClient create() throws IOException, InterruptedException
+        {
+            SocketClient client = new SocketClient(listenerFactory.apply(config), config);
+            totalCount.incrementAndGet();
+            client.connect();
+            if(!client.awaitConnected(config.getTIMEOUT()))
+            {
+                discard(new PooledClient(client));
+                throw new ConnectException("pooled connection to " + key(config) + " could not be established");
+            }
+            return new PooledClient(client);
+        }
+
+        private void discard(PooledClient pooled)
+        {
+            totalCount.decrementAndGet();
+            pooled.client.disconnect();
+        }
+
+        /** 一定時間使われていない接続を最小接続数まで切断する。切断済みの接続も取り除く */
+        private void evictIdle()
+        {
+            long now = System.nanoTime();
+            for(PooledClient pooled : idle)
+            {
+                boolean expired = now - pooled.lastUsedNanos > TimeUnit.MILLISECONDS.toNanos(IDLE_TIMEOUT) && totalCount.get() > MIN_SIZE;
+                if((expired || !pooled.client.isConnected()) && idle.removeFirstOccurrence(pooled))
+                {
+                    idleCount.decrementAndGet();
+                    discard(pooled);
+                }
+            }
+        }
+
+        /** 接続数が最小接続数に満たない場合は接続を追加する
+         *  貸し出しと同時に行っても最大接続数を超えないよう、接続を追加する間は貸し出しと同じ枠を使う(空いていない場合は次の周期で追加する) */
+        private void fillToMinimum() throws IOException, InterruptedException
+        {
+            while(!closed && totalCount.get() < MIN_SIZE && permits.tryAcquire())
+            {
+                try
+                {
+                    if(totalCount.get() >= MIN_SIZE) return;       // 枠を待つ間に貸し出しで接続が追加された
+                    PooledClient pooled = create();
+                    idle.offerLast(pooled);
+                    idleCount.incrementAndGet();
+                }
+                finally
+                {
+                    permits.release();
+                }
+            }
+        }
+
+        private void closeIdle()
+        {
+            PooledClient pooled;
+            while((pooled = idle.pollFirst()) != null)
+            {
+                idleCount.decrementAndGet();
+                discard(pooled);
+            }
+        }
+    }
+
+
+    /** SocketClientPoolに値を設定してインスタンスを生成するためのクラス
+     *  ビルダーパターンを使用しているため最後に必ず.build()メソッドを呼ぶこと！！ */
+    public static class PoolBuilder
+    {
+        // 必須
+        private final Function<ClientConfig, SocketClient.ClientEventListener> LISTENER_FACTORY;
+
+        // オプション
+        private int MIN_SIZE = 0;                // 接続先ごとに維持する最小接続数
+        private int MAX_SIZE = 8;                // 接続先ごとの最大接続数
+        private long IDLE_TIMEOUT = 60000;       // 60000ms(60秒)
+        private long CHECKOUT_TIMEOUT = 3000;    // 3000ms(3秒)
+
+        /**
+         * PoolBuilderのコンストラクタ
+         * @param LISTENER_FACTORY：プールするSocketClientに設定するコールバック関数を接続先の設定から生成する処理
+         */
+        public PoolBuilder(Function<ClientConfig, SocketClient.ClientEventListener> LISTENER_FACTORY)
+        {
+            this.LISTENER_FACTORY = LISTENER_FACTORY;
+        }
+
+        /**
+         * 接続先ごとに常に維持する接続数を設定する。一度使われた接続先はこの数まで事前に接続しておく
+         * @param MIN_SIZE：最小接続数 初期値：0
+         */
+        public PoolBuilder setMinSize(int MIN_SIZE){this.MIN_SIZE = MIN_SIZE; return this;}
+
+        /**
+         * 接続先ごとの最大接続数(同時に貸し出せる数)を設定する
+         * @param MAX_SIZE：最大接続数 初期値：8
+         */
+        public PoolBuilder setMaxSize(int MAX_SIZE){this.MAX_SIZE = MAX_SIZE; return this;}
+
+        /**
+         * 使われていない接続を切断するまでの時間を設定する(最小接続数を下回る分は切断しない)
+         * @param IDLE_TIMEOUT：未使用の接続を保持する時間(ms) 初期値：60000ms
+         */
+        public PoolBuilder setIdleTimeout(long IDLE_TIMEOUT){this.IDLE_TIMEOUT = IDLE_TIMEOUT; return this;}
+
+        /**
+         * 全ての接続が貸し出し中の場合に空くまで待つ時間を設定する
+         * @param CHECKOUT_TIMEOUT：貸し出しの最大待機時間(ms) 初期値：3000ms
+         */
+        public PoolBuilder setCheckoutTimeout(long CHECKOUT_TIMEOUT){this.CHECKOUT_TIMEOUT = CHECKOUT_TIMEOUT; return this;}
+
+        /**
+         * 設定値をもとにSocketClientPoolクラスのインスタンスを生成する
+         * @return：SocketClientPoolクラスのインスタンス
+         */
+        public SocketClientPool build()
+        {
+            if(MAX_SIZE <= 0 || MIN_SIZE < 0 || MIN_SIZE > MAX_SIZE)
+                throw new IllegalArgumentException("0 <= MIN_SIZE <= MAX_SIZE and MAX_SIZE > 0 is required : MIN_SIZE=" + MIN_SIZE + ", MAX_SIZE=" + MAX_SIZE);
+            return new SocketClientPool(this);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/** TCPでサーバーへ接続する方法(接続先の候補が複数ある場合はHappyEyeballsConnectorで並行に接続する) */
+final class TcpTransport implements Transport
+{
+    private final ClientConfig config;
+    /** 接続先の候補の選択と接続時間・失敗の記録 */
+    private final EndpointSelector endpointSelector;
+    private volatile Endpoint connectedEndpoint;
+
+    TcpTransport(ClientConfig config)
+    {
+        this.config = config;
+        this.endpointSelector = new EndpointSelector(config.getENDPOINTS(), config.getRESOLVER());
+    }
+
+    @Override
+    public SocketChannel connect() throws IOException
+    {
+        List<EndpointSelector.Candidate> candidates = endpointSelector.candidates();
+        if(candidates.size() > 1)
+        {
+            HappyEyeballsConnector.Result result = HappyEyeballsConnector.connect(candidates, endpointSelector,
+                    config.getCONNECT_ATTEMPT_DELAY(), config.getTIMEOUT(), this::applySocketOptions);
+            connectedEndpoint = result.candidate.stats.endpoint;
+            return result.channel;
+        }
+
+        EndpointSelector.Candidate candidate = candidates.get(0);
+        SocketChannel newChannel = SocketChannel.open();
+        long startNanos = System.nanoTime();
+        try
+        {
+            applySocketOptions(newChannel);
+            newChannel.socket().connect(candidate.address, config.getTIMEOUT());
+        }
+        catch(IOException e)
+        {
+            try { newChannel.close(); } catch (IOException ignored) {}
+            endpointSelector.recordFailure(candidate);
+            throw e;
+        }
+        endpointSelector.recordSuccess(candidate, System.nanoTime() - startNanos);
+        connectedEndpoint = candidate.stats.endpoint;
+        return newChannel;
+    }
+
+    @Override
+    public Endpoint connectedEndpoint(){return connectedEndpoint;}
+
+    /** ClientConfigのソケットオプションを接続前のチャネルに設定する(0・falseの項目はOSの既定のままにする) */
+    private void applySocketOptions(SocketChannel target) throws IOException
+    {
+        if(config.isTCP_NO_DELAY()) target.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        if(config.isSO_KEEPALIVE()) target.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        if(config.getSO_RCVBUF() > 0) target.setOption(StandardSocketOptions.SO_RCVBUF, config.getSO_RCVBUF());
+        if(config.getSO_SNDBUF() > 0) target.setOption(StandardSocketOptions.SO_SNDBUF, config.getSO_SNDBUF());
+    }
+}
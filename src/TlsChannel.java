@@ -0,0 +1,354 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+/** SocketChannelの上でTLSの暗号化・復号を行うチャネル(SSLEngineを使用する)
+ *  ブロッキング・ノンブロッキングのどちらのSocketChannelでも使用でき、受信処理と送信キューからは
+ *  SocketChannelと同じようにread()・write()で扱う。ハンドシェイクは接続処理中にブロッキングモードで行う
+ *  読み込みは受信処理を行う1スレッド、書き込みは送信キューのwriterの1スレッドから呼ばれる前提とする */
+final class TlsChannel implements ByteChannel, GatheringByteChannel
+{
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+
+    /** 受信した暗号化データ(書き込み状態で保持する) */
+    private ByteBuffer netIn;
+    /** 復号済みでまだ読み出されていないデータ(読み出し状態で保持する) */
+    private ByteBuffer appIn;
+    /** 暗号化済みでまだ送信していないデータ(読み出し状態で保持する) */
+    private ByteBuffer netOut;
+
+    /** 暗号化とその送信を行うスレッドを1つにするためのロック(受信処理からの鍵更新の応答と送信が重ならないようにする) */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * コンストラクタ
+     * @param channel：接続済みのチャネル
+     * @param engine：クライアントモードに設定したSSLEngine
+     */
+    TlsChannel(SocketChannel channel, SSLEngine engine)
+    {
+        this.channel = channel;
+        this.engine = engine;
+        SSLSession session = engine.getSession();
+        this.netIn = ByteBuffer.allocateDirect(session.getPacketBufferSize());
+        this.appIn = ByteBuffer.allocate(session.getApplicationBufferSize()).flip();
+        this.netOut = ByteBuffer.allocateDirect(session.getPacketBufferSize()).flip();
+    }
+
+    /** @return : 下位のチャネル */
+    SocketChannel socketChannel(){return channel;}
+
+    /** @return : ハンドシェイク後のセッション(再利用されたセッションかどうかの確認などに使用する) */
+    SSLSession session(){return engine.getSession();}
+
+    /**
+     * ハンドシェイクを行う(チャネルがブロッキングモードの間に呼ぶこと)
+     * 同じSSLContextで同じ接続先へ接続した場合は、キャッシュされたセッションを再利用する短縮ハンドシェイクになる
+     */
+    void handshake() throws IOException
+    {
+        engine.beginHandshake();
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        while(status != SSLEngineResult.HandshakeStatus.FINISHED && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING)
+        {
+            switch(status)
+            {
+                case NEED_TASK -> runDelegatedTasks();
+                case NEED_WRAP -> wrapAndFlush(EMPTY);
+                default ->
+                {
+                    // NEED_UNWRAP・NEED_UNWRAP_AGAIN
+                    SSLEngineResult result = unwrap(appIn);
+                    if(result.getStatus() == SSLEngineResult.Status.CLOSED) throw new EOFException("TLS handshake : connection closed by peer");
+                    if(result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW && channel.read(netIn) < 0)
+                        throw new EOFException("TLS handshake : connection closed by peer");
+                }
+            }
+            status = engine.getHandshakeStatus();
+        }
+    }
+
+    /**
+     * 復号したデータを読み込む。ブロッキングモードでは1バイト以上読めるまで待つ
+     * @return：読み込んだバイト数。ノンブロッキングモードでデータが揃っていない場合は0、接続が閉じられた場合は-1
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException
+    {
+        int total = 0;
+        while(true)
+        {
+            total += transferAppIn(dst);
+            if(!dst.hasRemaining()) return total;
+
+            // 読み出し先に1レコード分以上の空きがあればコピーせずに直接復号する
+            ByteBuffer target = dst.remaining() >= engine.getSession().getApplicationBufferSize() ? dst : appIn;
+            int before = dst.position();
+            SSLEngineResult result = unwrap(target);
+            if(target == dst) total += dst.position() - before;
+
+            switch(result.getStatus())
+            {
+                case CLOSED ->
+                {
+                    return total > 0 ? total : -1;
+                }
+                case BUFFER_UNDERFLOW ->
+                {
+                    if(total > 0) return total;         // 読めた分を先に返し、続きは次の呼び出しで待つ
+                    int n = channel.read(netIn);
+                    if(n < 0)
+                    {
+                        try { engine.closeInbound(); } catch(SSLException ignored) {}   // close_notify無しの切断
+                        return -1;
+                    }
+                    if(n == 0) return 0;
+                }
+                default -> handlePostHandshake(result);
+            }
+        }
+    }
+
+    /** @return : ノンブロッキングモードで、チャネルから読まずに続けて読み込めるデータが残っているか */
+    boolean hasBufferedInput()
+    {
+        return appIn.hasRemaining() || netIn.position() > 0;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException
+    {
+        return (int) write(new ByteBuffer[]{src}, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException
+    {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * データを暗号化して書き込む。ノンブロッキングモードでは送信バッファが一杯になった時点で戻り、
+     * 暗号化済みで書き切れなかったデータはflush()で書き込む
+     * @return：暗号化したバイト数(暗号化前のデータのバイト数)
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+        writeLock.lock();
+        try
+        {
+            long total = 0;
+            while(flushNetOut())
+            {
+                if(!hasRemaining(srcs, offset, length)) break;
+                total += wrapInto(srcs, offset, length).bytesConsumed();
+            }
+            return total;
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 暗号化済みで書き切れなかったデータを書き込む
+     * @return：全て書き込んだ場合はtrue、ノンブロッキングモードで送信バッファが一杯の場合はfalse
+     */
+    boolean flush() throws IOException
+    {
+        writeLock.lock();
+        try
+        {
+            return flushNetOut();
+        }
+        finally
+        {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isOpen(){return channel.isOpen();}
+
+    /** close_notifyを送れる場合は送ってからチャネルを閉じる
+     *  送信中の場合や、送信バッファが一杯だと書き込みで止まるブロッキングモードの場合は送らずに閉じる */
+    @Override
+    public void close() throws IOException
+    {
+        if(channel.isOpen() && !channel.isBlocking() && writeLock.tryLock())
+        {
+            try
+            {
+                engine.closeOutbound();
+                if(flushNetOut()) wrapInto(new ByteBuffer[]{EMPTY}, 0, 1);
+                flushNetOut();
+            }
+            catch(IOException ignored) {}       // 切断済みの場合は送れなくてよい
+            finally
+            {
+                writeLock.unlock();
+            }
+        }
+        channel.close();
+    }
+
+
+    /// --- 内部処理 --- ///
+
+    /** 復号済みのデータをdstへ移す */
+    private int transferAppIn(ByteBuffer dst)
+    {
+        int n = Math.min(appIn.remaining(), dst.remaining());
+        if(n == 0) return 0;
+        int limit = appIn.limit();
+        appIn.limit(appIn.position() + n);
+        dst.put(appIn);
+        appIn.limit(limit);
+        return n;
+    }
+
+    /** netInのデータを1レコード分復号する(appInへ復号する場合はappInが空の時だけ呼ぶ) */
+    private SSLEngineResult unwrap(ByteBuffer target) throws IOException
+    {
+        while(true)
+        {
+            boolean toAppIn = target == appIn;
+            if(toAppIn) appIn.clear();
+            netIn.flip();
+            SSLEngineResult result;
+            try
+            {
+                result = engine.unwrap(netIn, target);
+            }
+            finally
+            {
+                netIn.compact();
+                if(toAppIn) appIn.flip();
+            }
+
+            switch(result.getStatus())
+            {
+                case BUFFER_OVERFLOW ->
+                {
+                    // 復号先がセッションのレコードサイズより小さい
+                    if(!toAppIn) target = appIn;
+                    else appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize()).flip();
+                }
+                case BUFFER_UNDERFLOW ->
+                {
+                    int packetSize = engine.getSession().getPacketBufferSize();
+                    if(netIn.capacity() >= packetSize) return result;
+                    netIn = ByteBuffer.allocateDirect(packetSize).put(netIn.flip());
+                }
+                default ->
+                {
+                    return result;
+                }
+            }
+        }
+    }
+
+    /** ハンドシェイク後に受信したセッションチケット・鍵更新などの処理を行う
+     *  応答が必要な場合、書き切れていない送信データがあればその後の送信時に暗号化される */
+    private void handlePostHandshake(SSLEngineResult result) throws IOException
+    {
+        SSLEngineResult.HandshakeStatus status = result.getHandshakeStatus();
+        if(status == SSLEngineResult.HandshakeStatus.NEED_TASK) runDelegatedTasks();
+        else if(status == SSLEngineResult.HandshakeStatus.NEED_WRAP)
+        {
+            writeLock.lock();
+            try
+            {
+                if(flushNetOut()) wrapInto(new ByteBuffer[]{EMPTY}, 0, 1);
+            }
+            finally
+            {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /** 空のデータを暗号化して全て書き込む(ブロッキングモードでのハンドシェイク用) */
+    private void wrapAndFlush(ByteBuffer src) throws IOException
+    {
+        flushNetOut();
+        wrapInto(new ByteBuffer[]{src}, 0, 1);
+    }
+
+    /** srcsを1レコード分暗号化してnetOutへ入れ、書き込む(netOutが空の時だけ呼ぶ) */
+    private SSLEngineResult wrapInto(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+        while(true)
+        {
+            netOut.clear();
+            SSLEngineResult result;
+            try
+            {
+                result = engine.wrap(srcs, offset, length, netOut);
+            }
+            finally
+            {
+                netOut.flip();
+            }
+
+            switch(result.getStatus())
+            {
+                case BUFFER_OVERFLOW -> netOut = ByteBuffer.allocateDirect(engine.getSession().getPacketBufferSize()).flip();
+                case CLOSED ->
+                {
+                    if(netOut.hasRemaining()) flushNetOut();    // close_notify
+                    if(result.bytesConsumed() == 0 && hasRemaining(srcs, offset, length)) throw new ClosedChannelException();
+                    return result;
+                }
+                default ->
+                {
+                    if(result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) runDelegatedTasks();
+                    flushNetOut();
+                    return result;
+                }
+            }
+        }
+    }
+
+    /** netOutに残っているデータを書き込む
+     * @return：全て書き込んだ場合はtrue */
+    private boolean flushNetOut() throws IOException
+    {
+        while(netOut.hasRemaining())
+        {
+            if(channel.write(netOut) == 0) return false;
+        }
+        return true;
+    }
+
+    private void runDelegatedTasks()
+    {
+        Runnable task;
+        while((task = engine.getDelegatedTask()) != null) task.run();
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] srcs, int offset, int length)
+    {
+        for(int i = offset; i < offset + length; i++)
+        {
+            if(srcs[i].hasRemaining()) return true;
+        }
+        return false;
+    }
+}
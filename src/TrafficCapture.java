@@ -0,0 +1,302 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/** 送受信したデータを時刻付きでファイルへ記録するクラス(読み込みサイズや受信処理の調整を実際の通信で試すため)
+ *  ClientConfig.ConfigBuilder.setTrafficCapture()で設定すると、受信処理が1回の読み込みで受信したデータと、
+ *  送信キューへ積まれた送信データ(接続監視を含む。sendFileなどのチャネルからの送信は含まない)が記録される
+ *  送受信のスレッドはメモリ上の書き込み待ちの領域へコピーするだけで、ファイルへの書き込みは記録用のスレッドが
+ *  メモリマップしたファイルへまとめて行う。書き込み待ちの領域が一杯の場合は送受信を待たせずにその分を記録しない
+ *  TLS使用時は暗号化前・復号後のデータが記録される。記録したファイルはReaderで読み込める
+ *
+ *  ファイルの形式 : ヘッダー(MAGIC, VERSION, 記録の合計バイト数) + 記録([記録開始からの経過時間(ns)][方向][データ長][データ])の並び */
+public final class TrafficCapture implements AutoCloseable
+{
+    /** データの方向 */
+    public enum Direction
+    {
+        /** サーバーから受信したデータ */
+        INBOUND,
+        /** サーバーへ送信したデータ */
+        OUTBOUND
+    }
+
+    private static final int MAGIC = 0x53434150;        // "SCAP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int LENGTH_OFFSET = 8;
+    /** 1件の記録の管理領域(経過時間 + 方向 + データ長) */
+    private static final int RECORD_HEADER_SIZE = 8 + 1 + 4;
+    /** 一度にメモリマップするファイルの範囲 */
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    /** 記録用のスレッドが書き込み待ちのデータを確認する間隔 */
+    private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Path file;
+    private final FileChannel channel;
+    private final long startNanos = System.nanoTime();
+    private final Thread writer;
+
+    /** 送受信のスレッドが書き込む領域(lockで保護する) */
+    private ByteBuffer active;
+    /** 記録用のスレッドがファイルへ書き込む領域 */
+    private ByteBuffer standby;
+    private final Object lock = new Object();
+    /** 書き込み待ちの領域が一杯で記録しなかった件数 */
+    private long droppedCount;
+    /** 記録を終了したか(ファイルへ書き込めなくなった場合も終了する) */
+    private volatile boolean closed = false;
+    /** close()が呼ばれたか */
+    private boolean closeCalled = false;
+
+    /** メモリマップしたファイルのヘッダー */
+    private final MappedByteBuffer header;
+    /** 現在メモリマップしている記録の範囲 */
+    private MappedByteBuffer segment;
+    private long segmentStart = HEADER_SIZE;
+    /** ファイルへ書き込んだ記録の合計バイト数(ヘッダーを除く) */
+    private long written;
+
+    /**
+     * 記録用のファイルを作成して記録を開始する(書き込み待ちの領域は4MB)
+     * @param file：記録先のファイル(既にある場合は上書きする)
+     */
+    public TrafficCapture(Path file) throws IOException
+    {
+        this(file, 4 * 1024 * 1024);
+    }
+
+    /**
+     * 記録用のファイルを作成して記録を開始する
+     * @param file：記録先のファイル(既にある場合は上書きする)
+     * @param bufferSize：書き込み待ちの領域のサイズ(Byte)。記録用のスレッドの書き込みが間に合わない間はこの分まで溜める
+     */
+    public TrafficCapture(Path file, int bufferSize) throws IOException
+    {
+        if(bufferSize < RECORD_HEADER_SIZE) throw new IllegalArgumentException("bufferSize too small : " + bufferSize);
+
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            this.segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentStart, SEGMENT_SIZE);
+        }
+        catch(IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putLong(LENGTH_OFFSET, 0);
+
+        this.active = ByteBuffer.allocate(bufferSize);
+        this.standby = ByteBuffer.allocate(bufferSize);
+        this.writer = new Thread(this::writeLoop, "TrafficCapture-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** @return : 記録先のファイル */
+    public Path getFile(){return file;}
+
+    /** @return : 書き込み待ちの領域が一杯で記録しなかった件数 */
+    public long getDroppedCount()
+    {
+        synchronized(lock){return droppedCount;}
+    }
+
+    /**
+     * 送受信したデータを記録する(送受信のスレッドから呼ばれる)
+     * @param direction：データの方向
+     * @param data：送受信したデータ(position～limit)。positionは変更しない
+     */
+    void record(Direction direction, ByteBuffer data)
+    {
+        long nanos = System.nanoTime() - startNanos;
+        int length = data.remaining();
+        synchronized(lock)
+        {
+            if(closed) return;
+            ByteBuffer out = active;
+            if(out.remaining() < RECORD_HEADER_SIZE + length)
+            {
+                droppedCount++;
+                return;
+            }
+            out.putLong(nanos).put((byte) direction.ordinal()).putInt(length);
+            out.put(out.position(), data, data.position(), length);
+            out.position(out.position() + length);
+        }
+    }
+
+    /** 記録を終了し、書き込み待ちのデータを全てファイルへ書き込んでから閉じる */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized(lock)
+        {
+            if(closeCalled) return;
+            closeCalled = true;
+            closed = true;
+        }
+        LockSupport.unpark(writer);
+        try
+        {
+            writer.join();
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        try
+        {
+            flush();                // 終了間際に積まれた分
+            segment.force();
+            header.force();
+            segment = null;
+            try
+            {
+                channel.truncate(HEADER_SIZE + written);     // メモリマップした範囲の未使用の部分を切り詰める
+            }
+            catch(IOException ignored) {}   // 切り詰められない環境でもヘッダーの合計バイト数までを読み込むので問題ない
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /** 書き込み待ちのデータを定期的にファイルへ書き込む(記録用のスレッドで実行される) */
+    private void writeLoop()
+    {
+        try
+        {
+            while(!closed)
+            {
+                LockSupport.parkNanos(FLUSH_INTERVAL_NANOS);
+                flush();
+            }
+        }
+        catch(IOException e)
+        {
+            synchronized(lock){closed = true;}     // ファイルへ書き込めないので以降は記録しない
+        }
+    }
+
+    /** 送受信のスレッドが書き込む領域を入れ替え、それまでに溜まったデータをファイルへ書き込む */
+    private void flush() throws IOException
+    {
+        ByteBuffer pending;
+        synchronized(lock)
+        {
+            if(active.position() == 0) return;
+            pending = active;
+            active = standby;
+            standby = pending;
+        }
+
+        pending.flip();
+        while(pending.hasRemaining())
+        {
+            if(!segment.hasRemaining())
+            {
+                segmentStart += SEGMENT_SIZE;
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentStart, SEGMENT_SIZE);
+            }
+            int length = Math.min(pending.remaining(), segment.remaining());
+            segment.put(segment.position(), pending, pending.position(), length);
+            segment.position(segment.position() + length);
+            pending.position(pending.position() + length);
+            written += length;
+        }
+        pending.clear();
+
+        header.putLong(LENGTH_OFFSET, written);     // 記録の途中で終了した場合も、ここまでの記録は読み込めるようにする
+    }
+
+
+    /** 記録したファイルを先頭から1件ずつ読み込むクラス
+     *
+     *  使用例 :
+     *  try(TrafficCapture.Reader reader = TrafficCapture.open(path)) { while(reader.next()) { ... reader.data() ... } } */
+    public static final class Reader implements AutoCloseable
+    {
+        private final DataInputStream in;
+        /** 未読の記録のバイト数 */
+        private long remaining;
+        private long nanos;
+        private Direction direction;
+        private byte[] data = new byte[0];
+        private int length;
+
+        private Reader(Path file) throws IOException
+        {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+            try
+            {
+                if(in.readInt() != MAGIC) throw new IOException("not a capture file : " + file);
+                int version = in.readInt();
+                if(version != VERSION) throw new IOException("unsupported capture version : " + version);
+                this.remaining = in.readLong();
+            }
+            catch(IOException e)
+            {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * 次の記録を読み込む
+         * @return：読み込んだ場合はtrue、最後まで読み込んだ場合はfalse
+         */
+        public boolean next() throws IOException
+        {
+            if(remaining < RECORD_HEADER_SIZE) return false;
+            nanos = in.readLong();
+            direction = Direction.values()[in.readByte()];
+            length = in.readInt();
+            if(length < 0 || length > remaining - RECORD_HEADER_SIZE) throw new EOFException("truncated capture record");
+            if(data.length < length) data = new byte[Math.max(length, data.length * 2)];
+            in.readFully(data, 0, length);
+            remaining -= RECORD_HEADER_SIZE + length;
+            return true;
+        }
+
+        /** @return : 記録開始から送受信までの経過時間(ns) */
+        public long nanos(){return nanos;}
+
+        /** @return : データの方向 */
+        public Direction direction(){return direction;}
+
+        /** @return : 送受信したデータ(次のnext()で内容が変わるため、保持する場合はコピーすること) */
+        public ByteBuffer data(){return ByteBuffer.wrap(data, 0, length);}
+
+        @Override
+        public void close() throws IOException {in.close();}
+    }
+
+    /**
+     * 記録したファイルを開く
+     * @param file：TrafficCaptureで記録したファイル
+     */
+    public static Reader open(Path file) throws IOException
+    {
+        return new Reader(file);
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.simple_socket_client_lib_ver201;
+
+/** SocketClient.sendFile()・send()で送信中のデータの送信済みバイト数を受け取るためのインターフェース
+ *  送信を行うスレッド(NIOエンジン使用時はI/Oスレッド)から書き込みのたびに呼ばれるので、時間のかかる処理は行わないこと */
+@FunctionalInterface
+public interface TransferProgressListener
+{
+    /**
+     * ソケットへ書き込んだ時に呼ばれる
+     * @param transferred：これまでに書き込んだバイト数
+     * @param total：送信する全体のバイト数
+     */
+    void onProgress(long transferred, long total);
+}
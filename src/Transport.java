@@ -0,0 +1,19 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/** SocketClientがサーバーへの接続を確立する方法(TCP・Unixドメインソケット)
+ *  接続後の送受信・接続監視・再接続の処理はどの方法でも共通で、SocketChannelに対して行う
+ *  ClientConfigの設定に応じてSocketClientのコンストラクタで1つ選ばれる */
+interface Transport
+{
+    /**
+     * サーバーへ接続する(接続処理中・再接続中の1つのスレッドからだけ呼ばれる)
+     * @return：接続済みのチャネル(ブロッキングモードかどうかは問わない)
+     */
+    SocketChannel connect() throws IOException;
+
+    /** @return : 最後に接続した接続先(TLSのセッションの再利用とgetConnectedEndpoint()に使う) */
+    Endpoint connectedEndpoint();
+}
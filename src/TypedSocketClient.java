@@ -0,0 +1,158 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/** 送受信データをbyte[]ではなくオブジェクトで扱うためのSocketClient
+ *  送信時はMessageEncoderでBufferPoolのバッファへ直接書き込み、受信時はMessageDecoderで受信バッファから直接読み込むため、
+ *  メッセージごとの中間のbyte[]が生成されない。接続・再接続・死活監視の動作はSocketClientと同じ
+ *
+ *  使用例 :
+ *  ClientConfig config = new ClientConfig.ConfigBuilder(host, port).setFrameDecoder(() -> FrameDecoder.lengthField(4)).build();
+ *  TypedSocketClient<String> client = new TypedSocketClient<>(listener, config, MessageCodec.lengthPrefixed(MessageCodec.utf8(), 4)); */
+public class TypedSocketClient<T>
+{
+    /** 実際の通信を行うSocketClient */
+    private final SocketClient client;
+    /** 送信するオブジェクトの書き込み方 */
+    private final MessageEncoder<? super T> encoder;
+
+    /**
+     * コンストラクタ
+     * @param listener:TypedEventListenerインターフェースを実装したクラス
+     * @param config:ClientConfigクラス
+     * @param codec:送受信するオブジェクトのコーデック
+     */
+    public TypedSocketClient(TypedEventListener<T> listener, ClientConfig config, MessageCodec<T> codec)
+    {
+        this(listener, config, codec, codec);
+    }
+
+    /**
+     * コンストラクタ
+     * @param listener:TypedEventListenerインターフェースを実装したクラス
+     * @param config:ClientConfigクラス
+     * @param encoder:送信するオブジェクトの書き込み方
+     * @param decoder:受信したメッセージの読み込み方
+     */
+    public TypedSocketClient(TypedEventListener<T> listener, ClientConfig config, MessageEncoder<? super T> encoder, MessageDecoder<? extends T> decoder)
+    {
+        DecodingListener<T> adapter = new DecodingListener<>(listener, decoder);
+        this.client = new SocketClient(adapter, config);
+        this.encoder = encoder;
+        adapter.client = client;
+    }
+
+    /** サーバーへ接続する(SocketClient.connect()と同じ) */
+    public void connect(){client.connect();}
+
+    /** サーバーとの接続を切断する(SocketClient.disconnect()と同じ) */
+    public void disconnect(){client.disconnect();}
+
+    /**
+     * オブジェクトを送信する関数
+     * @param message:送信するオブジェクト
+     */
+    public void sendMessage(T message){client.sendMessage(message, encoder);}
+
+    /**
+     * オブジェクトを送信し、送信の完了を受け取るための関数
+     * @param message:送信するオブジェクト
+     * @return:ソケットへの書き込みが終わった時点で完了するCompletableFuture
+     */
+    public CompletableFuture<Void> sendMessageAsync(T message){return client.sendMessageAsync(message, encoder);}
+
+    /** @return : 接続中か */
+    public boolean isConnected(){return client.isConnected();}
+
+    /** @return : 現在の接続状態 */
+    public SocketClient.ConnectionState getConnectionState(){return client.getConnectionState();}
+
+    /**
+     * 接続中の状態になるまで待つ
+     * @param timeoutMillis：最大待機時間(ms)
+     * @return：時間内に接続中になった場合はtrue
+     */
+    public boolean awaitConnected(long timeoutMillis) throws InterruptedException {return client.awaitConnected(timeoutMillis);}
+
+    /** @return : 未送信データ量が上限を超えていないか */
+    public boolean isWritable(){return client.isWritable();}
+
+    /** @return : 送受信量・遅延などの計測値 */
+    public ClientMetrics getMetrics(){return client.getMetrics();}
+
+    /** @return : 実際の通信を行うSocketClient(byte[]での送信・request()などを併用する場合に使う) */
+    public SocketClient getClient(){return client;}
+
+
+    /** 受信バッファからオブジェクトを読み込んでTypedEventListenerへ渡すコールバック */
+    private static final class DecodingListener<T> implements SocketClient.ByteBufferEventListener
+    {
+        private final TypedEventListener<T> listener;
+        private final MessageDecoder<? extends T> decoder;
+        /** デコードの失敗を通知する先(コンストラクタ内で設定する) */
+        private SocketClient client;
+
+        private DecodingListener(TypedEventListener<T> listener, MessageDecoder<? extends T> decoder)
+        {
+            this.listener = listener;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public void onDataReceived(ByteBuffer data)
+        {
+            T message;
+            try
+            {
+                message = decoder.decode(data);
+            }
+            catch(RuntimeException e)
+            {
+                // 1メッセージの形式が不正なだけなので接続はやり直さずにエラーとして通知する
+                client.notifyReceiveError(e);
+                return;
+            }
+            if(listener != null) listener.onMessageReceived(message);
+        }
+
+        @Override
+        public void onErrorReceived(SocketClient.ErrorInfo e){if(listener != null) listener.onErrorReceived(e);}
+
+        @Override
+        public void onConnected(){if(listener != null) listener.onConnected();}
+
+        @Override
+        public void onDisConnected(){if(listener != null) listener.onDisConnected();}
+
+        @Override
+        public void onRetryStarted(){if(listener != null) listener.onRetryStarted();}
+
+        @Override
+        public void onWritabilityChanged(boolean writable){if(listener != null) listener.onWritabilityChanged(writable);}
+
+        @Override
+        public void onReadIdle(long idleMillis){if(listener != null) listener.onReadIdle(idleMillis);}
+    }
+
+    /** TypedSocketClientのコールバック関数が定義されたインターフェース(受信データ以外はClientEventListenerと同じ) */
+    public interface TypedEventListener<T>
+    {
+        /** サーバーからメッセージ受信時に呼ぶコールバック関数
+         * @param message　デコードした受信メッセージ　*/
+        void onMessageReceived(T message);
+        /** エラー発生時に呼ぶコールバック関数(デコードの失敗はPhase.RECEIVEのエラーとして通知される)
+         * @param e　発生したエラー　*/
+        void onErrorReceived(SocketClient.ErrorInfo e);
+        /** 接続確立時に呼ぶコールバック関数　*/
+        default void onConnected() {}
+        /** 正常に接続が切断されたときに呼ぶコールバック関数 */
+        void onDisConnected();
+        /** 接続リトライのスタート時に呼ばれるコールバック関数 */
+        default void onRetryStarted(){}
+        /** 未送信データ量が上限を超えた・下限を下回った時に呼ばれるコールバック関数 */
+        default void onWritabilityChanged(boolean writable){}
+        /** 一定時間(READ_IDLE_TIMEOUT)サーバーからデータを受信しなかった時に呼ばれるコールバック関数 */
+        default void onReadIdle(long idleMillis){}
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.simple_socket_client_lib_ver201;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/** 同じホスト上のサーバーへUnixドメインソケットで接続する方法(ループバックのTCPを経由しない)
+ *  TCP_NODELAY・SO_KEEPALIVEはUnixドメインソケットには無いため設定しない
+ *  接続は待ち受け中のソケットファイルへすぐに確立・失敗するため、接続先の候補やTIMEOUTによる打ち切りは使わない */
+final class UnixDomainTransport implements Transport
+{
+    private final ClientConfig config;
+    private final UnixDomainSocketAddress address;
+    /** 接続先として扱う名前(エラー情報やTLSのセッションの再利用にはClientConfigのHOST:PORTを使う) */
+    private final Endpoint endpoint;
+
+    UnixDomainTransport(ClientConfig config, Path path)
+    {
+        this.config = config;
+        this.address = UnixDomainSocketAddress.of(path);
+        this.endpoint = new Endpoint(config.getHOST(), config.getPORT());
+    }
+
+    @Override
+    public SocketChannel connect() throws IOException
+    {
+        SocketChannel newChannel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try
+        {
+            if(config.getSO_RCVBUF() > 0) newChannel.setOption(StandardSocketOptions.SO_RCVBUF, config.getSO_RCVBUF());
+            if(config.getSO_SNDBUF() > 0) newChannel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSO_SNDBUF());
+            newChannel.connect(address);
+        }
+        catch(IOException e)
+        {
+            try { newChannel.close(); } catch (IOException ignored) {}
+            throw e;
+        }
+        return newChannel;
+    }
+
+    @Override
+    public Endpoint connectedEndpoint(){return endpoint;}
+}